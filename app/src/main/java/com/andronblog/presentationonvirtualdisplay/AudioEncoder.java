@@ -0,0 +1,271 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the PCM of an {@link AudioSource} into AAC on its own audio thread and passes
+ * the encoded samples to the registered sinks, which can come and go while it runs, e.g.
+ * one per recording. The chunks are stamped by an {@link AvClock}, so they share the
+ * time base of the video frames.
+ *
+ * The PCM is read straight into the input buffers of the codec, and the output info is
+ * reused, so the audio thread doesn't allocate while encoding.
+ */
+public class AudioEncoder {
+
+    private static final String TAG = "AudioEncoder";
+
+    public static final String MIME_AAC = "audio/mp4a-latm";
+
+    // An AAC frame takes 1024 PCM frames, read as much at once to keep the latency low.
+    private static final int FRAMES_PER_READ = 1024;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private final AudioSource mSource;
+    private final int mBitRate;
+    private final int mFrameSize;
+    private final AvClock mClock;
+
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final SampleInfo mSampleInfo = new SampleInfo();
+
+    // Guarded by itself, the sinks are called with it held so that a removed sink isn't
+    // called any more.
+    private final List<SampleSink> mSinks = new ArrayList<SampleSink>();
+    private MediaFormat mFormat;
+
+    private MediaCodec mCodec;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * @param maxDriftUs the highest difference of the audio timestamps and the clock
+     */
+    public AudioEncoder(AudioSource source, int bitRate, long maxDriftUs) {
+        mSource = source;
+        mBitRate = bitRate;
+        mFrameSize = 2 * source.getChannelCount();
+        mClock = new AvClock(source.getSampleRate(), maxDriftUs);
+    }
+
+    /**
+     * Adds a sink getting the samples from now on. If the output format is already known
+     * it's passed to the sink on the calling thread, the rest is called on the audio thread.
+     */
+    public void addSink(SampleSink sink) {
+        synchronized (mSinks) {
+            mSinks.add(sink);
+            if (mFormat != null) {
+                sink.onOutputFormat(mFormat);
+            }
+        }
+    }
+
+    /**
+     * Removes a sink, it doesn't get anything after this returns, not even the end of stream.
+     */
+    public void removeSink(SampleSink sink) {
+        synchronized (mSinks) {
+            mSinks.remove(sink);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    /**
+     * Starts capturing and encoding, does nothing if already started.
+     */
+    public synchronized void start() throws IOException {
+        if (mThread != null) {
+            return;
+        }
+        MediaFormat format = MediaFormat.createAudioFormat(MIME_AAC, mSource.getSampleRate(),
+                mSource.getChannelCount());
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE,
+                MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, FRAMES_PER_READ * mFrameSize);
+        mCodec = MediaCodec.createEncoderByType(MIME_AAC);
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mCodec.start();
+            mSource.start();
+        } catch (IOException e) {
+            releaseCodec();
+            throw e;
+        } catch (IllegalStateException e) {
+            releaseCodec();
+            throw new IOException("Can't start audio encoder: " + e.getMessage());
+        }
+        synchronized (mSinks) {
+            mFormat = null;
+        }
+        mClock.reset();
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                encode();
+            }
+        }, "AudioThread");
+        mThread.start();
+    }
+
+    /**
+     * Signals the end of stream, waits until the sinks get it and stops capturing.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        join();
+        // Stopping the source also wakes up a read blocked on it.
+        mSource.stop();
+        if (mThread.isAlive()) {
+            join();
+        }
+        if (mThread.isAlive()) {
+            // The codec is still in use, the next stop tries again.
+            Log.w(TAG, "Audio thread didn't finish in time");
+            return;
+        }
+        mThread = null;
+        releaseCodec();
+        Log.i(TAG, "Stopped, " + mClock);
+    }
+
+    public void release() {
+        stop();
+        mSource.release();
+    }
+
+    private void join() {
+        try {
+            mThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releaseCodec() {
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Stop failed: " + e.getMessage());
+        }
+        mCodec.release();
+        mCodec = null;
+    }
+
+    private void encode() {
+        boolean inputDone = false;
+        try {
+            while (true) {
+                if (!inputDone) {
+                    inputDone = feed();
+                }
+                if (drain(inputDone ? DEQUEUE_TIMEOUT_US : 0)) {
+                    break;
+                }
+            }
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Audio encoder error", e);
+        }
+        synchronized (mSinks) {
+            for (int i = 0; i < mSinks.size(); i++) {
+                mSinks.get(i).onEndOfStream();
+            }
+            mSinks.clear();
+        }
+    }
+
+    /**
+     * Reads a chunk into an input buffer of the codec. Returns true once the end of stream
+     * is queued.
+     */
+    private boolean feed() {
+        int index = mCodec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+        if (index < 0) {
+            return false;
+        }
+        ByteBuffer buffer = mCodec.getInputBuffer(index);
+        int size = Math.min(buffer.capacity(), FRAMES_PER_READ * mFrameSize);
+        while (mRunning) {
+            buffer.clear();
+            int read = mSource.read(buffer, size);
+            if (read < 0) {
+                Log.e(TAG, "Audio read error: " + read);
+                mRunning = false;
+                break;
+            }
+            if (read == 0) {
+                continue;
+            }
+            long ptsUs = mClock.stamp(read / mFrameSize, AvClock.nowUs());
+            // Read the next chunk into the same buffer if this one is dropped.
+            if (ptsUs >= 0) {
+                mCodec.queueInputBuffer(index, 0, read, ptsUs, 0);
+                return false;
+            }
+        }
+        mCodec.queueInputBuffer(index, 0, 0, AvClock.nowUs(),
+                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        return true;
+    }
+
+    /**
+     * Passes the available output to the sinks. Returns true at the end of stream.
+     */
+    private boolean drain(long timeoutUs) {
+        while (true) {
+            int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return false;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat format = mCodec.getOutputFormat();
+                Log.d(TAG, "onOutputFormatChanged " + format);
+                synchronized (mSinks) {
+                    mFormat = format;
+                    for (int i = 0; i < mSinks.size(); i++) {
+                        mSinks.get(i).onOutputFormat(format);
+                    }
+                }
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            ByteBuffer buffer = mCodec.getOutputBuffer(index);
+            MediaCodec.BufferInfo info = mBufferInfo;
+            if (info.size > 0 && buffer != null) {
+                mSampleInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                synchronized (mSinks) {
+                    for (int i = 0; i < mSinks.size(); i++) {
+                        buffer.limit(info.offset + info.size);
+                        buffer.position(info.offset);
+                        mSinks.get(i).onSample(buffer, mSampleInfo);
+                    }
+                }
+            }
+            mCodec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                return true;
+            }
+        }
+    }
+}
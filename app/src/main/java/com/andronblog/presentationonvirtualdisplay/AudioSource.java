@@ -0,0 +1,31 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of 16-bit PCM audio read by {@link AudioEncoder} on its thread.
+ * {@link MicrophoneSource} records the microphone, {@link ToneSource} generates the PCM
+ * when the microphone can't be used.
+ */
+public interface AudioSource {
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    void start() throws IOException;
+
+    /**
+     * Reads up to the given number of bytes into the buffer at its position, blocking
+     * until they're available. Returns the number of bytes read, a whole number of frames,
+     * or a negative value on error.
+     *
+     * @param buffer a direct buffer
+     */
+    int read(ByteBuffer buffer, int size);
+
+    void stop();
+
+    void release();
+}
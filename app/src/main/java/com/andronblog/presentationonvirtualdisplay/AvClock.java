@@ -0,0 +1,107 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Timestamps the PCM chunks of an audio source against the monotonic clock the video
+ * frames are stamped with: the frames of the virtual display get the time of
+ * {@link System#nanoTime()} when they're queued into the encoder surface.
+ *
+ * The time of a chunk is counted from the number of frames read since an anchor, so the
+ * audio track has no jitter of the reads. The anchor is the time the first chunk ended
+ * being captured minus its duration. When the counted time drifts off the clock by more
+ * than the bound, e.g. after an overrun of the source or because of the error of its
+ * sample clock, the timeline is either moved forward to the clock or the chunk is
+ * dropped to let the clock catch up, so the timestamps never go back.
+ */
+public class AvClock {
+
+    private final int mSampleRate;
+    private final long mMaxDriftUs;
+
+    private long mAnchorUs = -1;
+    private long mFrames;
+    private long mDriftUs;
+    private long mResyncs;
+    private long mDroppedFrames;
+
+    /**
+     * @param maxDriftUs the highest difference of the audio timeline and the clock
+     */
+    public AvClock(int sampleRate, long maxDriftUs) {
+        mSampleRate = sampleRate;
+        mMaxDriftUs = maxDriftUs;
+    }
+
+    /**
+     * Returns the time of the clock shared by the audio and the video.
+     */
+    public static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * Returns the presentation time of the first frame of a chunk, or -1 if the chunk must
+     * be dropped because the audio timeline is ahead of the clock.
+     *
+     * @param frames the number of frames of the chunk
+     * @param readEndUs the time of the clock the read of the chunk returned at
+     */
+    public long stamp(int frames, long readEndUs) {
+        long durationUs = framesToUs(frames);
+        // The chunk has been captured by the time the read returned.
+        long capturedUs = readEndUs - durationUs;
+        if (mAnchorUs < 0) {
+            anchor(capturedUs);
+        }
+        long ptsUs = mAnchorUs + framesToUs(mFrames);
+        mDriftUs = capturedUs - ptsUs;
+        if (mDriftUs > mMaxDriftUs) {
+            // Frames have been lost or the sample clock is slow, jump to the clock.
+            mResyncs++;
+            anchor(capturedUs);
+            ptsUs = capturedUs;
+        } else if (mDriftUs < -mMaxDriftUs) {
+            mDroppedFrames += frames;
+            return -1;
+        }
+        mFrames += frames;
+        return ptsUs;
+    }
+
+    /**
+     * Restarts the timeline at the next chunk.
+     */
+    public void reset() {
+        mAnchorUs = -1;
+        mFrames = 0;
+        mDriftUs = 0;
+    }
+
+    /**
+     * Returns the difference of the clock and the audio timeline at the last chunk.
+     */
+    public long getDriftUs() {
+        return mDriftUs;
+    }
+
+    public long getResyncs() {
+        return mResyncs;
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public long framesToUs(long frames) {
+        return frames * 1000000 / mSampleRate;
+    }
+
+    private void anchor(long timeUs) {
+        mAnchorUs = timeUs;
+        mFrames = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "drift=" + mDriftUs + "us resyncs=" + mResyncs + " dropped=" + mDroppedFrames;
+    }
+}
@@ -0,0 +1,343 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Muxer stage writing the video of the pipeline along with the audio of an
+ * {@link AudioEncoder} into a {@link SampleMuxer}. The audio is taken from the time the
+ * video format is known, i.e. the video encoder is started, until the video ends, and
+ * the audio before the first video sample is dropped, so both tracks start together.
+ *
+ * The muxer is started once it has both formats. The samples of the two tracks are then
+ * written in the order of their timestamps: a sample is held until the other track gets
+ * past it, but not longer than the interleave bound, so that a stalled track doesn't
+ * hold the other one back. If the audio format doesn't come within the bound, the video
+ * is recorded alone. The held samples are copied into slots allocated up front.
+ *
+ * The video methods are called on the thread of the pipeline, the audio ones on the
+ * audio thread.
+ */
+public class AvMuxerSink implements SampleSink {
+
+    private static final String TAG = "AvMuxerSink";
+
+    // An AAC frame of 1024 PCM frames is well under 1 KiB at the usual bit rates.
+    private static final int AUDIO_SLOTS = 64;
+    private static final int AUDIO_SLOT_SIZE = 1024;
+
+    private final SampleMuxer mMuxer;
+    private final AudioEncoder mAudioEncoder;
+    private final long mMaxInterleaveUs;
+    private final Track mVideo;
+    private final Track mAudio;
+    private final SampleInfo mWriteInfo = new SampleInfo();
+
+    private boolean mAudioAttached;
+    private boolean mStarted;
+    private boolean mFinished;
+    private long mFirstVideoPtsUs = -1;
+    private long mDroppedAudio;
+
+    /**
+     * @param maxInterleaveUs the longest time a track is held waiting for the other one
+     * @param videoSlots the number of video samples that can be held, should cover the
+     *                   interleave bound
+     * @param videoSlotSize the initial size of the video slots, should fit a typical sample
+     */
+    public AvMuxerSink(SampleMuxer muxer, AudioEncoder audioEncoder, long maxInterleaveUs,
+                       int videoSlots, int videoSlotSize) {
+        mMuxer = muxer;
+        mAudioEncoder = audioEncoder;
+        mMaxInterleaveUs = maxInterleaveUs;
+        mVideo = new Track(videoSlots, videoSlotSize);
+        mAudio = new Track(AUDIO_SLOTS, AUDIO_SLOT_SIZE);
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        synchronized (this) {
+            if (mStarted) {
+                Log.w(TAG, "Output format changed after the muxer has been started");
+                return;
+            }
+            mVideo.mFormat = format;
+        }
+        // The audio encoder calls the sink with its own lock held, so attach it without
+        // holding this one.
+        if (!mAudioAttached) {
+            mAudioAttached = true;
+            mAudioEncoder.addSink(mAudioSink);
+        }
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        // The codec config is already a part of the output format.
+        if (info.isCodecConfig() || info.size == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (mFinished || mVideo.mFormat == null) {
+                return;
+            }
+            if (mFirstVideoPtsUs < 0) {
+                mFirstVideoPtsUs = info.presentationTimeUs;
+            }
+            if (mVideo.isFull()) {
+                if (!mStarted) {
+                    giveUpAudio();
+                } else {
+                    write(mVideo);
+                }
+            }
+            mVideo.offer(buffer, info);
+            if (!mStarted && mAudio.mFormat == null && mVideo.getSpanUs() > mMaxInterleaveUs) {
+                giveUpAudio();
+            }
+            drain();
+        }
+    }
+
+    @Override
+    public void onEndOfStream() {
+        if (mAudioAttached) {
+            mAudioEncoder.removeSink(mAudioSink);
+        }
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mVideo.mEnded = true;
+            mAudio.mEnded = true;
+            if (!mStarted && mVideo.mFormat != null) {
+                start();
+            }
+            drain();
+            if (mStarted) {
+                try {
+                    mMuxer.stop();
+                } catch (IllegalStateException e) {
+                    // Thrown if no sample has been written.
+                    Log.e(TAG, "Stop muxer failed: " + e.getMessage());
+                }
+            }
+            mMuxer.release();
+            mFinished = true;
+            if (mDroppedAudio > 0) {
+                Log.d(TAG, "Dropped audio samples: " + mDroppedAudio);
+            }
+        }
+    }
+
+    private synchronized void onAudioFormat(MediaFormat format) {
+        if (mFinished || mStarted) {
+            return;
+        }
+        mAudio.mFormat = format;
+        if (mVideo.mFormat != null) {
+            start();
+            drain();
+        }
+    }
+
+    private synchronized void onAudioSample(ByteBuffer buffer, SampleInfo info) {
+        if (mFinished || mAudio.mEnded || info.isCodecConfig() || info.size == 0) {
+            return;
+        }
+        dropEarlyAudio();
+        if (mAudio.isFull()) {
+            if (mStarted && mFirstVideoPtsUs >= 0) {
+                write(mAudio);
+            } else {
+                // Nothing to line the audio up with yet, keep the latest.
+                mAudio.removeHead();
+                mDroppedAudio++;
+            }
+        }
+        mAudio.offer(buffer, info);
+        drain();
+    }
+
+    private synchronized void onAudioEndOfStream() {
+        mAudio.mEnded = true;
+        if (!mFinished) {
+            drain();
+        }
+    }
+
+    private void giveUpAudio() {
+        Log.w(TAG, "No audio format in time, recording the video only");
+        mAudio.mEnded = true;
+        mAudio.mFormat = null;
+        mDroppedAudio += mAudio.mSize;
+        mAudio.clear();
+        start();
+    }
+
+    private void start() {
+        mVideo.mIndex = mMuxer.addTrack(mVideo.mFormat);
+        if (mAudio.mFormat != null) {
+            mAudio.mIndex = mMuxer.addTrack(mAudio.mFormat);
+        }
+        mMuxer.start();
+        mStarted = true;
+    }
+
+    /**
+     * Writes the held samples which are in order or have been held for too long.
+     */
+    private void drain() {
+        if (!mStarted) {
+            return;
+        }
+        while (true) {
+            dropEarlyAudio();
+            boolean audioReady = mAudio.mIndex >= 0 && mFirstVideoPtsUs >= 0;
+            Track next;
+            if (mVideo.mSize > 0 && audioReady && mAudio.mSize > 0) {
+                next = mVideo.getHeadPtsUs() <= mAudio.getHeadPtsUs() ? mVideo : mAudio;
+            } else if (mVideo.mSize > 0) {
+                next = canWrite(mVideo, audioReady ? mAudio : null) ? mVideo : null;
+            } else if (mAudio.mSize > 0 && audioReady) {
+                next = canWrite(mAudio, mVideo) ? mAudio : null;
+            } else {
+                next = null;
+            }
+            if (next == null) {
+                return;
+            }
+            write(next);
+        }
+    }
+
+    /**
+     * Drops the audio before the first video sample, it's held until the video starts.
+     */
+    private void dropEarlyAudio() {
+        while (mAudio.mSize > 0 && mFirstVideoPtsUs >= 0 &&
+                mAudio.getHeadPtsUs() < mFirstVideoPtsUs) {
+            mAudio.removeHead();
+            mDroppedAudio++;
+        }
+    }
+
+    /**
+     * Returns true if the head of the track can be written while the other one has
+     * nothing held.
+     */
+    private boolean canWrite(Track track, Track other) {
+        if (other == null || other.mEnded || other.mIndex < 0) {
+            return true;
+        }
+        // The next sample of the other track comes after the last one written.
+        return track.getHeadPtsUs() <= other.mLastPtsUs || track.getSpanUs() > mMaxInterleaveUs;
+    }
+
+    private void write(Track track) {
+        int slot = track.mHead;
+        long ptsUs = track.mPts[slot];
+        if (ptsUs > track.mLastPtsUs || track.mLastPtsUs < 0) {
+            ByteBuffer data = track.mData[slot];
+            mWriteInfo.set(0, data.remaining(), ptsUs, track.mFlags[slot]);
+            mMuxer.writeSampleData(track.mIndex, data, mWriteInfo);
+            track.mLastPtsUs = ptsUs;
+        } else if (track == mAudio) {
+            mDroppedAudio++;
+        }
+        track.removeHead();
+    }
+
+    private final SampleSink mAudioSink = new SampleSink() {
+        @Override
+        public void onOutputFormat(MediaFormat format) {
+            onAudioFormat(format);
+        }
+
+        @Override
+        public void onSample(ByteBuffer buffer, SampleInfo info) {
+            onAudioSample(buffer, info);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            onAudioEndOfStream();
+        }
+    };
+
+    /**
+     * The held samples of a track in a ring of preallocated slots. A slot too small for
+     * a sample grows to the largest sample so far with some headroom, as the slots of
+     * {@link FrameQueue}, so they stop growing once the peak of the key frames is reached.
+     */
+    private static class Track {
+
+        private final ByteBuffer[] mData;
+        private final long[] mPts;
+        private final int[] mFlags;
+        private int mHead;
+        private int mSize;
+        private int mSlotSize;
+
+        private MediaFormat mFormat;
+        private int mIndex = -1;
+        private long mLastPtsUs = -1;
+        private boolean mEnded;
+
+        Track(int slots, int slotSize) {
+            mData = new ByteBuffer[slots];
+            mPts = new long[slots];
+            mFlags = new int[slots];
+            mSlotSize = slotSize;
+            for (int i = 0; i < slots; i++) {
+                mData[i] = ByteBuffer.allocateDirect(slotSize);
+            }
+        }
+
+        boolean isFull() {
+            return mSize == mData.length;
+        }
+
+        void offer(ByteBuffer buffer, SampleInfo info) {
+            int slot = (mHead + mSize) % mData.length;
+            ByteBuffer data = mData[slot];
+            if (data.capacity() < buffer.remaining()) {
+                mSlotSize = Math.max(mSlotSize, buffer.remaining() + buffer.remaining() / 4);
+                data = ByteBuffer.allocateDirect(mSlotSize);
+                mData[slot] = data;
+            }
+            data.clear();
+            data.put(buffer.duplicate());
+            data.flip();
+            mPts[slot] = info.presentationTimeUs;
+            mFlags[slot] = info.flags;
+            mSize++;
+        }
+
+        long getHeadPtsUs() {
+            return mPts[mHead];
+        }
+
+        /**
+         * Returns the time between the oldest and the newest held samples.
+         */
+        long getSpanUs() {
+            if (mSize == 0) {
+                return 0;
+            }
+            return mPts[(mHead + mSize - 1) % mData.length] - mPts[mHead];
+        }
+
+        void removeHead() {
+            mHead = (mHead + 1) % mData.length;
+            mSize--;
+        }
+
+        void clear() {
+            mHead = 0;
+            mSize = 0;
+        }
+    }
+}
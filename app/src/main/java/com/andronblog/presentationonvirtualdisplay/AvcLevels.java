@@ -0,0 +1,74 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Precomputed limits of the AVC levels. The level values are the same as
+ * MediaCodecInfo.CodecProfileLevel.AVCLevel* ones, they are duplicated here
+ * to use the table without the framework.
+ */
+public final class AvcLevels {
+
+    public static final int LEVEL_1 = 0x01;
+    public static final int LEVEL_1B = 0x02;
+    public static final int LEVEL_11 = 0x04;
+    public static final int LEVEL_12 = 0x08;
+    public static final int LEVEL_13 = 0x10;
+    public static final int LEVEL_2 = 0x20;
+    public static final int LEVEL_21 = 0x40;
+    public static final int LEVEL_22 = 0x80;
+    public static final int LEVEL_3 = 0x100;
+    public static final int LEVEL_31 = 0x200;
+    public static final int LEVEL_32 = 0x400;
+    public static final int LEVEL_4 = 0x800;
+    public static final int LEVEL_41 = 0x1000;
+    public static final int LEVEL_42 = 0x2000;
+    public static final int LEVEL_5 = 0x4000;
+    public static final int LEVEL_51 = 0x8000;
+    public static final int LEVEL_52 = 0x10000;
+
+    private static final LevelLimits[] LIMITS = {
+            new LevelLimits(LEVEL_1, 176, 144, 1485, 64000),
+            new LevelLimits(LEVEL_1B, 176, 144, 1485, 128000),
+            new LevelLimits(LEVEL_11, 352, 288, 3000, 192000),
+            new LevelLimits(LEVEL_12, 352, 288, 6000, 384000),
+            new LevelLimits(LEVEL_13, 352, 288, 11880, 768000),
+            new LevelLimits(LEVEL_2, 352, 288, 11880, 2000000),
+            new LevelLimits(LEVEL_21, 352, 576, 19800, 4000000),
+            new LevelLimits(LEVEL_22, 720, 480, 20250, 4000000),
+            new LevelLimits(LEVEL_3, 720, 480, 40500, 10000000),
+            new LevelLimits(LEVEL_31, 1280, 720, 108000, 14000000),
+            new LevelLimits(LEVEL_32, 1280, 720, 216000, 20000000),
+            // The height should be 1088 in terms of AVC capability.
+            new LevelLimits(LEVEL_4, 1920, 1088, 245760, 20000000),
+            new LevelLimits(LEVEL_41, 1920, 1088, 245760, 50000000),
+            new LevelLimits(LEVEL_42, 2048, 1088, 522240, 50000000),
+            new LevelLimits(LEVEL_5, 3672, 1536, 589824, 135000000),
+            new LevelLimits(LEVEL_51, 4096, 2304, 983040, 240000000),
+            new LevelLimits(LEVEL_52, 4096, 2304, 2073600, 240000000),
+    };
+
+    private static final LevelLimits DEFAULT_LIMITS = LIMITS[LIMITS.length - 2];
+
+    private AvcLevels() {
+    }
+
+    /**
+     * Returns the limits of the given level. An unknown level is treated as level 5.1.
+     */
+    public static LevelLimits forLevel(int level) {
+        // The levels are single bits, so the bit position is the index in the table.
+        if (level > 0 && Integer.bitCount(level) == 1) {
+            int index = Integer.numberOfTrailingZeros(level);
+            if (index < LIMITS.length) {
+                return LIMITS[index];
+            }
+        }
+        return DEFAULT_LIMITS;
+    }
+
+    /**
+     * Returns the limits of all the levels in ascending order.
+     */
+    public static LevelLimits[] all() {
+        return LIMITS.clone();
+    }
+}
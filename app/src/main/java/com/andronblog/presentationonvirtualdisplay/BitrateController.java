@@ -0,0 +1,198 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts the target bit rate of a running encoder to the content. It watches the size
+ * of the encoded frames and the encoder lag: if the encoder produces much less than the
+ * target (static content) the target is lowered, if the encoder saturates the target it's
+ * raised, and if the encoder falls behind the target is lowered to unload it. The target
+ * stays within the given bounds, the upper one can be scaled down while the encoder runs.
+ */
+public class BitrateController implements SampleSink {
+
+    private static final String TAG = "BitrateController";
+
+    public enum Decision {
+        HOLD,
+        INCREASE,
+        DECREASE_IDLE,
+        DECREASE_LAG
+    }
+
+    private static final long WINDOW_US = 1000000;
+    // The measured bit rate relative to the target to consider the content static or busy.
+    private static final float IDLE_RATIO = 0.5f;
+    private static final float BUSY_RATIO = 0.9f;
+    private static final float STEP_UP = 1.25f;
+    private static final float STEP_DOWN_LAG = 0.85f;
+    // Headroom over the measured bit rate when the target is lowered for static content.
+    private static final float IDLE_HEADROOM = 1.5f;
+    // Number of frames the encoder may lag before the bit rate is lowered.
+    private static final int MAX_LAG_FRAMES = 3;
+
+    private final EncoderCodec mCodec;
+    private final int mMinBitRate;
+    private final int mInitialMaxBitRate;
+    private volatile int mMaxBitRate;
+    private final long mFrameIntervalUs;
+
+    private FrameQueue mBacklog;
+
+    private long mWindowStartUs = -1;
+    private long mWindowBytes;
+    private int mWindowMaxLag;
+
+    private volatile int mTargetBitRate;
+    private volatile int mMeasuredBitRate;
+    private volatile int mLagFrames;
+    private volatile int mAdjustments;
+    private volatile Decision mLastDecision = Decision.HOLD;
+
+    /**
+     * @param codec the encoder which bit rate is controlled
+     * @param initialBitRate the bit rate the encoder is configured with
+     */
+    public BitrateController(EncoderCodec codec, int initialBitRate, int minBitRate, int maxBitRate,
+                             int frameRate) {
+        if (minBitRate <= 0 || minBitRate > maxBitRate) {
+            throw new IllegalArgumentException("Invalid bounds " + minBitRate + ".." + maxBitRate);
+        }
+        mCodec = codec;
+        mMinBitRate = minBitRate;
+        mInitialMaxBitRate = maxBitRate;
+        mMaxBitRate = maxBitRate;
+        mTargetBitRate = clamp(initialBitRate);
+        mFrameIntervalUs = 1000000 / Math.max(1, frameRate);
+    }
+
+    /**
+     * Sets a queue in front of a later stage. The samples waiting in it count as lag,
+     * so that the bit rate goes down when that stage falls behind as well.
+     */
+    public void setBacklog(FrameQueue backlog) {
+        mBacklog = backlog;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        if (info.isCodecConfig()) {
+            return;
+        }
+        onFrameEncoded(info.size, info.presentationTimeUs, System.nanoTime() / 1000);
+    }
+
+    @Override
+    public void onEndOfStream() {
+    }
+
+    /**
+     * Accounts an encoded frame. The presentation time of the frames rendered by the
+     * virtual display has the same time base as System.nanoTime(), so the difference
+     * with the current time is the encoder lag.
+     */
+    void onFrameEncoded(int size, long presentationTimeUs, long nowUs) {
+        if (mWindowStartUs < 0) {
+            mWindowStartUs = presentationTimeUs;
+        }
+        mWindowBytes += size;
+        int lag = (int) (Math.max(0, nowUs - presentationTimeUs) / mFrameIntervalUs);
+        if (mBacklog != null) {
+            lag = Math.max(lag, mBacklog.size());
+        }
+        mWindowMaxLag = Math.max(mWindowMaxLag, lag);
+
+        long elapsedUs = presentationTimeUs - mWindowStartUs;
+        if (elapsedUs >= WINDOW_US) {
+            mMeasuredBitRate = (int) (mWindowBytes * 8 * 1000000 / elapsedUs);
+            mLagFrames = mWindowMaxLag;
+            adjust(mMeasuredBitRate, mWindowMaxLag);
+            mWindowStartUs = presentationTimeUs;
+            mWindowBytes = 0;
+            mWindowMaxLag = 0;
+        }
+    }
+
+    /**
+     * Sets the upper bound to a part of the one the controller was created with and moves
+     * the target under it at once, e.g. to lower the quality without reconfiguring the
+     * encoder. Must be called while the encoder runs.
+     */
+    public synchronized void setMaxBitRateScale(float scale) {
+        mMaxBitRate = Math.max(mMinBitRate, (int) (mInitialMaxBitRate * scale));
+        int target = clamp(mTargetBitRate);
+        if (target != mTargetBitRate) {
+            Log.d(TAG, "Max bit rate " + mMaxBitRate + ", " + mTargetBitRate + " -> " + target);
+            mCodec.setVideoBitRate(target);
+            mTargetBitRate = target;
+            mAdjustments++;
+        }
+    }
+
+    public int getMaxBitRate() {
+        return mMaxBitRate;
+    }
+
+    private synchronized void adjust(int measured, int lagFrames) {
+        int target = mTargetBitRate;
+        int newTarget = target;
+        Decision decision = Decision.HOLD;
+        if (lagFrames > MAX_LAG_FRAMES) {
+            newTarget = clamp((int) (target * STEP_DOWN_LAG));
+            decision = Decision.DECREASE_LAG;
+        } else if (measured > target * BUSY_RATIO) {
+            newTarget = clamp((int) (target * STEP_UP));
+            decision = Decision.INCREASE;
+        } else if (measured < target * IDLE_RATIO) {
+            newTarget = clamp((int) (measured * IDLE_HEADROOM));
+            decision = Decision.DECREASE_IDLE;
+        }
+        if (newTarget == target) {
+            decision = Decision.HOLD;
+        } else {
+            Log.d(TAG, decision + " " + target + " -> " + newTarget + " (measured: " + measured +
+                    ", lag: " + lagFrames + ")");
+            mCodec.setVideoBitRate(newTarget);
+            mTargetBitRate = newTarget;
+            mAdjustments++;
+        }
+        mLastDecision = decision;
+    }
+
+    private int clamp(int bitRate) {
+        return Math.max(mMinBitRate, Math.min(mMaxBitRate, bitRate));
+    }
+
+    public int getTargetBitRate() {
+        return mTargetBitRate;
+    }
+
+    /**
+     * Returns the bit rate of the encoder output measured over the last window.
+     */
+    public int getMeasuredBitRate() {
+        return mMeasuredBitRate;
+    }
+
+    /**
+     * Returns the maximum encoder lag in frames over the last window.
+     */
+    public int getLagFrames() {
+        return mLagFrames;
+    }
+
+    public int getAdjustmentCount() {
+        return mAdjustments;
+    }
+
+    public Decision getLastDecision() {
+        return mLastDecision;
+    }
+}
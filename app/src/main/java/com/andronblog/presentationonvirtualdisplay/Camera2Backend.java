@@ -0,0 +1,266 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Handler;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.util.Collections;
+
+/**
+ * The backend using the Camera2 API. It requests the preview in the smallest size
+ * covering the view and with the lowest frame rate range reaching the encoder frame rate.
+ * The preview on a SurfaceView is rotated by the framework, so the display orientation
+ * is ignored.
+ */
+public class Camera2Backend implements CameraBackend {
+
+    private static final String TAG = "Camera2Backend";
+
+    private final CameraManager mCameraManager;
+    private final String mCameraId;
+    private Handler mHandler;
+    private Callback mCallback;
+
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private SurfaceHolder mPendingHolder;
+    private Range<Integer> mFpsRange;
+    private boolean mFirstFrameReceived;
+
+    public Camera2Backend(Context context, String cameraId) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraId = cameraId;
+    }
+
+    /**
+     * Returns the id of the camera facing the given direction, or of the first camera, or
+     * null if there is no camera, Camera2 supports it in the legacy mode only or it doesn't
+     * report its preview sizes.
+     */
+    public static String findCamera(Context context, int lensFacing) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String[] ids = manager.getCameraIdList();
+            String found = null;
+            for (String id : ids) {
+                Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == lensFacing) {
+                    found = id;
+                    break;
+                }
+            }
+            if (found == null && ids.length > 0) {
+                found = ids[0];
+            }
+            if (found == null) {
+                return null;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(found);
+            Integer level = characteristics.get(
+                    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                return null;
+            }
+            if (getPreviewSizes(characteristics) == null) {
+                Log.w(TAG, "Camera " + found + " has no stream configuration map");
+                return null;
+            }
+            return found;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Can't query cameras: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean open(Handler cameraHandler, Callback callback) {
+        mHandler = cameraHandler;
+        mCallback = callback;
+        try {
+            mCameraManager.openCamera(mCameraId, mStateCallback, cameraHandler);
+            return true;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Can't open camera " + mCameraId + ": " + e.getMessage());
+            return false;
+        } catch (SecurityException e) {
+            Log.e(TAG, "No permission to open camera " + mCameraId);
+            return false;
+        }
+    }
+
+    @Override
+    public void setDisplayOrientation(int displayRotation) {
+    }
+
+    @Override
+    public void configure(int viewWidth, int viewHeight, int frameRate) {
+        CameraCharacteristics characteristics;
+        try {
+            characteristics = mCameraManager.getCameraCharacteristics(mCameraId);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Can't get camera characteristics: " + e.getMessage());
+            return;
+        }
+        Size[] sizes = getPreviewSizes(characteristics);
+        if (sizes == null) {
+            Log.e(TAG, "There is no preview size");
+            return;
+        }
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        // The output sizes are in the sensor orientation, compare with the larger side first.
+        int sizeIndex = PreviewConfigSelector.chooseSize(widths, heights,
+                Math.max(viewWidth, viewHeight), Math.min(viewWidth, viewHeight));
+
+        Range<Integer>[] ranges = characteristics.get(
+                CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            int[] mins = new int[ranges.length];
+            int[] maxs = new int[ranges.length];
+            for (int i = 0; i < ranges.length; i++) {
+                mins[i] = ranges[i].getLower();
+                maxs[i] = ranges[i].getUpper();
+            }
+            int rangeIndex = PreviewConfigSelector.chooseFpsRange(mins, maxs, frameRate);
+            mFpsRange = rangeIndex >= 0 ? ranges[rangeIndex] : null;
+        }
+        if (sizeIndex < 0) {
+            Log.e(TAG, "There is no preview size");
+            return;
+        }
+        Log.d(TAG, "Preview " + sizes[sizeIndex] + ", fps range: " + mFpsRange);
+        mCallback.onPreviewSizeChosen(widths[sizeIndex], heights[sizeIndex]);
+    }
+
+    /**
+     * Returns the output sizes of the camera for a SurfaceView, or null if it doesn't
+     * report them.
+     */
+    private static Size[] getPreviewSizes(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return map != null ? map.getOutputSizes(SurfaceHolder.class) : null;
+    }
+
+    @Override
+    public void startPreview(SurfaceHolder holder) {
+        if (mDevice == null) {
+            // Start when the camera is opened.
+            mPendingHolder = holder;
+            return;
+        }
+        stopPreview();
+        try {
+            mDevice.createCaptureSession(Collections.singletonList(holder.getSurface()),
+                    new SessionCallback(holder.getSurface()), mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Can't create capture session: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        mPendingHolder = null;
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        stopPreview();
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+            mDevice = camera;
+            if (mPendingHolder != null) {
+                SurfaceHolder holder = mPendingHolder;
+                mPendingHolder = null;
+                startPreview(holder);
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            Log.w(TAG, "Camera disconnected");
+            camera.close();
+            mDevice = null;
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            camera.close();
+            mDevice = null;
+        }
+    };
+
+    private class SessionCallback extends CameraCaptureSession.StateCallback {
+
+        private final Surface mSurface;
+
+        SessionCallback(Surface surface) {
+            mSurface = surface;
+        }
+
+        @Override
+        public void onConfigured(CameraCaptureSession session) {
+            if (mDevice == null) {
+                session.close();
+                return;
+            }
+            mSession = session;
+            try {
+                CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                builder.addTarget(mSurface);
+                if (mFpsRange != null) {
+                    builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+                }
+                session.setRepeatingRequest(builder.build(),
+                        mFirstFrameReceived ? null : mCaptureCallback, mHandler);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Can't start preview: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession session) {
+            Log.e(TAG, "Capture session configuration failed");
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            if (!mFirstFrameReceived) {
+                mFirstFrameReceived = true;
+                mCallback.onFirstFrame();
+            }
+        }
+    };
+}
@@ -0,0 +1,40 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+/**
+ * A camera showing its preview on a surface holder. All the methods are called on the
+ * camera thread, the callbacks are delivered there as well.
+ */
+public interface CameraBackend {
+
+    interface Callback {
+        /**
+         * The preview buffers have the given size, the surface has to be set to it
+         * before {@link #startPreview(SurfaceHolder)} is called.
+         */
+        void onPreviewSizeChosen(int width, int height);
+
+        void onFirstFrame();
+    }
+
+    /**
+     * Opens the camera. Returns false if there is no camera or it isn't available.
+     */
+    boolean open(Handler cameraHandler, Callback callback);
+
+    void setDisplayOrientation(int displayRotation);
+
+    /**
+     * Chooses the preview size for a view of the given size and the frame rate range for
+     * the given frame rate.
+     */
+    void configure(int viewWidth, int viewHeight, int frameRate);
+
+    void startPreview(SurfaceHolder holder);
+
+    void stopPreview();
+
+    void release();
+}
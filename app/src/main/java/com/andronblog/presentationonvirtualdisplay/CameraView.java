@@ -1,27 +1,57 @@
 package com.andronblog.presentationonvirtualdisplay;
 
-import android.app.Activity;
-import android.app.Presentation;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Rect;
 import android.hardware.Camera;
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.view.Display;
-import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Shows the camera preview. The camera is opened, set up and started on a dedicated
+ * camera thread, so that the UI thread isn't blocked while the view is inflated.
+ * The Camera2 backend is used if the device supports it, the legacy Camera API otherwise.
+ */
 public class CameraView extends SurfaceView implements SurfaceHolder.Callback {
 
     private static final String TAG = "CameraView";
     private static final int CAMERA_ID = Camera.CameraInfo.CAMERA_FACING_FRONT;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final long RELEASE_TIMEOUT_MS = 1000;
+
+    public interface OnFirstFrameListener {
+        /**
+         * Called on the UI thread when the first preview frame is received.
+         *
+         * @param timeToFirstFrameMs the time since the view has been created
+         */
+        void onFirstFrame(long timeToFirstFrameMs);
+    }
 
     private Context mContext;
     private SurfaceHolder mHolder;
-    private Camera mCamera;
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    // Accessed on the camera thread only.
+    private CameraBackend mBackend;
+    private int mFrameRate = DEFAULT_FRAME_RATE;
+
+    // Accessed on the UI thread only.
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+
+    private long mCreateTime;
+    private volatile long mTimeToFirstFrameMs = -1;
+    private OnFirstFrameListener mOnFirstFrameListener;
 
     public CameraView(Context context) {
         super(context);
@@ -40,86 +70,174 @@ public class CameraView extends SurfaceView implements SurfaceHolder.Callback {
 
     private void initCameraView(Context context) {
         mContext = context;
-        // TODO check that camera exist
-        mCamera = getCameraInstance();
+        mCreateTime = SystemClock.elapsedRealtime();
+        mCameraThread = new HandlerThread("CameraThread");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+        // Open the camera on the camera thread, so its callbacks are delivered there as well.
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!checkCameraHardware(mContext)) {
+                    Log.w(TAG, "There is no camera");
+                    return;
+                }
+                CameraBackend backend = createBackend();
+                if (backend.open(mCameraHandler, mBackendCallback)) {
+                    mBackend = backend;
+                }
+                Log.d(TAG, backend.getClass().getSimpleName() + " opened in " +
+                        (SystemClock.elapsedRealtime() - mCreateTime) + " ms");
+            }
+        });
         // Install a SurfaceHolder.Callback so we get notified when the
         // underlying surface is created and destroyed.
         mHolder = getHolder();
         mHolder.addCallback(this);
     }
 
-    public void setCameraDisplayOrientation(int displayOrientation) {
+    private CameraBackend createBackend() {
+        String cameraId = Camera2Backend.findCamera(mContext, CameraCharacteristics.LENS_FACING_FRONT);
+        if (cameraId != null) {
+            return new Camera2Backend(mContext, cameraId);
+        }
+        return new LegacyCameraBackend(CAMERA_ID);
+    }
 
-        if (mCamera == null)
-            return;
+    public void setOnFirstFrameListener(OnFirstFrameListener listener) {
+        mOnFirstFrameListener = listener;
+    }
 
-        android.hardware.Camera.CameraInfo info = new android.hardware.Camera.CameraInfo();
-        android.hardware.Camera.getCameraInfo(CAMERA_ID, info);
-        int degrees = 0;
-        switch (displayOrientation) {
-            case Surface.ROTATION_0: degrees = 0; break;
-            case Surface.ROTATION_90: degrees = 90; break;
-            case Surface.ROTATION_180: degrees = 180; break;
-            case Surface.ROTATION_270: degrees = 270; break;
-        }
+    /**
+     * Returns the time from the view creation to the first preview frame in milliseconds
+     * or -1 if there was no frame yet.
+     */
+    public long getTimeToFirstFrameMs() {
+        return mTimeToFirstFrameMs;
+    }
 
-        int result;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            result = (info.orientation + degrees) % 360;
-            result = (360 - result) % 360;  // compensate the mirror
-        } else {  // back-facing
-            result = (info.orientation - degrees + 360) % 360;
-        }
-        mCamera.setDisplayOrientation(result);
+    /**
+     * Sets the frame rate the content is encoded at, the preview isn't run faster than needed.
+     */
+    public void setFrameRate(final int frameRate) {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFrameRate = frameRate;
+            }
+        });
+    }
+
+    public void setCameraDisplayOrientation(final int displayOrientation) {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackend != null) {
+                    mBackend.setDisplayOrientation(displayOrientation);
+                }
+            }
+        });
     }
 
     public void surfaceCreated(SurfaceHolder holder) {
-        // The Surface has been created, now tell the camera where to draw the preview.
-        try {
-            mCamera.setPreviewDisplay(holder);
-            mCamera.startPreview();
-        } catch (IOException e) {
-            Log.d(TAG, "Error setting camera preview: " + e.getMessage());
-        }
+        // Choose the preview size for the view, the preview is started when the surface
+        // gets that size.
+        final int width = getWidth();
+        final int height = getHeight();
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackend != null) {
+                    mBackend.configure(width, height, mFrameRate);
+                }
+            }
+        });
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
-        if (mCamera != null) {
-            mCamera.release();
+        // The camera must stop drawing before the surface is gone, so wait for the release.
+        final CountDownLatch released = new CountDownLatch(1);
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackend != null) {
+                    mBackend.release();
+                    mBackend = null;
+                }
+                released.countDown();
+            }
+        });
+        mCameraThread.quitSafely();
+        try {
+            if (!released.await(RELEASE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timeout of waiting for the camera release");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-        // If your preview can change or rotate, take care of those events here.
-        // Make sure to stop the preview before resizing or reformatting it.
-
         if (mHolder.getSurface() == null){
             // preview surface does not exist
             return;
         }
+        if (w == mPreviewWidth && h == mPreviewHeight) {
+            startPreview();
+        }
+    }
 
-        // stop preview before making changes
-        try {
-            mCamera.stopPreview();
-        } catch (Exception e){
-            // ignore: tried to stop a non-existent preview
+    private void setPreviewSize(int width, int height) {
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+        Rect frame = mHolder.getSurfaceFrame();
+        if (frame.width() == width && frame.height() == height) {
+            startPreview();
+        } else {
+            // surfaceChanged is called when the surface gets the size.
+            mHolder.setFixedSize(width, height);
         }
+    }
 
-        // set preview size and make any resize, rotate or
-        // reformatting changes here
+    private void startPreview() {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackend != null) {
+                    mBackend.startPreview(mHolder);
+                }
+            }
+        });
+    }
 
-        // start preview with new settings
-        try {
-            mCamera.setPreviewDisplay(mHolder);
-            mCamera.startPreview();
+    private final CameraBackend.Callback mBackendCallback = new CameraBackend.Callback() {
+        @Override
+        public void onPreviewSizeChosen(final int width, final int height) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    setPreviewSize(width, height);
+                }
+            });
+        }
 
-        } catch (Exception e){
-            Log.d(TAG, "Error starting camera preview: " + e.getMessage());
+        @Override
+        public void onFirstFrame() {
+            mTimeToFirstFrameMs = SystemClock.elapsedRealtime() - mCreateTime;
+            Log.i(TAG, "Time to first preview frame: " + mTimeToFirstFrameMs + " ms");
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mOnFirstFrameListener != null) {
+                        mOnFirstFrameListener.onFirstFrame(mTimeToFirstFrameMs);
+                    }
+                }
+            });
         }
-    }
+    };
 
     private boolean checkCameraHardware(Context context) {
-        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA)){
+        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY)){
             // this device has a camera
             return true;
         } else {
@@ -127,17 +245,4 @@ public class CameraView extends SurfaceView implements SurfaceHolder.Callback {
             return false;
         }
     }
-
-    public static Camera getCameraInstance(){
-        Camera c = null;
-        try {
-            c = Camera.open(CAMERA_ID);
-        }
-        catch (Exception e){
-            // Camera is not available (in use or does not exist)
-        }
-        return c; // returns null if camera is unavailable
-    }
-
-
 }
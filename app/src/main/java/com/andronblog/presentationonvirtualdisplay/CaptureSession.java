@@ -0,0 +1,293 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * A virtual display with a presentation on it, which content is encoded by a pipeline.
+ * The session is started and stopped on the control thread, the presentation is shown
+ * and dismissed on the UI thread.
+ */
+public class CaptureSession {
+
+    private static final String TAG = "CaptureSession";
+
+    private final String mName;
+    private final SessionMetrics mMetrics;
+    // Replaced on the control thread when the session is reconfigured.
+    private volatile EncoderPipeline mPipeline;
+    private SampleRingBuffer mReplayBuffer;
+    // The controller of the bit rate of the current pipeline, set on the control thread.
+    private BitrateController mBitrateController;
+    // Set before the session is started, or on the control thread to cap the frame rate.
+    private volatile FrameGate mFrameGate;
+    private SurfaceRelay mRelay;
+    private StreamServer mStreamServer;
+
+    private VirtualDisplay mVirtualDisplay;
+    private int mDisplayWidth;
+    private int mDisplayHeight;
+    private DemoPresentation mPresentation;
+    private volatile boolean mPresentationPending;
+
+    /**
+     * @param pipeline a pipeline which isn't prepared yet
+     */
+    public CaptureSession(String name, EncoderPipeline pipeline) {
+        this(name, pipeline, new SessionMetrics());
+    }
+
+    /**
+     * @param pipeline a pipeline which isn't prepared yet
+     * @param metrics the metrics the pipeline stages record into
+     */
+    public CaptureSession(String name, EncoderPipeline pipeline, SessionMetrics metrics) {
+        mName = name;
+        mPipeline = pipeline;
+        mMetrics = metrics;
+        mPipeline.addSink(mMetrics);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public EncoderPipeline getPipeline() {
+        return mPipeline;
+    }
+
+    public SessionMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public void setReplayBuffer(SampleRingBuffer replayBuffer) {
+        mReplayBuffer = replayBuffer;
+    }
+
+    public SampleRingBuffer getReplayBuffer() {
+        return mReplayBuffer;
+    }
+
+    /**
+     * Sets the controller of the bit rate of the pipeline, a reconfigured session sets the
+     * one of its new pipeline. Its state is reported with the metrics.
+     */
+    public void setBitrateController(BitrateController bitrateController) {
+        mBitrateController = bitrateController;
+        mMetrics.setBitrateController(bitrateController);
+    }
+
+    public BitrateController getBitrateController() {
+        return mBitrateController;
+    }
+
+    /**
+     * Enables the variable frame rate: the frames of the display are submitted to the
+     * encoder only when the presentation changes, or at the keep-alive rate of the gate.
+     * Must be called before the session is started.
+     */
+    public void setFrameGate(FrameGate frameGate) {
+        mFrameGate = frameGate;
+    }
+
+    public FrameGate getFrameGate() {
+        return mFrameGate;
+    }
+
+    /**
+     * Sets the server the session is streamed by, it's closed when the session stops.
+     */
+    public void setStreamServer(StreamServer streamServer) {
+        mStreamServer = streamServer;
+    }
+
+    public StreamServer getStreamServer() {
+        return mStreamServer;
+    }
+
+    /**
+     * Returns the id of the virtual display or -1 if the session isn't started.
+     */
+    public int getDisplayId() {
+        return mVirtualDisplay != null ? mVirtualDisplay.getDisplay().getDisplayId() : -1;
+    }
+
+    /**
+     * Prepares the encoder ahead of {@link #start}, so that starting only has to create the
+     * virtual display. Called on the control thread.
+     */
+    public void prepare() throws IOException {
+        if (!mPipeline.isPrepared()) {
+            mPipeline.prepare();
+        }
+    }
+
+    /**
+     * Prepares the encoder if it isn't yet and creates the virtual display rendering into
+     * its input surface.
+     *
+     * @param handler the handler the virtual display callbacks are delivered on
+     */
+    public void start(MediaProjection projection, int densityDpi, Handler handler) throws IOException {
+        EncoderConfig config = mPipeline.getConfig();
+        Log.d(TAG, mName + " start WxH (px): " + config.getWidth() + "x" + config.getHeight() +
+                ", dpi: " + densityDpi);
+        prepare();
+        Surface surface = mPipeline.getInputSurface();
+        mDisplayWidth = config.getWidth();
+        mDisplayHeight = config.getHeight();
+        if (mFrameGate != null) {
+            mRelay = new SurfaceRelay(mDisplayWidth, mDisplayHeight, mFrameGate);
+            surface = mRelay.start(surface, mDisplayWidth, mDisplayHeight);
+        }
+        int flags = DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
+        //flags |= DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC;
+        mVirtualDisplay = projection.createVirtualDisplay(mName,
+                config.getWidth(), config.getHeight(), densityDpi, flags,
+                surface, mVirtualDisplayCallback, handler);
+        // Start encoding the content of the input surface rendering by VirtualDisplay.
+        mPipeline.start();
+    }
+
+    /**
+     * Switches the session to another encoder pipeline, e.g. with another size or bit rate,
+     * without releasing the virtual display. The presentation and its camera keep running:
+     * the display keeps its size and its frames are scaled into the new encoder surface.
+     * The new pipeline is started before the current one is released, so no frames are lost
+     * in between. Called on the control thread.
+     *
+     * @param pipeline a pipeline which isn't prepared yet
+     */
+    public void reconfigure(EncoderPipeline pipeline) throws IOException {
+        if (mVirtualDisplay == null) {
+            throw new IllegalStateException("Session " + mName + " isn't started");
+        }
+        EncoderConfig config = pipeline.getConfig();
+        Log.d(TAG, mName + " reconfigure WxH (px): " + config.getWidth() + "x" + config.getHeight());
+        pipeline.addSink(mMetrics);
+        Surface surface;
+        try {
+            surface = pipeline.prepare();
+            pipeline.start();
+        } catch (IOException e) {
+            pipeline.release();
+            throw e;
+        }
+        // Resizing the display would dismiss the presentation, because its configuration
+        // doesn't match the display any more. Scale the frames by a relay instead.
+        try {
+            if (mRelay == null) {
+                startRelay(surface, config);
+            } else {
+                mRelay.setOutputSurface(surface, config.getWidth(), config.getHeight());
+            }
+        } catch (RuntimeException e) {
+            pipeline.release();
+            throw e;
+        }
+        EncoderPipeline previous = mPipeline;
+        mPipeline = pipeline;
+        previous.release();
+    }
+
+    /**
+     * Caps the rate the frames of the display are encoded at without reconfiguring the
+     * encoder, 0 to remove the cap. The frames go through a relay from now on if they
+     * don't yet. Called on the control thread.
+     */
+    public void setMaxFrameRate(float frameRate) {
+        if (mVirtualDisplay == null) {
+            throw new IllegalStateException("Session " + mName + " isn't started");
+        }
+        if (mRelay == null) {
+            startRelay(mPipeline.getInputSurface(), mPipeline.getConfig());
+        }
+        mFrameGate.setMaxFrameRate(frameRate);
+    }
+
+    private void startRelay(Surface surface, EncoderConfig config) {
+        // Without the variable frame rate the gate lets all the frames through, so that the
+        // frame rate can be capped later.
+        if (mFrameGate == null) {
+            mFrameGate = FrameGate.passThrough();
+        }
+        SurfaceRelay relay = new SurfaceRelay(mDisplayWidth, mDisplayHeight, mFrameGate);
+        mVirtualDisplay.setSurface(relay.start(surface, config.getWidth(), config.getHeight()));
+        mRelay = relay;
+    }
+
+    /**
+     * Releases the virtual display and the encoder. The presentation must be dismissed
+     * on the UI thread.
+     */
+    public void stop() {
+        Log.d(TAG, mName + " stop");
+        mPresentationPending = false;
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        if (mRelay != null) {
+            mRelay.release();
+            mRelay = null;
+        }
+        mPipeline.release();
+        if (mStreamServer != null) {
+            mStreamServer.close();
+            mStreamServer = null;
+        }
+        Log.i(TAG, mName + " " + mMetrics);
+    }
+
+    void onDisplayAdded() {
+        mPresentationPending = true;
+    }
+
+    boolean isPresentationPending() {
+        return mPresentationPending;
+    }
+
+    void showPresentation(Context context, Display display) {
+        if (mPresentationPending && display != null) {
+            // create a presentation
+            mPresentationPending = false;
+            mPresentation = new DemoPresentation(context, display, mPipeline.getConfig().getFrameRate());
+            mPresentation.setMetrics(mMetrics);
+            mPresentation.setFrameGate(mFrameGate);
+            mPresentation.show();
+        }
+    }
+
+    void dismissPresentation() {
+        mPresentationPending = false;
+        if (mPresentation != null) {
+            mPresentation.dismiss();
+            mPresentation = null;
+        }
+    }
+
+    private final VirtualDisplay.Callback mVirtualDisplayCallback = new VirtualDisplay.Callback() {
+        @Override
+        public void onPaused() {
+            Log.d(TAG, mName + " virtual display paused");
+        }
+
+        @Override
+        public void onResumed() {
+            Log.d(TAG, mName + " virtual display resumed");
+        }
+
+        @Override
+        public void onStopped() {
+            Log.d(TAG, mName + " virtual display stopped");
+        }
+    };
+}
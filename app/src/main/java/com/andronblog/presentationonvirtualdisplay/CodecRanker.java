@@ -0,0 +1,163 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ranks all the encoders of the candidate MIME types for a requested size and frame
+ * rate, so that the session is encoded with the most efficient codec the device can run
+ * in real time. The candidates are ordered by:
+ * <ol>
+ * <li>hardware acceleration</li>
+ * <li>the part of the requested pixel rate the level allows</li>
+ * <li>the compression efficiency of the codec, or the inverse of it for the software
+ * encoders, as the more efficient codecs take more processing</li>
+ * <li>the headroom of the level over the encoded pixel rate</li>
+ * </ol>
+ * The ranking depends only on {@link EncoderCapabilities}, so it can be computed for a
+ * stub codec list.
+ */
+public class CodecRanker {
+
+    /**
+     * A codec able to encode the request and the configuration it would be encoded with.
+     */
+    public static class Candidate {
+
+        private final EncoderCapabilities.Entry mEncoder;
+        private final EncoderConfig mConfig;
+        private final float mCoverage;
+        private final float mHeadroom;
+
+        Candidate(EncoderCapabilities.Entry encoder, EncoderConfig config, float coverage,
+                  float headroom) {
+            mEncoder = encoder;
+            mConfig = config;
+            mCoverage = coverage;
+            mHeadroom = headroom;
+        }
+
+        public EncoderCapabilities.Entry getEncoder() {
+            return mEncoder;
+        }
+
+        public EncoderConfig getConfig() {
+            return mConfig;
+        }
+
+        /**
+         * Returns the ratio of the configured pixel rate to the requested one, 1 if the
+         * request isn't reduced.
+         */
+        public float getCoverage() {
+            return mCoverage;
+        }
+
+        /**
+         * Returns the ratio of the encoding speed of the level to the configured one.
+         */
+        public float getHeadroom() {
+            return mHeadroom;
+        }
+
+        public float getEfficiency() {
+            return CodecRanker.getEfficiency(mEncoder.getMimeType());
+        }
+
+        @Override
+        public String toString() {
+            return mEncoder.getName() + (mEncoder.isHardwareAccelerated() ? " (hw) " : " (sw) ") +
+                    mConfig + " coverage:" + mCoverage + " headroom:" + mHeadroom;
+        }
+    }
+
+    private static final Comparator<Candidate> ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            boolean hwA = a.getEncoder().isHardwareAccelerated();
+            boolean hwB = b.getEncoder().isHardwareAccelerated();
+            if (hwA != hwB) {
+                return hwA ? -1 : 1;
+            }
+            int result = Float.compare(b.getCoverage(), a.getCoverage());
+            if (result == 0) {
+                result = hwA ? Float.compare(b.getEfficiency(), a.getEfficiency()) :
+                        Float.compare(a.getEfficiency(), b.getEfficiency());
+            }
+            if (result == 0) {
+                result = Float.compare(b.getHeadroom(), a.getHeadroom());
+            }
+            return result;
+        }
+    };
+
+    private final EncoderCapabilities mCapabilities;
+    private final List<String> mMimeTypes;
+
+    /**
+     * @param mimeTypes the MIME types the output can take
+     */
+    public CodecRanker(EncoderCapabilities capabilities, List<String> mimeTypes) {
+        mCapabilities = capabilities;
+        mMimeTypes = new ArrayList<String>(mimeTypes);
+    }
+
+    /**
+     * Returns how many times less bit rate than AVC the codec needs for the same quality.
+     */
+    public static float getEfficiency(String mimeType) {
+        if (EncoderConfig.MIME_HEVC.equals(mimeType)) {
+            return 2f;
+        }
+        if (EncoderConfig.MIME_VP9.equals(mimeType)) {
+            return 1.8f;
+        }
+        return 1f;
+    }
+
+    /**
+     * Returns the candidates able to encode the request, the best first. The bit rate
+     * budget is given for AVC, the more efficient codecs get a part of it.
+     */
+    public List<Candidate> rank(int width, int height, int frameRate, int bitRateBudget,
+                                int iFrameInterval) {
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        double requested = (double) width * height * frameRate;
+        // A hardware encoder may be listed after a software one of the same type.
+        for (EncoderCapabilities.Entry encoder : mCapabilities.getEncoders()) {
+            String mimeType = encoder.getMimeType();
+            if (!mMimeTypes.contains(mimeType) || encoder.getLimits() == null) {
+                continue;
+            }
+            LevelLimits limits = encoder.getLimits();
+            int bitRate = (int) (bitRateBudget / getEfficiency(mimeType));
+            EncoderConfig config = new EncodeConfigSolver(limits).solve(mimeType, width, height,
+                    frameRate, bitRate, iFrameInterval);
+            if (config == null) {
+                continue;
+            }
+            // The session is encoded with the ranked codec, not the preferred one of the type.
+            config = config.withEncoderName(encoder.getName());
+            long blockRate = (long) LevelLimits.macroblocks(config.getWidth(), config.getHeight()) *
+                    config.getFrameRate();
+            float coverage = (float) ((double) config.getWidth() * config.getHeight() *
+                    config.getFrameRate() / requested);
+            float headroom = (float) limits.getMaxMacroblocksPerSecond() / blockRate;
+            candidates.add(new Candidate(encoder, config, coverage, headroom));
+        }
+        Collections.sort(candidates, ORDER);
+        return candidates;
+    }
+
+    /**
+     * Returns the configuration of the best candidate or null if no one can encode the
+     * request. The configuration names the codec of the candidate.
+     */
+    public EncoderConfig select(int width, int height, int frameRate, int bitRateBudget,
+                                int iFrameInterval) {
+        List<Candidate> candidates = rank(width, height, frameRate, bitRateBudget, iFrameInterval);
+        return candidates.isEmpty() ? null : candidates.get(0).getConfig();
+    }
+}
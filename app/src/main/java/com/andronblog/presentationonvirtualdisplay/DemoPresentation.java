@@ -9,6 +9,7 @@ import android.os.Handler;
 import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.TextView;
@@ -17,11 +18,24 @@ public class DemoPresentation extends Presentation {
 
     private static final String TAG = "DemoPresentation";
 
+    private static final int DEFAULT_FRAME_RATE = 30;
+
     private int mDefaultDisplayOrientation = Surface.ROTATION_0;
+    private final int mFrameRate;
     private Handler mTimerHandler;
+    private SessionMetrics mMetrics;
+    private FrameGate mFrameGate;
 
     public DemoPresentation(Context context, Display display) {
+        this(context, display, DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     * @param frameRate the frame rate the presentation is recorded at
+     */
+    public DemoPresentation(Context context, Display display, int frameRate) {
         super(context, display);
+        mFrameRate = frameRate;
         mTimerHandler = new Handler();
         if (context instanceof Activity) {
             Activity activity = (Activity) context;
@@ -30,6 +44,22 @@ public class DemoPresentation extends Presentation {
         }
     }
 
+    /**
+     * Sets the metrics which count the frames drawn by the presentation. Must be called
+     * before the presentation is shown.
+     */
+    public void setMetrics(SessionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Sets the gate which is told when the presentation changes. Must be called before
+     * the presentation is shown.
+     */
+    public void setFrameGate(FrameGate frameGate) {
+        mFrameGate = frameGate;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -42,6 +72,18 @@ public class DemoPresentation extends Presentation {
 
         CameraView cameraView = (CameraView) findViewById(R.id.cameraView);
         cameraView.setCameraDisplayOrientation(mDefaultDisplayOrientation);
+        cameraView.setFrameRate(mFrameRate);
+        cameraView.setOnFirstFrameListener(new CameraView.OnFirstFrameListener() {
+            @Override
+            public void onFirstFrame(long timeToFirstFrameMs) {
+                Log.i(TAG, "Camera preview is shown in " + timeToFirstFrameMs + " ms");
+                // The camera frames don't go through the view tree, consider them changing
+                // all the time.
+                if (mFrameGate != null) {
+                    mFrameGate.setContinuous(true);
+                }
+            }
+        });
 
         final TextView timeTextView = (TextView) findViewById(R.id.tv_time);
         final long startTime = System.currentTimeMillis();
@@ -58,11 +100,31 @@ public class DemoPresentation extends Presentation {
         };
         mTimerHandler.postDelayed(timerRunnable, 0);
 
+        final ViewTreeObserver.OnDrawListener drawListener = new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (mMetrics != null) {
+                    mMetrics.recordFrameRendered();
+                }
+                if (mFrameGate != null) {
+                    mFrameGate.markDamaged(System.nanoTime());
+                }
+            }
+        };
+        final ViewTreeObserver observer = getWindow().getDecorView().getViewTreeObserver();
+        observer.addOnDrawListener(drawListener);
+
         setOnDismissListener(new OnDismissListener() {
             @Override
             public void onDismiss(DialogInterface dialogInterface) {
                 Log.i(TAG, "onDismiss");
                 mTimerHandler.removeCallbacks(timerRunnable);
+                if (mFrameGate != null) {
+                    mFrameGate.setContinuous(false);
+                }
+                if (observer.isAlive()) {
+                    observer.removeOnDrawListener(drawListener);
+                }
             }
         });
     }
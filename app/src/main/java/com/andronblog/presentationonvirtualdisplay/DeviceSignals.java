@@ -0,0 +1,55 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+/**
+ * Reads the thermal and battery state of the device for {@link QualityGovernor}. The
+ * platform has no thermal status before Android Q, the battery temperature follows the
+ * heat of the SoC closely enough. The sticky battery broadcast is read without a
+ * receiver, so it can be polled from any thread.
+ */
+public class DeviceSignals {
+
+    private final Context mContext;
+    private final IntentFilter mFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    private float mTemperatureC = Float.NaN;
+    private int mBatteryPercent = -1;
+    private boolean mCharging;
+
+    public DeviceSignals(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Reads the current state, the getters return it afterwards.
+     */
+    public void update() {
+        Intent battery = mContext.registerReceiver(null, mFilter);
+        if (battery == null) {
+            return;
+        }
+        int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+        // In tenths of a degree.
+        mTemperatureC = temperature != Integer.MIN_VALUE ? temperature / 10f : Float.NaN;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        mBatteryPercent = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+        mCharging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    public float getTemperatureC() {
+        return mTemperatureC;
+    }
+
+    public int getBatteryPercent() {
+        return mBatteryPercent;
+    }
+
+    public boolean isCharging() {
+        return mCharging;
+    }
+}
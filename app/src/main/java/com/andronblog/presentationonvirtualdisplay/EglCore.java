@@ -0,0 +1,118 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.view.Surface;
+
+/**
+ * An EGL context rendering into a recordable window surface, e.g. the input surface
+ * of an encoder. All the methods must be called on the same thread.
+ */
+public class EglCore {
+
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mSurface = EGL14.EGL_NO_SURFACE;
+    private EGLConfig mConfig;
+
+    /**
+     * Creates a GLES 2 context and a window surface for the given surface and makes them current.
+     */
+    public EglCore(Surface surface) {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("Unable to get EGL display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            mDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new RuntimeException("Unable to initialize EGL");
+        }
+        int[] configAttribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, configAttribs, 0, configs, 0, 1, numConfigs, 0) ||
+                numConfigs[0] == 0) {
+            release();
+            throw new RuntimeException("Unable to find a recordable EGL config");
+        }
+        int[] contextAttribs = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        mConfig = configs[0];
+        mContext = EGL14.eglCreateContext(mDisplay, mConfig, EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        checkError("eglCreateContext");
+        setWindowSurface(surface);
+    }
+
+    /**
+     * Replaces the window surface rendered into by the one of the given surface.
+     */
+    public void setWindowSurface(Surface surface) {
+        if (mSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, mContext);
+            EGL14.eglDestroySurface(mDisplay, mSurface);
+            mSurface = EGL14.EGL_NO_SURFACE;
+        }
+        int[] surfaceAttribs = {
+                EGL14.EGL_NONE
+        };
+        mSurface = EGL14.eglCreateWindowSurface(mDisplay, mConfig, surface, surfaceAttribs, 0);
+        checkError("eglCreateWindowSurface");
+        if (!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            release();
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    /**
+     * Sets the presentation time of the next frame swapped into the surface.
+     */
+    public void setPresentationTime(long timestampNs) {
+        EGLExt.eglPresentationTimeANDROID(mDisplay, mSurface, timestampNs);
+    }
+
+    public boolean swapBuffers() {
+        return EGL14.eglSwapBuffers(mDisplay, mSurface);
+    }
+
+    public void release() {
+        if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                    EGL14.EGL_NO_CONTEXT);
+            if (mSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mDisplay, mSurface);
+            }
+            if (mContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(mDisplay, mContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mDisplay);
+        }
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void checkError(String operation) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            release();
+            throw new RuntimeException(operation + ": EGL error 0x" + Integer.toHexString(error));
+        }
+    }
+}
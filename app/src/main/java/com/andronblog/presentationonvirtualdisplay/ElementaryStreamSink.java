@@ -0,0 +1,77 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Recording stage of the pipeline writing the Annex-B elementary stream of an AVC or HEVC
+ * encoder into a {@link StorageWriter}: the codec config followed by the frames. Unlike
+ * MediaMuxer, the writer controls the write sizes, the preallocation and the syncs.
+ */
+public class ElementaryStreamSink implements SampleSink {
+
+    private static final String TAG = "ElementaryStreamSink";
+
+    private final StorageWriter mWriter;
+    private boolean mConfigWritten;
+    private boolean mFailed;
+
+    public ElementaryStreamSink(StorageWriter writer) {
+        mWriter = writer;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        // Encoders deliver the codec config as a sample as well, only one of them is written.
+        if (mConfigWritten) {
+            return;
+        }
+        ByteBuffer csd0 = format.getByteBuffer("csd-0");
+        ByteBuffer csd1 = format.getByteBuffer("csd-1");
+        if (csd0 != null) {
+            write(csd0);
+            if (csd1 != null) {
+                write(csd1);
+            }
+            mConfigWritten = true;
+        }
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        if (info.isCodecConfig()) {
+            if (mConfigWritten) {
+                return;
+            }
+            mConfigWritten = true;
+        }
+        if (info.size > 0) {
+            write(buffer);
+        }
+    }
+
+    @Override
+    public void onEndOfStream() {
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Close " + mWriter.getFile() + " failed: " + e.getMessage());
+        }
+    }
+
+    private void write(ByteBuffer buffer) {
+        if (mFailed) {
+            return;
+        }
+        try {
+            mWriter.write(buffer);
+        } catch (IOException e) {
+            // The storage is likely full or removed, the other stages go on.
+            Log.e(TAG, "Write " + mWriter.getFile() + " failed: " + e.getMessage());
+            mFailed = true;
+        }
+    }
+}
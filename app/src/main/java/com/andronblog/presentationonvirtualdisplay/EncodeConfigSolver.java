@@ -0,0 +1,116 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Finds the best encoder configuration within the limits of a codec level. If the
+ * requested size and frame rate exceed the limits, the size is downscaled preserving
+ * the aspect ratio and the frame rate is reduced, so that the resulting pixel rate
+ * is the highest one the level allows.
+ */
+public class EncodeConfigSolver {
+
+    public static final int DEFAULT_ALIGNMENT = 16;
+    public static final int DEFAULT_MIN_FRAME_RATE = 15;
+    public static final int MIN_BIT_RATE = 64000;
+
+    private final LevelLimits mLimits;
+    private final int mAlignment;
+    private final int mMinFrameRate;
+
+    public EncodeConfigSolver(LevelLimits limits) {
+        this(limits, DEFAULT_ALIGNMENT, DEFAULT_MIN_FRAME_RATE);
+    }
+
+    /**
+     * @param alignment the width and height of the result are multiple of it
+     * @param minFrameRate the frame rate is not reduced below it, unless the requested
+     *                     one is lower
+     */
+    public EncodeConfigSolver(LevelLimits limits, int alignment, int minFrameRate) {
+        if (alignment <= 0 || minFrameRate <= 0) {
+            throw new IllegalArgumentException("alignment and minFrameRate must be positive");
+        }
+        mLimits = limits;
+        mAlignment = alignment;
+        mMinFrameRate = minFrameRate;
+    }
+
+    /**
+     * Returns the configuration with the highest pixel rate not exceeding the requested
+     * size and frame rate, or null if even the smallest size can't be encoded at the
+     * minimal frame rate. The bit rate budget is scaled by the ratio of the resulting
+     * pixel rate to the requested one.
+     */
+    public EncoderConfig solve(String mimeType, int width, int height, int frameRate,
+                               int bitRateBudget, int iFrameInterval) {
+        if (width <= 0 || height <= 0 || frameRate <= 0) {
+            throw new IllegalArgumentException("Invalid request " + width + "x" + height +
+                    "@" + frameRate);
+        }
+        int minFrameRate = Math.min(mMinFrameRate, frameRate);
+        int bestWidth = 0;
+        int bestHeight = 0;
+        int bestFrameRate = 0;
+        long bestPixelRate = 0;
+        for (int fps = frameRate; fps >= minFrameRate; fps--) {
+            long maxPixelRate = (long) width * height * fps;
+            if (maxPixelRate <= bestPixelRate) {
+                // Lower frame rates can't give a better result.
+                break;
+            }
+            long size = fitSize(width, height, fps);
+            if (size == 0) {
+                continue;
+            }
+            int w = (int) (size >>> 32);
+            int h = (int) size;
+            long pixelRate = (long) w * h * fps;
+            if (pixelRate > bestPixelRate) {
+                bestWidth = w;
+                bestHeight = h;
+                bestFrameRate = fps;
+                bestPixelRate = pixelRate;
+            }
+        }
+        if (bestPixelRate == 0) {
+            return null;
+        }
+
+        double ratio = bestPixelRate / ((double) width * height * frameRate);
+        long bitRate = Math.round(bitRateBudget * ratio);
+        bitRate = Math.max(MIN_BIT_RATE, Math.min(mLimits.getMaxBitRate(), bitRate));
+        return new EncoderConfig(mimeType, bestWidth, bestHeight, bestFrameRate, (int) bitRate,
+                iFrameInterval);
+    }
+
+    /**
+     * Returns the largest aligned size with the aspect ratio of the requested one which
+     * can be encoded at the frame rate, packed as width << 32 | height, or 0.
+     */
+    private long fitSize(int width, int height, int frameRate) {
+        // The upper bound of the scale given by the size limits.
+        double scale = Math.min(1.0, Math.min(mLimits.getMaxWidth() / (double) width,
+                mLimits.getMaxHeight() / (double) height));
+        // The upper bound given by the frame area and the encoding speed.
+        long maxMacroblocks = Math.min(mLimits.getMaxMacroblocksPerFrame(),
+                mLimits.getMaxMacroblocksPerSecond() / frameRate);
+        double fullMacroblocks = (width / 16.0) * (height / 16.0);
+        scale = Math.min(scale, Math.sqrt(maxMacroblocks / fullMacroblocks));
+
+        int w = align((int) (width * scale));
+        int h = align((int) (height * scale));
+        // The alignment of the macroblocks can exceed the limit, step down until it fits.
+        while (w >= mAlignment && h >= mAlignment && !mLimits.isSupported(w, h, frameRate)) {
+            scale *= 0.98;
+            w = align((int) (width * scale));
+            h = align((int) (height * scale));
+        }
+        if (w < mAlignment || h < mAlignment) {
+            return 0;
+        }
+        return ((long) w << 32) | h;
+    }
+
+    private int align(int value) {
+        return value / mAlignment * mAlignment;
+    }
+}
@@ -0,0 +1,152 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable index of the encoder capabilities. It's built once from a codec list, so
+ * that a capability query is a map lookup instead of a scan of all the codecs.
+ */
+public class EncoderCapabilities {
+
+    // Name prefixes of the software codecs of the platform.
+    private static final String[] SOFTWARE_PREFIXES = {"OMX.google.", "c2.android.", "c2.google."};
+
+    /**
+     * Capability of an encoder for a MIME type. The level limits are resolved when the
+     * index is built.
+     */
+    public static class Entry {
+
+        private final String mName;
+        private final String mMimeType;
+        private final int mHighestLevel;
+        private final LevelLimits mLimits;
+        private final boolean mHardwareAccelerated;
+
+        Entry(String name, String mimeType, int highestLevel, LevelLimits limits) {
+            mName = name;
+            mMimeType = mimeType;
+            mHighestLevel = highestLevel;
+            mLimits = limits;
+            mHardwareAccelerated = !isSoftwareEncoder(name);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        public int getHighestLevel() {
+            return mHighestLevel;
+        }
+
+        /**
+         * Returns the limits of the highest level or null if there is no level table
+         * for the MIME type.
+         */
+        public LevelLimits getLimits() {
+            return mLimits;
+        }
+
+        public boolean isHardwareAccelerated() {
+            return mHardwareAccelerated;
+        }
+    }
+
+    private final Map<String, Entry> mByMimeType;
+    private final Map<String, Map<String, Entry>> mByName;
+    private final List<Entry> mEntries;
+
+    private EncoderCapabilities(Map<String, Entry> byMimeType, Map<String, Map<String, Entry>> byName,
+                                List<Entry> entries) {
+        mByMimeType = Collections.unmodifiableMap(byMimeType);
+        mByName = Collections.unmodifiableMap(byName);
+        mEntries = Collections.unmodifiableList(entries);
+    }
+
+    public static EncoderCapabilities build(EncoderListSource source) {
+        Map<String, Entry> byMimeType = new HashMap<String, Entry>();
+        Map<String, Map<String, Entry>> byName = new HashMap<String, Map<String, Entry>>();
+        List<Entry> entries = new ArrayList<Entry>();
+        List<EncoderDescription> encoders = source.getEncoders();
+        for (EncoderDescription encoder : encoders) {
+            String mimeType = encoder.getMimeType().toLowerCase(Locale.US);
+            Entry entry = new Entry(encoder.getName(), mimeType, encoder.getHighestLevel(),
+                    getLevelLimits(mimeType, encoder.getHighestLevel()));
+            entries.add(entry);
+            // The first encoder of a type is the preferred one.
+            if (!byMimeType.containsKey(mimeType)) {
+                byMimeType.put(mimeType, entry);
+            }
+            Map<String, Entry> types = byName.get(encoder.getName());
+            if (types == null) {
+                types = new HashMap<String, Entry>();
+                byName.put(encoder.getName(), types);
+            }
+            types.put(mimeType, entry);
+        }
+        return new EncoderCapabilities(byMimeType, byName, entries);
+    }
+
+    /**
+     * Returns the preferred encoder of the MIME type or null if there is no one.
+     * The MIME type is expected in lower case.
+     */
+    public Entry getEncoder(String mimeType) {
+        return mByMimeType.get(mimeType);
+    }
+
+    /**
+     * Returns the capability of the named encoder for the MIME type or null.
+     */
+    public Entry getEncoder(String name, String mimeType) {
+        Map<String, Entry> types = mByName.get(name);
+        return types != null ? types.get(mimeType) : null;
+    }
+
+    public boolean hasEncoder(String mimeType) {
+        return mByMimeType.containsKey(mimeType);
+    }
+
+    /**
+     * Returns the capabilities of all the encoders in the order of the codec list.
+     */
+    public List<Entry> getEncoders() {
+        return mEntries;
+    }
+
+    /**
+     * Tells if the encoder is a software one by its name. The codec list of the platform
+     * doesn't report the hardware acceleration before Android Q.
+     */
+    public static boolean isSoftwareEncoder(String name) {
+        for (String prefix : SOFTWARE_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        // E.g. OMX.qcom.video.encoder.avc.sw
+        return name.endsWith(".sw") || name.contains(".sw.");
+    }
+
+    private static LevelLimits getLevelLimits(String mimeType, int level) {
+        if (EncoderConfig.MIME_AVC.equals(mimeType)) {
+            return AvcLevels.forLevel(level);
+        }
+        if (EncoderConfig.MIME_HEVC.equals(mimeType)) {
+            return HevcLevels.forLevel(level);
+        }
+        if (EncoderConfig.MIME_VP9.equals(mimeType)) {
+            return Vp9Levels.forLevel(level);
+        }
+        return null;
+    }
+}
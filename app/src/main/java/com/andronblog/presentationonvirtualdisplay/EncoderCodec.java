@@ -0,0 +1,56 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A video encoder fed by an input surface and working in asynchronous mode.
+ * {@link MediaCodecEncoder} is the implementation backed by MediaCodec, a fake one
+ * can be used to run {@link EncoderPipeline} without a device.
+ */
+public interface EncoderCodec {
+
+    interface Callback {
+        void onOutputFormatChanged(EncoderCodec codec, MediaFormat format);
+
+        /**
+         * An encoded sample is available. The buffer and the info are valid until
+         * {@link #releaseOutputBuffer(int)} is called with the given index.
+         */
+        void onOutputBufferAvailable(EncoderCodec codec, int index, ByteBuffer buffer, SampleInfo info);
+
+        void onError(EncoderCodec codec, Exception e);
+    }
+
+    /**
+     * Must be called before {@link #configure(EncoderConfig)}. The callbacks are delivered
+     * on the looper of the given handler.
+     */
+    void setCallback(Callback callback, Handler handler);
+
+    void configure(EncoderConfig config) throws IOException;
+
+    /**
+     * Must be called after {@link #configure(EncoderConfig)} and before {@link #start()}.
+     */
+    Surface createInputSurface();
+
+    void start();
+
+    void releaseOutputBuffer(int index);
+
+    /**
+     * Changes the target bit rate of the running encoder.
+     */
+    void setVideoBitRate(int bitRate);
+
+    void signalEndOfInputStream();
+
+    void stop();
+
+    void release();
+}
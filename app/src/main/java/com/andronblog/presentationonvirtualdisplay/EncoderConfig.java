@@ -0,0 +1,89 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Immutable set of parameters used to configure a video encoder.
+ */
+public class EncoderConfig {
+
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+    public static final String MIME_VP9 = "video/x-vnd.on2.vp9";
+
+    private final String mMimeType;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameRate;
+    private final int mBitRate;
+    private final int mIFrameInterval;
+    private final String mEncoderName;
+
+    public EncoderConfig(String mimeType, int width, int height, int frameRate, int bitRate,
+                         int iFrameInterval) {
+        this(mimeType, width, height, frameRate, bitRate, iFrameInterval, null);
+    }
+
+    /**
+     * @param encoderName the name of the codec to encode with, or null for the preferred
+     *                    encoder of the MIME type
+     */
+    public EncoderConfig(String mimeType, int width, int height, int frameRate, int bitRate,
+                         int iFrameInterval, String encoderName) {
+        mMimeType = mimeType;
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        mBitRate = bitRate;
+        mIFrameInterval = iFrameInterval;
+        mEncoderName = encoderName;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * Key frame interval in seconds.
+     */
+    public int getIFrameInterval() {
+        return mIFrameInterval;
+    }
+
+    /**
+     * Returns the name of the codec to encode with, or null for the preferred encoder of
+     * the MIME type.
+     */
+    public String getEncoderName() {
+        return mEncoderName;
+    }
+
+    /**
+     * Returns a copy of this configuration encoded with the named codec.
+     */
+    public EncoderConfig withEncoderName(String encoderName) {
+        return new EncoderConfig(mMimeType, mWidth, mHeight, mFrameRate, mBitRate,
+                mIFrameInterval, encoderName);
+    }
+
+    @Override
+    public String toString() {
+        return mMimeType + " " + mWidth + "x" + mHeight + "@" + mFrameRate + "fps " +
+                mBitRate + "bps gop:" + mIFrameInterval + "s" +
+                (mEncoderName != null ? " " + mEncoderName : "");
+    }
+}
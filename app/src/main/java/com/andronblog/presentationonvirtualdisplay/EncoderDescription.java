@@ -0,0 +1,29 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Describes an encoder supporting a MIME type as it's reported by a codec list.
+ */
+public class EncoderDescription {
+
+    private final String mName;
+    private final String mMimeType;
+    private final int mHighestLevel;
+
+    public EncoderDescription(String name, String mimeType, int highestLevel) {
+        mName = name;
+        mMimeType = mimeType;
+        mHighestLevel = highestLevel;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getHighestLevel() {
+        return mHighestLevel;
+    }
+}
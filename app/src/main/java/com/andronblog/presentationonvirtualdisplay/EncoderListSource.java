@@ -0,0 +1,15 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.List;
+
+/**
+ * Provides the encoders of a device. {@link MediaCodecListSource} queries MediaCodecList,
+ * a stub can be used to build {@link EncoderCapabilities} without a device.
+ */
+public interface EncoderListSource {
+
+    /**
+     * Returns the encoders in the order of preference, one entry per supported MIME type.
+     */
+    List<EncoderDescription> getEncoders();
+}
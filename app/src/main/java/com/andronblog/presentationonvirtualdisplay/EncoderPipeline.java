@@ -0,0 +1,189 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Encodes the frames rendered into the input surface and passes the encoded samples
+ * to the registered sinks. The codec works in asynchronous mode, its callbacks and
+ * all the sinks are run on the encoder thread.
+ */
+public class EncoderPipeline {
+
+    private static final String TAG = "EncoderPipeline";
+
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private final EncoderCodec mCodec;
+    private final EncoderConfig mConfig;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Replaced by a new array when a sink is added to iterate the sinks without allocations.
+    private volatile SampleSink[] mSinks = new SampleSink[0];
+    private final CountDownLatch mEndOfStream = new CountDownLatch(1);
+    // Set by the first thread delivering the end of stream, the encoder thread or the one
+    // releasing the pipeline, so that the sinks get it once.
+    private final AtomicBoolean mEndOfStreamSent = new AtomicBoolean();
+
+    private Surface mInputSurface;
+    private boolean mStarted;
+
+    /**
+     * Creates a pipeline running on its own encoder thread.
+     */
+    public EncoderPipeline(EncoderCodec codec, EncoderConfig config) {
+        mCodec = codec;
+        mConfig = config;
+        mThread = new HandlerThread("EncoderThread");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Creates a pipeline which codec callbacks are delivered on the looper of the given
+     * handler. The handler can be null if the codec doesn't need it.
+     */
+    public EncoderPipeline(EncoderCodec codec, EncoderConfig config, Handler handler) {
+        mCodec = codec;
+        mConfig = config;
+        mThread = null;
+        mHandler = handler;
+    }
+
+    public EncoderConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Must be called before {@link #prepare()}.
+     */
+    public synchronized void addSink(SampleSink sink) {
+        SampleSink[] sinks = new SampleSink[mSinks.length + 1];
+        System.arraycopy(mSinks, 0, sinks, 0, mSinks.length);
+        sinks[mSinks.length] = sink;
+        mSinks = sinks;
+    }
+
+    /**
+     * Configures the codec and returns the surface the frames should be rendered into.
+     */
+    public Surface prepare() throws IOException {
+        Log.d(TAG, "prepare " + mConfig);
+        mCodec.setCallback(mCodecCallback, mHandler);
+        mCodec.configure(mConfig);
+        mInputSurface = mCodec.createInputSurface();
+        return mInputSurface;
+    }
+
+    public boolean isPrepared() {
+        return mInputSurface != null;
+    }
+
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    public void start() {
+        mCodec.start();
+        mStarted = true;
+    }
+
+    /**
+     * Signals the end of stream and waits until the sinks get the last sample.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mCodec.signalEndOfInputStream();
+        awaitEndOfStream();
+        mCodec.stop();
+    }
+
+    public void release() {
+        stop();
+        // Let the sinks release their resources if the codec didn't deliver the end of stream,
+        // or wait for them if the encoder thread is delivering it meanwhile.
+        if (!notifyEndOfStream()) {
+            awaitEndOfStream();
+        }
+        mCodec.release();
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
+    }
+
+    private void awaitEndOfStream() {
+        try {
+            if (!mEndOfStream.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timeout of waiting for the end of stream");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Passes the end of stream to the sinks unless another thread has done it. Returns
+     * false in that case, the sinks may still be handling it.
+     */
+    private boolean notifyEndOfStream() {
+        if (!mEndOfStreamSent.compareAndSet(false, true)) {
+            return false;
+        }
+        for (SampleSink sink : mSinks) {
+            sink.onEndOfStream();
+        }
+        mEndOfStream.countDown();
+        return true;
+    }
+
+    private final EncoderCodec.Callback mCodecCallback = new EncoderCodec.Callback() {
+
+        @Override
+        public void onOutputFormatChanged(EncoderCodec codec, MediaFormat format) {
+            Log.d(TAG, "onOutputFormatChanged " + format);
+            for (SampleSink sink : mSinks) {
+                sink.onOutputFormat(format);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(EncoderCodec codec, int index, ByteBuffer buffer,
+                                            SampleInfo info) {
+            if (info.size > 0 && buffer != null) {
+                SampleSink[] sinks = mSinks;
+                for (int i = 0; i < sinks.length; i++) {
+                    buffer.limit(info.offset + info.size);
+                    buffer.position(info.offset);
+                    sinks[i].onSample(buffer, info);
+                }
+            }
+            codec.releaseOutputBuffer(index);
+            if (info.isEndOfStream()) {
+                notifyEndOfStream();
+            }
+        }
+
+        @Override
+        public void onError(EncoderCodec codec, Exception e) {
+            Log.e(TAG, "Encoder error", e);
+            notifyEndOfStream();
+        }
+    };
+}
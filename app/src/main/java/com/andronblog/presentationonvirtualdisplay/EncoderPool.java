@@ -0,0 +1,119 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaCodec;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a bounded number of idle codecs so that back-to-back sessions reuse them instead
+ * of allocating new ones. A recycled codec is reset to the uninitialized state and can be
+ * configured again. The codecs are kept by name, so that a session gets the very codec it
+ * has been configured for.
+ *
+ * Before M the callbacks of a codec are delivered on the looper of the thread which created
+ * it, so the codecs are only reused with the same looper there.
+ */
+public class EncoderPool {
+
+    private static final String TAG = "EncoderPool";
+
+    private static class Entry {
+        final String name;
+        final Looper looper;
+        final MediaCodec codec;
+
+        Entry(String name, Looper looper, MediaCodec codec) {
+            this.name = name;
+            this.looper = looper;
+            this.codec = codec;
+        }
+    }
+
+    private final int mMaxIdle;
+    private final List<Entry> mIdle = new ArrayList<Entry>();
+    private boolean mReleased;
+    private int mReused;
+    private int mRecycled;
+
+    public EncoderPool(int maxIdle) {
+        mMaxIdle = maxIdle;
+    }
+
+    /**
+     * Returns an idle codec of the given name or null if there is none.
+     *
+     * @param looper the looper the callbacks must be delivered on, null if it doesn't matter
+     */
+    public synchronized MediaCodec obtain(String name, Looper looper) {
+        for (int i = mIdle.size() - 1; i >= 0; i--) {
+            Entry entry = mIdle.get(i);
+            if (entry.name.equals(name) && entry.looper == looper) {
+                mIdle.remove(i);
+                mReused++;
+                return entry.codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resets the codec and keeps it for reuse, or releases it if the pool is full or the
+     * codec can't be reset.
+     */
+    public void recycle(MediaCodec codec, Looper looper) {
+        String name;
+        try {
+            name = codec.getName();
+            codec.setCallback(null);
+            codec.reset();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Reset failed, release codec: " + e.getMessage());
+            codec.release();
+            return;
+        }
+        synchronized (this) {
+            if (!mReleased && mIdle.size() < mMaxIdle) {
+                mIdle.add(new Entry(name, looper, codec));
+                mRecycled++;
+                return;
+            }
+        }
+        codec.release();
+    }
+
+    /**
+     * Releases the idle codecs, e.g. when the app goes to the background.
+     */
+    public void trim() {
+        List<Entry> idle;
+        synchronized (this) {
+            idle = new ArrayList<Entry>(mIdle);
+            mIdle.clear();
+        }
+        for (Entry entry : idle) {
+            entry.codec.release();
+        }
+        if (!idle.isEmpty()) {
+            Log.d(TAG, "Released " + idle.size() + " idle codecs");
+        }
+    }
+
+    /**
+     * Releases the idle codecs, the codecs recycled later are released as well.
+     */
+    public void release() {
+        synchronized (this) {
+            mReleased = true;
+        }
+        trim();
+        Log.i(TAG, "Released " + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "idle: " + mIdle.size() + ", recycled: " + mRecycled + ", reused: " + mReused;
+    }
+}
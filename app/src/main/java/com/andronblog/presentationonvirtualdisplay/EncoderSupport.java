@@ -0,0 +1,39 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * The encoder checks and bit rate arithmetic of {@link RecorderHelper} which don't depend
+ * on the Android framework, so they can also be measured on a plain JVM.
+ */
+public class EncoderSupport {
+
+    public static final int BIT_RATE_1080P = 16000000;
+    public static final int BIT_RATE_MIN = 64000;
+    public static final int BIT_RATE_MAX = 40000000;
+
+    /**
+     * Calculate a video bit rate based on the size. The bit rate is scaled
+     * based on ratio of video size to 1080p size.
+     */
+    public static int getVideoBitRate(int width, int height) {
+        int rate = BIT_RATE_1080P;
+        float scaleFactor = height * width / (float)(1920 * 1080);
+        rate = (int)(rate * scaleFactor);
+
+        // Clamp to the MIN, MAX range.
+        return Math.max(BIT_RATE_MIN, Math.min(BIT_RATE_MAX, rate));
+    }
+
+    /**
+     * Check if the encoder of the mime type supports the size and frame rate combination
+     * within the limits of its highest level.
+     */
+    public static boolean isSupported(EncoderCapabilities capabilities, String mimeType,
+                                      int width, int height, int frameRate) {
+        EncoderCapabilities.Entry encoder = capabilities.getEncoder(mimeType);
+        if (encoder == null) {
+            return false;
+        }
+        LevelLimits limits = encoder.getLimits();
+        return limits != null && limits.isSupported(width, height, frameRate);
+    }
+}
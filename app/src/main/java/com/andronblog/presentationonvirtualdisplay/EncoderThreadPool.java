@@ -0,0 +1,52 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * A fixed set of encoder threads shared by the sessions. A session gets the handler of
+ * the least loaded thread.
+ */
+public class EncoderThreadPool {
+
+    private final HandlerThread[] mThreads;
+    private final Handler[] mHandlers;
+    private final int[] mUsers;
+
+    public EncoderThreadPool(int size) {
+        mThreads = new HandlerThread[size];
+        mHandlers = new Handler[size];
+        mUsers = new int[size];
+        for (int i = 0; i < size; i++) {
+            mThreads[i] = new HandlerThread("EncoderThread-" + i);
+            mThreads[i].start();
+            mHandlers[i] = new Handler(mThreads[i].getLooper());
+        }
+    }
+
+    public synchronized Handler acquire() {
+        int best = 0;
+        for (int i = 1; i < mUsers.length; i++) {
+            if (mUsers[i] < mUsers[best]) {
+                best = i;
+            }
+        }
+        mUsers[best]++;
+        return mHandlers[best];
+    }
+
+    public synchronized void release(Handler handler) {
+        for (int i = 0; i < mHandlers.length; i++) {
+            if (mHandlers[i] == handler) {
+                mUsers[i]--;
+                return;
+            }
+        }
+    }
+
+    public void quit() {
+        for (HandlerThread thread : mThreads) {
+            thread.quitSafely();
+        }
+    }
+}
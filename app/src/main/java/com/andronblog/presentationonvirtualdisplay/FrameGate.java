@@ -0,0 +1,176 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which frames of a display are worth encoding. A frame is submitted only if the
+ * content was damaged shortly before it arrived, or if nothing was submitted for longer
+ * than the keep-alive interval. The damage is reported by the content producers on their
+ * own threads, the decisions are made on the thread the frames arrive on.
+ *
+ * The frame rate can also be capped while the session runs: a frame arriving sooner than
+ * the cap allows is held back and the last frame is submitted once it's due, so the
+ * latest content still gets encoded.
+ */
+public class FrameGate {
+
+    /**
+     * The time a frame may arrive after the damage and still contain it. Producers report
+     * the damage before their buffers are composed, so the first frame after the damage
+     * may still show the old content.
+     */
+    public static final long DEFAULT_SETTLE_NS = 100000000L;
+
+    private final long mKeepAliveIntervalNs;
+    private final long mSettleNs;
+    private final boolean mPassThrough;
+
+    private volatile long mLastDamageNs = Long.MIN_VALUE;
+    private volatile boolean mContinuous;
+    private volatile long mMinIntervalNs;
+    private long mLastSubmitNs = Long.MIN_VALUE;
+    private boolean mHeldBack;
+
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private final AtomicLong mKeepAlive = new AtomicLong();
+
+    /**
+     * @param keepAliveFrameRate the lowest rate frames are submitted at, even if nothing changes
+     */
+    public FrameGate(float keepAliveFrameRate) {
+        this(keepAliveFrameRate, DEFAULT_SETTLE_NS);
+    }
+
+    public FrameGate(float keepAliveFrameRate, long settleNs) {
+        if (keepAliveFrameRate <= 0) {
+            throw new IllegalArgumentException("keepAliveFrameRate must be positive");
+        }
+        mKeepAliveIntervalNs = (long) (1000000000L / keepAliveFrameRate);
+        mSettleNs = settleNs;
+        mPassThrough = false;
+    }
+
+    private FrameGate() {
+        mKeepAliveIntervalNs = 0;
+        mSettleNs = 0;
+        mPassThrough = true;
+    }
+
+    /**
+     * Returns a gate submitting every frame, up to the frame rate cap once one is set.
+     * It doesn't repeat frames to keep the stream alive.
+     */
+    public static FrameGate passThrough() {
+        return new FrameGate();
+    }
+
+    /**
+     * Caps the rate the frames are submitted at, 0 to submit them at any rate.
+     */
+    public void setMaxFrameRate(float frameRate) {
+        mMinIntervalNs = frameRate > 0 ? (long) (1000000000L / frameRate) : 0;
+    }
+
+    /**
+     * Reports that the content has changed.
+     */
+    public void markDamaged(long nowNs) {
+        mLastDamageNs = nowNs;
+    }
+
+    /**
+     * Sets whether the content is changing all the time, e.g. while a camera preview is
+     * shown. Every frame is submitted meanwhile.
+     */
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+    }
+
+    /**
+     * Called for every frame which arrives. Returns true if the frame should be submitted.
+     */
+    public boolean onFrame(long frameNs) {
+        long lastDamageNs = mLastDamageNs;
+        boolean damaged = mPassThrough || mContinuous ||
+                (lastDamageNs != Long.MIN_VALUE && frameNs - lastDamageNs <= mSettleNs);
+        boolean first = mLastSubmitNs == Long.MIN_VALUE;
+        boolean submit = damaged || first || frameNs - mLastSubmitNs >= mKeepAliveIntervalNs;
+        if (submit && !first && frameNs - mLastSubmitNs < mMinIntervalNs) {
+            submit = false;
+            mHeldBack = damaged;
+        }
+        if (submit) {
+            mLastSubmitNs = frameNs;
+            mHeldBack = false;
+            mSubmitted.incrementAndGet();
+        } else {
+            mSkipped.incrementAndGet();
+        }
+        return submit;
+    }
+
+    /**
+     * Returns true if a damaged frame has been held back by the frame rate cap and the last
+     * frame should be submitted once it's due.
+     */
+    public boolean isFrameHeldBack() {
+        return mHeldBack;
+    }
+
+    /**
+     * Returns the time left until the last frame must be submitted again, to keep the
+     * stream alive or because a frame has been held back, zero if it must be submitted
+     * now, or -1 if it doesn't have to be.
+     */
+    public long getKeepAliveDelayNs(long nowNs) {
+        if (mHeldBack) {
+            return Math.max(0, mLastSubmitNs + mMinIntervalNs - nowNs);
+        }
+        if (mPassThrough) {
+            return -1;
+        }
+        if (mLastSubmitNs == Long.MIN_VALUE) {
+            return mKeepAliveIntervalNs;
+        }
+        return Math.max(0, mLastSubmitNs + mKeepAliveIntervalNs - nowNs);
+    }
+
+    /**
+     * Returns {@link #getKeepAliveDelayNs} rounded up to whole milliseconds, so that the
+     * keep-alive posted with it doesn't run before the frame is due and repost itself
+     * until then.
+     */
+    public long getKeepAliveDelayMs(long nowNs) {
+        long delayNs = getKeepAliveDelayNs(nowNs);
+        return delayNs >= 0 ? (delayNs + 999999) / 1000000 : -1;
+    }
+
+    /**
+     * Called when the last frame is submitted again, to keep the stream alive or because
+     * it has been held back.
+     */
+    public void onKeepAlive(long nowNs) {
+        mLastSubmitNs = nowNs;
+        mHeldBack = false;
+        mKeepAlive.incrementAndGet();
+    }
+
+    public long getSubmittedFrames() {
+        return mSubmitted.get();
+    }
+
+    public long getSkippedFrames() {
+        return mSkipped.get();
+    }
+
+    public long getKeepAliveFrames() {
+        return mKeepAlive.get();
+    }
+
+    @Override
+    public String toString() {
+        return "submitted: " + getSubmittedFrames() + ", skipped: " + getSkippedFrames() +
+                ", keep-alive: " + getKeepAliveFrames();
+    }
+}
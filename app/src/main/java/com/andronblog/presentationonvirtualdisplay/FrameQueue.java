@@ -0,0 +1,301 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue handing the samples of a pipeline over from one producer thread to
+ * one consumer thread without locks. The sample data is copied into slots allocated
+ * up front, so a sample is queued without allocations unless it's bigger than a slot.
+ * Then the slot grows to the largest sample so far with some headroom and keeps it,
+ * so the slots stop growing once the peak, e.g. of the key frames, is reached.
+ *
+ * When the queue is full the {@link Policy} decides what happens to a new sample. The
+ * output format, the codec config and the end of stream are never dropped, the
+ * producer waits for them if needed. A waiting thread is parked until the other one
+ * wakes it up, so an idle queue doesn't wake up its threads.
+ */
+public class FrameQueue {
+
+    public enum Policy {
+        /**
+         * The producer waits until there is room. No samples are lost, the back-pressure
+         * goes to the producer.
+         */
+        BLOCK,
+        /**
+         * The oldest queued sample is dropped to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The new sample is dropped, and the following ones until a key frame, so that
+         * the consumer gets a decodable stream.
+         */
+        DROP_UNTIL_KEYFRAME
+    }
+
+    private static final int TYPE_SAMPLE = 0;
+    private static final int TYPE_FORMAT = 1;
+    private static final int TYPE_END_OF_STREAM = 2;
+
+    private final int mCapacity;
+    // One more slot than the capacity for the sample the consumer is processing.
+    private final int mSlotCount;
+    private final Policy mPolicy;
+
+    private final ByteBuffer[] mData;
+    private final int[] mType;
+    private final long[] mPts;
+    private final int[] mFlags;
+    private final MediaFormat[] mFormat;
+
+    // The next slot to write, written by the producer only.
+    private final AtomicLong mTail = new AtomicLong();
+    // The next slot to take, advanced by the consumer and by the producer dropping the oldest.
+    private final AtomicLong mHead = new AtomicLong();
+    // The slots before it can be overwritten, written by the consumer only.
+    private final AtomicLong mReleased = new AtomicLong();
+
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile int mMaxSize;
+    // Accessed by the producer only.
+    private boolean mDropping;
+    private int mSlotSize;
+
+    // Set while a thread is parked waiting for the other one, so that it's only woken
+    // up when needed.
+    private volatile Thread mConsumer;
+    private volatile Thread mProducer;
+    private volatile boolean mConsumerWaiting;
+    private volatile boolean mProducerWaiting;
+
+    private final SampleInfo mInfo = new SampleInfo();
+
+    /**
+     * @param capacity the number of samples the queue holds
+     * @param slotSize the initial size of the slots, should fit a typical sample
+     */
+    public FrameQueue(int capacity, int slotSize, Policy policy) {
+        if (capacity <= 0 || slotSize <= 0) {
+            throw new IllegalArgumentException("capacity and slotSize must be positive");
+        }
+        mCapacity = capacity;
+        mSlotCount = capacity + 1;
+        mPolicy = policy;
+        mData = new ByteBuffer[mSlotCount];
+        mType = new int[mSlotCount];
+        mPts = new long[mSlotCount];
+        mFlags = new int[mSlotCount];
+        mFormat = new MediaFormat[mSlotCount];
+        mSlotSize = slotSize;
+        for (int i = 0; i < mSlotCount; i++) {
+            mData[i] = ByteBuffer.allocateDirect(slotSize);
+        }
+    }
+
+    /**
+     * Queues a copy of the sample. Returns false if the sample is dropped.
+     */
+    public boolean offerSample(ByteBuffer buffer, SampleInfo info) {
+        if (mDropping) {
+            if (!info.isKeyFrame() && !info.isCodecConfig()) {
+                mDropped.incrementAndGet();
+                return false;
+            }
+            mDropping = false;
+        }
+        if (!hasRoom() && info.isCodecConfig()) {
+            // The stream can't be decoded without it.
+            awaitRoom();
+        } else if (!hasRoom()) {
+            switch (mPolicy) {
+                case BLOCK:
+                    awaitRoom();
+                    break;
+                case DROP_OLDEST:
+                    if (!dropOldest()) {
+                        // The consumer holds the only free slot, drop the new sample instead.
+                        mDropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case DROP_UNTIL_KEYFRAME:
+                    mDropping = !info.isCodecConfig();
+                    mDropped.incrementAndGet();
+                    return false;
+            }
+        }
+        long tail = mTail.get();
+        int slot = (int) (tail % mSlotCount);
+        ByteBuffer data = mData[slot];
+        if (data.capacity() < buffer.remaining()) {
+            mSlotSize = Math.max(mSlotSize, buffer.remaining() + buffer.remaining() / 4);
+            data = ByteBuffer.allocateDirect(mSlotSize);
+            mData[slot] = data;
+        }
+        data.clear();
+        data.put(buffer.duplicate());
+        data.flip();
+        mType[slot] = TYPE_SAMPLE;
+        mPts[slot] = info.presentationTimeUs;
+        mFlags[slot] = info.flags;
+        publish(tail);
+        return true;
+    }
+
+    public void offerFormat(MediaFormat format) {
+        long tail = awaitSlot();
+        int slot = (int) (tail % mSlotCount);
+        mType[slot] = TYPE_FORMAT;
+        mFormat[slot] = format;
+        publish(tail);
+    }
+
+    public void offerEndOfStream() {
+        long tail = awaitSlot();
+        int slot = (int) (tail % mSlotCount);
+        mType[slot] = TYPE_END_OF_STREAM;
+        publish(tail);
+    }
+
+    /**
+     * Takes the next item and passes it to the sink, waiting up to the timeout for it.
+     * The sample buffer is valid during the call only. Returns false on timeout.
+     */
+    public boolean take(SampleSink sink, long timeoutNs) {
+        mConsumer = Thread.currentThread();
+        long deadline = System.nanoTime() + timeoutNs;
+        long head;
+        while (true) {
+            head = mHead.get();
+            // Everything before the head is either processed or dropped.
+            mReleased.set(head);
+            if (head == mTail.get()) {
+                wakeProducer();
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                // The producer checks the flag after publishing, so either it sees the
+                // flag and wakes this thread up, or the check below sees the new item.
+                mConsumerWaiting = true;
+                if (head == mTail.get()) {
+                    LockSupport.parkNanos(this, left);
+                }
+                mConsumerWaiting = false;
+                continue;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                break;
+            }
+        }
+        int slot = (int) (head % mSlotCount);
+        switch (mType[slot]) {
+            case TYPE_SAMPLE:
+                ByteBuffer data = mData[slot];
+                mInfo.set(0, data.remaining(), mPts[slot], mFlags[slot]);
+                sink.onSample(data, mInfo);
+                break;
+            case TYPE_FORMAT:
+                MediaFormat format = mFormat[slot];
+                mFormat[slot] = null;
+                sink.onOutputFormat(format);
+                break;
+            case TYPE_END_OF_STREAM:
+                sink.onEndOfStream();
+                break;
+        }
+        mReleased.set(head + 1);
+        wakeProducer();
+        return true;
+    }
+
+    /**
+     * Returns the number of queued items.
+     */
+    public int size() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the highest number of queued items so far.
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public long getDroppedSamples() {
+        return mDropped.get();
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    private boolean hasRoom() {
+        long tail = mTail.get();
+        return tail - mHead.get() < mCapacity && tail - mReleased.get() < mSlotCount;
+    }
+
+    /**
+     * Drops the oldest queued item unless it's the format or the end of stream. Returns
+     * true if there is room afterwards.
+     */
+    private boolean dropOldest() {
+        long tail = mTail.get();
+        while (tail - mHead.get() >= mCapacity) {
+            long head = mHead.get();
+            if (mType[(int) (head % mSlotCount)] != TYPE_SAMPLE) {
+                awaitRoom();
+                break;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                mDropped.incrementAndGet();
+            }
+        }
+        return tail - mReleased.get() < mSlotCount;
+    }
+
+    private long awaitSlot() {
+        if (!hasRoom()) {
+            awaitRoom();
+        }
+        return mTail.get();
+    }
+
+    private void awaitRoom() {
+        mProducer = Thread.currentThread();
+        while (!hasRoom()) {
+            // The consumer checks the flag after releasing a slot, as in take().
+            mProducerWaiting = true;
+            if (!hasRoom()) {
+                LockSupport.park(this);
+            }
+            mProducerWaiting = false;
+        }
+    }
+
+    private void wakeProducer() {
+        if (mProducerWaiting) {
+            LockSupport.unpark(mProducer);
+        }
+    }
+
+    private void publish(long tail) {
+        mTail.set(tail + 1);
+        int size = (int) (tail + 1 - mHead.get());
+        if (size > mMaxSize) {
+            mMaxSize = size;
+        }
+        if (mConsumerWaiting) {
+            LockSupport.unpark(mConsumer);
+        }
+    }
+}
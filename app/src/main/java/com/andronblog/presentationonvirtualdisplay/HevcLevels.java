@@ -0,0 +1,99 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Precomputed limits of the HEVC levels of the Main profile. The level values are the same
+ * as MediaCodecInfo.CodecProfileLevel.HEVC*TierLevel* ones: the Main and High tiers of a
+ * level share the limits except the bit rate.
+ *
+ * HEVC limits the luma samples of a frame instead of the width and height, any dimension
+ * is up to sqrt(8 * MaxLumaPs).
+ */
+public final class HevcLevels {
+
+    public static final int MAIN_TIER_LEVEL_1 = 0x1;
+    public static final int HIGH_TIER_LEVEL_1 = 0x2;
+    public static final int MAIN_TIER_LEVEL_2 = 0x4;
+    public static final int HIGH_TIER_LEVEL_2 = 0x8;
+    public static final int MAIN_TIER_LEVEL_21 = 0x10;
+    public static final int HIGH_TIER_LEVEL_21 = 0x20;
+    public static final int MAIN_TIER_LEVEL_3 = 0x40;
+    public static final int HIGH_TIER_LEVEL_3 = 0x80;
+    public static final int MAIN_TIER_LEVEL_31 = 0x100;
+    public static final int HIGH_TIER_LEVEL_31 = 0x200;
+    public static final int MAIN_TIER_LEVEL_4 = 0x400;
+    public static final int HIGH_TIER_LEVEL_4 = 0x800;
+    public static final int MAIN_TIER_LEVEL_41 = 0x1000;
+    public static final int HIGH_TIER_LEVEL_41 = 0x2000;
+    public static final int MAIN_TIER_LEVEL_5 = 0x4000;
+    public static final int HIGH_TIER_LEVEL_5 = 0x8000;
+    public static final int MAIN_TIER_LEVEL_51 = 0x10000;
+    public static final int HIGH_TIER_LEVEL_51 = 0x20000;
+    public static final int MAIN_TIER_LEVEL_52 = 0x40000;
+    public static final int HIGH_TIER_LEVEL_52 = 0x80000;
+    public static final int MAIN_TIER_LEVEL_6 = 0x100000;
+    public static final int HIGH_TIER_LEVEL_6 = 0x200000;
+    public static final int MAIN_TIER_LEVEL_61 = 0x400000;
+    public static final int HIGH_TIER_LEVEL_61 = 0x800000;
+    public static final int MAIN_TIER_LEVEL_62 = 0x1000000;
+    public static final int HIGH_TIER_LEVEL_62 = 0x2000000;
+
+    // MaxLumaPs, MaxLumaSr, and MaxBR of the Main and High tiers in kbps of each level,
+    // from the tables A.6 and A.8 of the specification.
+    private static final long[][] SPEC = {
+            {36864, 552960, 128, 128},
+            {122880, 3686400, 1500, 1500},
+            {245760, 7372800, 3000, 3000},
+            {552960, 16588800, 6000, 6000},
+            {983040, 33177600, 10000, 10000},
+            {2228224, 66846720, 12000, 30000},
+            {2228224, 133693440, 20000, 50000},
+            {8912896, 267386880, 25000, 100000},
+            {8912896, 534773760, 40000, 160000},
+            {8912896, 1069547520, 60000, 240000},
+            {35651584, 1069547520, 60000, 240000},
+            {35651584, 2139095040, 120000, 480000},
+            {35651584, 4278190080L, 240000, 800000},
+    };
+
+    // Main and High tier limits of each level, ordered as the level bits.
+    private static final LevelLimits[] LIMITS = new LevelLimits[SPEC.length * 2];
+
+    static {
+        for (int i = 0; i < SPEC.length; i++) {
+            long lumaPs = SPEC[i][0];
+            int maxDimension = (int) Math.sqrt(8 * lumaPs);
+            int frameBlocks = (int) (lumaPs / 256);
+            int blockRate = (int) (SPEC[i][1] / 256);
+            LIMITS[2 * i] = new LevelLimits(1 << (2 * i), maxDimension, maxDimension,
+                    frameBlocks, blockRate, (int) (SPEC[i][2] * 1000));
+            LIMITS[2 * i + 1] = new LevelLimits(1 << (2 * i + 1), maxDimension, maxDimension,
+                    frameBlocks, blockRate, (int) (SPEC[i][3] * 1000));
+        }
+    }
+
+    private static final LevelLimits DEFAULT_LIMITS = forLevel(MAIN_TIER_LEVEL_41);
+
+    private HevcLevels() {
+    }
+
+    /**
+     * Returns the limits of the given level. An unknown level is treated as Main tier
+     * level 4.1.
+     */
+    public static LevelLimits forLevel(int level) {
+        if (level > 0 && Integer.bitCount(level) == 1) {
+            int index = Integer.numberOfTrailingZeros(level);
+            if (index < LIMITS.length) {
+                return LIMITS[index];
+            }
+        }
+        return DEFAULT_LIMITS;
+    }
+
+    /**
+     * Returns the limits of all the levels in ascending order, Main tier before High tier.
+     */
+    public static LevelLimits[] all() {
+        return LIMITS.clone();
+    }
+}
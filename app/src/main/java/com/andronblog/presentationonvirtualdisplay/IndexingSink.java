@@ -0,0 +1,90 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Passes the samples to the sink of a recording and writes the {@link KeyFrameIndex} of
+ * what the sink got into a sidecar file at the end of stream. The times are relative to
+ * the first sample, as the muxer writes them.
+ */
+public class IndexingSink implements SampleSink {
+
+    private static final String TAG = "IndexingSink";
+
+    /**
+     * Gets the index of the recording after the sink of the recording is finished, on the
+     * thread of the end of stream.
+     */
+    public interface Listener {
+
+        /**
+         * @param index the key frame index, or null if nothing has been recorded
+         */
+        void onRecordingFinished(String recordingPath, KeyFrameIndex index);
+    }
+
+    private final SampleSink mSink;
+    private final String mRecordingPath;
+    private final File mIndexFile;
+    private final Listener mListener;
+    private final KeyFrameIndex.Builder mBuilder = new KeyFrameIndex.Builder();
+    private long mFirstPtsUs = -1;
+    private long mLastPtsUs;
+
+    /**
+     * @param recordingPath the path of the recording the sink writes
+     */
+    public IndexingSink(SampleSink sink, String recordingPath) {
+        this(sink, recordingPath, null);
+    }
+
+    public IndexingSink(SampleSink sink, String recordingPath, Listener listener) {
+        mSink = sink;
+        mRecordingPath = recordingPath;
+        mIndexFile = KeyFrameIndex.getSidecar(recordingPath);
+        mListener = listener;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        mSink.onOutputFormat(format);
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        mSink.onSample(buffer, info);
+        if (info.isCodecConfig() || info.size == 0) {
+            return;
+        }
+        if (mFirstPtsUs < 0) {
+            mFirstPtsUs = info.presentationTimeUs;
+        }
+        mLastPtsUs = info.presentationTimeUs;
+        if (info.isKeyFrame()) {
+            mBuilder.addKeyFrame(info.presentationTimeUs - mFirstPtsUs);
+        }
+    }
+
+    @Override
+    public void onEndOfStream() {
+        mSink.onEndOfStream();
+        KeyFrameIndex index = null;
+        if (mBuilder.size() > 0) {
+            mBuilder.setDurationUs(mLastPtsUs - mFirstPtsUs);
+            index = mBuilder.build();
+            try {
+                index.write(mIndexFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write key frame index: " + e.getMessage());
+            }
+        }
+        if (mListener != null) {
+            mListener.onRecordingFinished(mRecordingPath, index);
+        }
+    }
+}
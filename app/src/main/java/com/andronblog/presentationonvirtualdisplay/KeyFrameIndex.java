@@ -0,0 +1,170 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The times of the key frames of a recording, relative to its first frame. The index is
+ * kept in a sidecar file next to the recording, so that the seek positions are known
+ * without scanning the recording.
+ */
+public class KeyFrameIndex {
+
+    public static final String EXTENSION = ".idx";
+
+    // "KFI1"
+    private static final int MAGIC = 0x4b464931;
+    // Guards against reading a corrupted file into a huge array.
+    private static final int MAX_COUNT = 10000000;
+
+    private final long[] mTimesUs;
+    private final long mDurationUs;
+
+    /**
+     * @param timesUs the increasing times of the key frames
+     */
+    public KeyFrameIndex(long[] timesUs, long durationUs) {
+        mTimesUs = timesUs;
+        mDurationUs = durationUs;
+    }
+
+    /**
+     * Returns the sidecar file of the recording.
+     */
+    public static File getSidecar(String path) {
+        return new File(path + EXTENSION);
+    }
+
+    public static KeyFrameIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a key frame index: " + file);
+            }
+            long durationUs = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_COUNT) {
+                throw new IOException("Invalid key frame count " + count + " in " + file);
+            }
+            long[] timesUs = new long[count];
+            for (int i = 0; i < count; i++) {
+                timesUs[i] = in.readLong();
+            }
+            return new KeyFrameIndex(timesUs, durationUs);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the index into a temporary file renamed to the given one, so that a partly
+     * written index is never read.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(mDurationUs);
+            out.writeInt(mTimesUs.length);
+            for (long timeUs : mTimesUs) {
+                out.writeLong(timeUs);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + file);
+        }
+    }
+
+    public int size() {
+        return mTimesUs.length;
+    }
+
+    public long getKeyFrameTimeUs(int index) {
+        return mTimesUs[index];
+    }
+
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    /**
+     * Returns the time of the last key frame at or before the position, the decoding can
+     * start from it right away.
+     */
+    public long floorUs(long positionUs) {
+        if (mTimesUs.length == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(mTimesUs, positionUs);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return mTimesUs[Math.max(0, i)];
+    }
+
+    /**
+     * Returns the time of the key frame closest to the position.
+     */
+    public long nearestUs(long positionUs) {
+        if (mTimesUs.length == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(mTimesUs, positionUs);
+        if (i >= 0) {
+            return mTimesUs[i];
+        }
+        int next = -i - 1;
+        if (next == 0) {
+            return mTimesUs[0];
+        }
+        if (next == mTimesUs.length) {
+            return mTimesUs[next - 1];
+        }
+        long before = mTimesUs[next - 1];
+        long after = mTimesUs[next];
+        return positionUs - before <= after - positionUs ? before : after;
+    }
+
+    /**
+     * Collects the key frame times as they are recorded.
+     */
+    public static class Builder {
+
+        private long[] mTimesUs = new long[64];
+        private int mCount;
+        private long mDurationUs;
+
+        public void addKeyFrame(long timeUs) {
+            if (mCount > 0 && timeUs <= mTimesUs[mCount - 1]) {
+                return;
+            }
+            if (mCount == mTimesUs.length) {
+                mTimesUs = Arrays.copyOf(mTimesUs, mCount * 2);
+            }
+            mTimesUs[mCount++] = timeUs;
+        }
+
+        public void setDurationUs(long durationUs) {
+            mDurationUs = durationUs;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public KeyFrameIndex build() {
+            return new KeyFrameIndex(Arrays.copyOf(mTimesUs, mCount), mDurationUs);
+        }
+    }
+}
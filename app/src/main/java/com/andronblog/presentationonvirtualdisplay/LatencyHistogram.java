@@ -0,0 +1,123 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed buckets. Recording is lock-free and doesn't allocate,
+ * so it can be used on the encoder thread for every frame.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The upper bounds of the buckets in microseconds. The last bucket takes the rest.
+     */
+    private static final long[] BOUNDS_US = {
+            250, 500, 1000, 2000, 4000, 8000, 16000, 33000, 66000, 133000, 250000, 500000, 1000000
+    };
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS_US.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSumUs = new AtomicLong();
+    private final AtomicLong mMaxUs = new AtomicLong();
+
+    public void record(long latencyUs) {
+        if (latencyUs < 0) {
+            latencyUs = 0;
+        }
+        int bucket = 0;
+        while (bucket < BOUNDS_US.length && latencyUs > BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSumUs.addAndGet(latencyUs);
+        long max = mMaxUs.get();
+        while (latencyUs > max && !mMaxUs.compareAndSet(max, latencyUs)) {
+            max = mMaxUs.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mCount.get(), mSumUs.get(), mMaxUs.get());
+    }
+
+    /**
+     * Counts of a histogram at a moment. The counters are read one by one, so a snapshot
+     * taken while recording can be off by the values recorded meanwhile.
+     */
+    public static class Snapshot {
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSumUs;
+        private final long mMaxUs;
+
+        Snapshot(long[] counts, long count, long sumUs, long maxUs) {
+            mCounts = counts;
+            mCount = count;
+            mSumUs = sumUs;
+            mMaxUs = maxUs;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxUs() {
+            return mMaxUs;
+        }
+
+        public long getMeanUs() {
+            return mCount > 0 ? mSumUs / mCount : 0;
+        }
+
+        /**
+         * Returns the upper bound of the bucket containing the percentile, or the maximum
+         * for the last bucket.
+         *
+         * @param percentile in the range (0, 100]
+         */
+        public long getPercentileUs(double percentile) {
+            long total = 0;
+            for (long count : mCounts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return i < BOUNDS_US.length ? Math.min(BOUNDS_US[i], mMaxUs) : mMaxUs;
+                }
+            }
+            return mMaxUs;
+        }
+
+        /**
+         * Returns the counts recorded after the previous snapshot. The maximum is the one
+         * of the whole histogram.
+         */
+        public Snapshot since(Snapshot previous) {
+            long[] counts = new long[mCounts.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, mCounts[i] - previous.mCounts[i]);
+            }
+            return new Snapshot(counts, Math.max(0, mCount - previous.mCount),
+                    Math.max(0, mSumUs - previous.mSumUs), mMaxUs);
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + mCount + " mean=" + getMeanUs() + "us p50=" + getPercentileUs(50) +
+                    "us p99=" + getPercentileUs(99) + "us max=" + mMaxUs + "us";
+        }
+    }
+}
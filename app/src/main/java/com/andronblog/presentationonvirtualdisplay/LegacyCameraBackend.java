@@ -0,0 +1,152 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.util.List;
+
+/**
+ * The backend using the deprecated android.hardware.Camera API. It's used on devices
+ * which Camera2 support is legacy only.
+ */
+@SuppressWarnings("deprecation")
+public class LegacyCameraBackend implements CameraBackend {
+
+    private static final String TAG = "LegacyCameraBackend";
+
+    private final int mCameraId;
+    private Camera mCamera;
+    private Callback mCallback;
+    private boolean mFirstFrameReceived;
+
+    public LegacyCameraBackend(int cameraId) {
+        mCameraId = cameraId;
+    }
+
+    @Override
+    public boolean open(Handler cameraHandler, Callback callback) {
+        mCallback = callback;
+        try {
+            // The camera callbacks are delivered to the looper of the calling thread.
+            mCamera = Camera.open(mCameraId);
+        } catch (Exception e) {
+            // Camera is not available (in use or does not exist)
+            Log.e(TAG, "Can't open camera " + mCameraId + ": " + e.getMessage());
+        }
+        return mCamera != null;
+    }
+
+    @Override
+    public void setDisplayOrientation(int displayRotation) {
+        if (mCamera == null) {
+            return;
+        }
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(mCameraId, info);
+        int degrees = 0;
+        switch (displayRotation) {
+            case Surface.ROTATION_0: degrees = 0; break;
+            case Surface.ROTATION_90: degrees = 90; break;
+            case Surface.ROTATION_180: degrees = 180; break;
+            case Surface.ROTATION_270: degrees = 270; break;
+        }
+
+        int result;
+        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            result = (info.orientation + degrees) % 360;
+            result = (360 - result) % 360;  // compensate the mirror
+        } else {  // back-facing
+            result = (info.orientation - degrees + 360) % 360;
+        }
+        mCamera.setDisplayOrientation(result);
+    }
+
+    @Override
+    public void configure(int viewWidth, int viewHeight, int frameRate) {
+        if (mCamera == null) {
+            return;
+        }
+        Camera.Parameters params = mCamera.getParameters();
+        List<Camera.Size> sizes = params.getSupportedPreviewSizes();
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < sizes.size(); i++) {
+            widths[i] = sizes.get(i).width;
+            heights[i] = sizes.get(i).height;
+        }
+        // The preview sizes are in the sensor orientation, compare with the larger side first.
+        int sizeIndex = PreviewConfigSelector.chooseSize(widths, heights,
+                Math.max(viewWidth, viewHeight), Math.min(viewWidth, viewHeight));
+        if (sizeIndex >= 0) {
+            params.setPreviewSize(widths[sizeIndex], heights[sizeIndex]);
+        }
+
+        List<int[]> ranges = params.getSupportedPreviewFpsRange();
+        int[] mins = new int[ranges.size()];
+        int[] maxs = new int[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            mins[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            maxs[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        }
+        // The legacy ranges are scaled by 1000.
+        int rangeIndex = PreviewConfigSelector.chooseFpsRange(mins, maxs, frameRate * 1000);
+        if (rangeIndex >= 0) {
+            params.setPreviewFpsRange(mins[rangeIndex], maxs[rangeIndex]);
+        }
+        mCamera.setParameters(params);
+        Camera.Size size = params.getPreviewSize();
+        Log.d(TAG, "Preview " + size.width + "x" + size.height + ", fps range: " +
+                (rangeIndex >= 0 ? mins[rangeIndex] + "-" + maxs[rangeIndex] : "default"));
+        mCallback.onPreviewSizeChosen(size.width, size.height);
+    }
+
+    @Override
+    public void startPreview(SurfaceHolder holder) {
+        if (mCamera == null) {
+            return;
+        }
+        // stop preview before making changes
+        try {
+            mCamera.stopPreview();
+        } catch (Exception e){
+            // ignore: tried to stop a non-existent preview
+        }
+        try {
+            mCamera.setPreviewDisplay(holder);
+            if (!mFirstFrameReceived) {
+                mCamera.setOneShotPreviewCallback(mFirstFrameCallback);
+            }
+            mCamera.startPreview();
+        } catch (Exception e){
+            Log.d(TAG, "Error starting camera preview: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mCamera != null) {
+            mCamera.release();
+            mCamera = null;
+        }
+    }
+
+    private final Camera.PreviewCallback mFirstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            if (!mFirstFrameReceived) {
+                mFirstFrameReceived = true;
+                mCallback.onFirstFrame();
+            }
+        }
+    };
+}
@@ -0,0 +1,90 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Limits of a codec level: the maximum frame size, encoding speed and bit rate. The
+ * limits of the codecs with other block sizes are expressed in 16x16 blocks as well.
+ */
+public class LevelLimits {
+
+    private final int mLevel;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final int mMaxMacroblocksPerFrame;
+    private final int mMaxMacroblocksPerSecond;
+    private final int mMaxBitRate;
+
+    public LevelLimits(int level, int maxWidth, int maxHeight, int maxMacroblocksPerSecond,
+                       int maxBitRate) {
+        this(level, maxWidth, maxHeight, macroblocks(maxWidth, maxHeight),
+                maxMacroblocksPerSecond, maxBitRate);
+    }
+
+    /**
+     * @param maxWidth the maximum width, or any dimension if the level limits the frame
+     *                 area rather than the size, e.g. HEVC and VP9
+     * @param maxHeight the maximum height, as the maximum width
+     */
+    public LevelLimits(int level, int maxWidth, int maxHeight, int maxMacroblocksPerFrame,
+                       int maxMacroblocksPerSecond, int maxBitRate) {
+        mLevel = level;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mMaxMacroblocksPerFrame = maxMacroblocksPerFrame;
+        mMaxMacroblocksPerSecond = maxMacroblocksPerSecond;
+        mMaxBitRate = maxBitRate;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    public int getMaxMacroblocksPerFrame() {
+        return mMaxMacroblocksPerFrame;
+    }
+
+    public int getMaxMacroblocksPerSecond() {
+        return mMaxMacroblocksPerSecond;
+    }
+
+    public int getMaxBitRate() {
+        return mMaxBitRate;
+    }
+
+    public boolean isSizeSupported(int width, int height) {
+        return width <= mMaxWidth && height <= mMaxHeight &&
+                macroblocks(width, height) <= mMaxMacroblocksPerFrame;
+    }
+
+    /**
+     * Returns the highest frame rate the level allows for the given size.
+     */
+    public int getMaxFrameRate(int width, int height) {
+        return mMaxMacroblocksPerSecond / macroblocks(width, height);
+    }
+
+    public boolean isSupported(int width, int height, int frameRate) {
+        return isSizeSupported(width, height) && frameRate <= getMaxFrameRate(width, height);
+    }
+
+    /**
+     * Returns the number of 16x16 macroblocks of a frame.
+     */
+    public static int macroblocks(int width, int height) {
+        return ((width + 15) / 16) * ((height + 15) / 16);
+    }
+
+    @Override
+    public String toString() {
+        return "level:0x" + Integer.toHexString(mLevel) + " " + mMaxWidth + "x" + mMaxHeight +
+                " mbs:" + mMaxMacroblocksPerFrame +
+                " mbps:" + mMaxMacroblocksPerSecond + " bitrate:" + mMaxBitRate;
+    }
+}
@@ -9,15 +9,14 @@ import android.content.pm.PackageManager;
 import android.graphics.Point;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.MediaPlayer;
-import android.media.MediaRecorder;
+import android.media.MediaMuxer;
 import android.media.MediaRouter;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.DisplayMetrics;
@@ -34,10 +33,18 @@ import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class MainActivity extends Activity {
 
@@ -47,31 +54,151 @@ public class MainActivity extends Activity {
     private static final int EXTERNAL_STORAGE_PERMISSION_CODE = 2;
 
     private static final int FRAMERATE = 30;
-    private static final String FILENAME = Environment.getExternalStorageDirectory().getPath()+"/presentation.mp4";
+    private static final int IFRAME_INTERVAL = 1;
+    // Write the elementary stream through our own storage writer instead of MediaMuxer.
+    private static final boolean RAW_OUTPUT = false;
+    private static final int STORAGE_BLOCK_SIZE = 1024 * 1024;
+    private static final long STORAGE_EXTENT_BYTES = 16 * 1024 * 1024;
+    private static final long STORAGE_SYNC_INTERVAL_MS = 2000;
+    // Every session records into a new file of the catalog, named by its id and the codec
+    // chosen for the device, e.g. recordings/presentation_000042.mp4.
+    private static final String OUTPUT_DIR = Environment.getExternalStorageDirectory().getPath();
+    private static final String RECORDINGS_DIR = OUTPUT_DIR + "/recordings";
+    private static final String RECORDING_NAME = "presentation";
+    private static final String REPLAY_NAME = "replay";
+    // The oldest recordings are deleted beyond this age or total size.
+    private static final long RETENTION_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final long RETENTION_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+    // The MP4 recordings get the audio of the microphone, or silence if the permission
+    // isn't granted, on the clock of the video.
+    private static final boolean AUDIO = true;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_CHANNELS = 1;
+    private static final int AUDIO_BIT_RATE = 128000;
+    private static final long AUDIO_MAX_DRIFT_US = 40000;
+    // The longest a track is held back to interleave it with the other one.
+    private static final long AUDIO_INTERLEAVE_US = 500000;
+    // Keep the last seconds of every session in memory to save them on demand, the window
+    // is shorter if the bit rate doesn't let it fit into the maximum size.
+    private static final boolean REPLAY_BUFFER = true;
+    // Keep only the last seconds in memory instead of recording the whole session into file.
+    private static final boolean REPLAY_ONLY = false;
+    private static final int REPLAY_WINDOW_SECONDS = 30;
+    private static final int REPLAY_SLOT_CAPACITY = 4096;
+    private static final long REPLAY_MAX_BYTES = 16 * 1024 * 1024;
+    // Write the session into a sequence of files instead of a single one.
+    private static final boolean SEGMENTED_OUTPUT = false;
+    private static final int SEGMENT_DURATION_SECONDS = 10;
+    private static final long SEGMENT_MAX_BYTES = 64 * 1024 * 1024;
+    // Only the single muxed files are added to the catalog.
+    private static final boolean CATALOGUED_OUTPUT =
+            !RAW_OUTPUT && !SEGMENTED_OUTPUT && !REPLAY_ONLY;
+    // Number of concurrent virtual displays and the encoder threads they share.
+    private static final int MAX_SESSIONS = 4;
+    private static final int ENCODER_THREADS = 2;
+    // The number of idle codecs kept for the next sessions.
+    private static final int MAX_WARM_ENCODERS = 2;
+
+    // Prepare the encoder and the output of the next session in the background, so that
+    // "Create" only has to create the virtual display.
+    private static final boolean PREWARM = true;
+    private static final String PREWARM_SUFFIX = RecordingCatalog.PARTIAL_SUFFIX;
+
+    // How often the seek bar follows the playback.
+    private static final int SEEK_BAR_UPDATE_MS = 500;
+
+    // Encode the frames of the presentation only when it changes.
+    private static final boolean VARIABLE_FRAME_RATE = false;
+    private static final float KEEP_ALIVE_FRAMERATE = 1;
+
+    // Serve the encoded stream of the session N on the port STREAM_PORT + N.
+    private static final boolean STREAMING = false;
+    private static final int STREAM_PORT = 8554;
+    private static final int STREAM_MAX_QUEUED_FRAMES = 60;
+
+    // Write the output on its own thread behind a bounded queue instead of the encoder thread.
+    private static final boolean QUEUED_OUTPUT = true;
+    private static final int OUTPUT_QUEUE_SECONDS = 1;
+    // A key frame takes several times the average frame, size the slots to hold it so that
+    // they aren't grown on every key frame.
+    private static final int OUTPUT_SLOT_FRAMES = 4;
+
+    // Make the thumbnails, sprite sheets and statistics of the recordings when the
+    // sessions stop, a few recordings at once.
+    private static final boolean POST_PROCESSING = true;
+    private static final int POST_PROCESSING_THREADS = 2;
+    private static final int POST_PROCESSING_MAX_QUEUED = 64;
+
+    private static final long METRICS_PERIOD_MS = 1000;
+    // Step the fps, size and bit rate of the sessions down while the device can't keep
+    // up with them or heats up, and back up when it recovers. The governor decides once
+    // per metrics period.
+    private static final boolean QUALITY_GOVERNOR = true;
+    private static final QualityGovernor.Level[] QUALITY_LADDER = {
+            new QualityGovernor.Level(1f, FRAMERATE, 1f),
+            new QualityGovernor.Level(1f, 20, 0.8f),
+            new QualityGovernor.Level(0.75f, 20, 0.6f),
+            new QualityGovernor.Level(0.75f, 15, 0.5f),
+            new QualityGovernor.Level(0.5f, 15, 0.4f),
+    };
+    // Set to a path to export the metrics into a CSV file besides the log.
+    private static final String METRICS_FILENAME = null;
 
     private int mWidth;
     private int mHeight;
     private DisplayMetrics mMetrics = new DisplayMetrics();
 
-    private DisplayManager mDisplayManager;
-    private VirtualDisplay mVirtualDisplay;
-    private MediaRecorder mMediaRecorder;
+    private PipelineThreads mThreads;
+    private SessionManager mSessionManager;
+    private MetricsReporter mMetricsReporter;
+    private EncoderPool mEncoderPool;
 
     private int mResultCode;
     private Intent mResultData;
 
     private MediaProjectionManager mProjectionManager;
-    private MediaProjection mProjection;
+    // Read on the control thread.
+    private volatile MediaProjection mProjection;
     private MediaProjection.Callback mProjectionCallback;
 
-    private MediaPlayer mMediaPlayer;
+    private PlaybackEngine mPlayback;
+    // The codec of the recordings and their paths, chosen on the control thread.
+    private volatile String mOutputMimeType;
+    private volatile String mRecordingExtension;
+    private volatile String mReplayFilename;
     private SurfaceView mSurfaceView;
 
     private Surface mSurface;
     private Button mButtonCreate;
     private Button mButtonDestroy;
+    private Button mButtonSaveReplay;
+    private Button mButtonResize;
+    // The prepared session for the next index, accessed on the control thread.
+    private CaptureSession mPrewarmed;
+    private Handler mPrewarmedHandler;
+    private int mPrewarmedIndex;
+    private String mPrewarmedPath;
+    // Makes the paths of the recordings outside the catalog unique, on the control thread.
+    private int mUncataloguedRecordings;
+    private volatile long mCreateRequestNs;
+    private volatile boolean mResumed;
+    // Whether the sessions are encoded at the half of the display size, changed on the control thread.
+    private boolean mHalfSize;
+    // The quality level of the sessions, changed on the control thread.
+    private final Map<CaptureSession, QualityGovernor.Level> mQualityLevels =
+            new HashMap<CaptureSession, QualityGovernor.Level>();
+    // The governors of the sessions, accessed on the metrics thread.
+    private final Map<CaptureSession, QualityGovernor> mGovernors =
+            new HashMap<CaptureSession, QualityGovernor>();
+    private DeviceSignals mDeviceSignals;
+    private RecordingProcessor mRecordingProcessor;
+    private RecordingCatalog mCatalog;
+    private AudioEncoder mAudioEncoder;
+    // The files recorded by the running sessions, accessed on the control thread.
+    private final List<String> mRecordings = new ArrayList<String>();
     private Button mButtonPlayVideo;
     private Button mButtonStopVideo;
+    private SeekBar mSeekBar;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -90,16 +217,40 @@ public class MainActivity extends Activity {
         mWidth = mSurfaceView.getLayoutParams().width;
         mHeight = mSurfaceView.getLayoutParams().height;
 
-        mDisplayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
-        mDisplayManager.registerDisplayListener(mDisplayListener, null);
+        mThreads = new PipelineThreads();
+        mSessionManager = new SessionManager(this, ENCODER_THREADS, mThreads.getDisplayHandler(),
+                mThreads.getMainHandler());
+        mEncoderPool = new EncoderPool(MAX_WARM_ENCODERS);
+        mMetricsReporter = new MetricsReporter(mSessionManager, METRICS_PERIOD_MS, METRICS_FILENAME);
+        if (QUALITY_GOVERNOR) {
+            mDeviceSignals = new DeviceSignals(this);
+            mMetricsReporter.setListener(new MetricsReporter.Listener() {
+                @Override
+                public void onMetrics(CaptureSession session, MetricsSnapshot snapshot,
+                                      MetricsSnapshot previous) {
+                    governSession(session, snapshot, previous);
+                }
+            });
+        }
+        mMetricsReporter.start();
+        mRecordingProcessor = new RecordingProcessor(new File(getCacheDir(), "recordings"),
+                POST_PROCESSING_THREADS, POST_PROCESSING_MAX_QUEUED);
+        mCatalog = new RecordingCatalog(new File(RECORDINGS_DIR), RECORDING_NAME);
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                openCatalog();
+                selectOutputType();
+            }
+        });
         mProjectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
-        mMediaRecorder = new MediaRecorder();
 
         mButtonCreate = (Button) findViewById(R.id.btn_create_virtual_display);
         mButtonCreate.setEnabled(false);
         mButtonCreate.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                mCreateRequestNs = System.nanoTime();
                 startScreenCapture();
             }
         });
@@ -113,23 +264,60 @@ public class MainActivity extends Activity {
             }
         });
 
+        mButtonSaveReplay = (Button) findViewById(R.id.btn_save_replay);
+        mButtonSaveReplay.setEnabled(false);
+        mButtonSaveReplay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                saveReplay();
+            }
+        });
+
+        mButtonResize = (Button) findViewById(R.id.btn_resize);
+        mButtonResize.setEnabled(false);
+        mButtonResize.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                resizeVirtualDisplays();
+            }
+        });
+
+        mPlayback = new PlaybackEngine(new PlaybackEngine.Listener() {
+            @Override
+            public void onPrepared(int durationMs) {
+                mSeekBar.setMax(durationMs);
+                mSeekBar.setEnabled(true);
+                updateSeekBar();
+            }
+
+            @Override
+            public void onCompletion() {
+                onPlaybackStopped();
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.e(TAG, message);
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                onPlaybackStopped();
+            }
+        });
+
         mButtonPlayVideo = (Button) findViewById(R.id.btn_play);
         mButtonPlayVideo.setEnabled(false);
         mButtonPlayVideo.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (mMediaPlayer == null) {
-                    Uri uri = Uri.parse(FILENAME);
-                    mMediaPlayer = MediaPlayer.create(MainActivity.this, uri, mSurfaceView.getHolder());
-                } else {
-                    try {
-                        mMediaPlayer.prepare();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                // The player is prepared asynchronously and starts when it's ready.
+                if (!mPlayback.isOpen()) {
+                    RecordingCatalog.Entry latest = mCatalog.getLatest();
+                    if (latest == null) {
+                        Toast.makeText(MainActivity.this, "No recording", Toast.LENGTH_SHORT).show();
                         return;
                     }
+                    mPlayback.open(latest.getPath(), mSurfaceView.getHolder());
                 }
-                mMediaPlayer.start();
+                mPlayback.start();
                 mButtonCreate.setEnabled(false);
                 mButtonDestroy.setEnabled(false);
                 mButtonPlayVideo.setEnabled(false);
@@ -142,11 +330,31 @@ public class MainActivity extends Activity {
         mButtonStopVideo.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mMediaPlayer.stop();
-                mButtonCreate.setEnabled(true);
-                mButtonDestroy.setEnabled(false);
-                mButtonPlayVideo.setEnabled(true);
-                mButtonStopVideo.setEnabled(false);
+                mPlayback.stop();
+                onPlaybackStopped();
+            }
+        });
+
+        mSeekBar = (SeekBar) findViewById(R.id.seek_bar);
+        mSeekBar.setEnabled(false);
+        mSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    mPlayback.seekTo(progress);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                mSeekBar.removeCallbacks(mSeekBarUpdater);
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                // Show the key frame the playback goes on from.
+                seekBar.setProgress(mPlayback.seekTo(seekBar.getProgress()));
+                updateSeekBar();
             }
         });
 
@@ -154,10 +362,12 @@ public class MainActivity extends Activity {
         int permission = ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE);
         if (permission != PackageManager.PERMISSION_GRANTED) {
             Log.w(TAG, "Write permissions is not granted");
-            // Request permissions
-            ActivityCompat.requestPermissions(this,
-                    new String[] {Manifest.permission.WRITE_EXTERNAL_STORAGE},
-                    EXTERNAL_STORAGE_PERMISSION_CODE);
+            // Request permissions, the audio one along with it as it's optional.
+            String[] permissions = AUDIO ?
+                    new String[] {Manifest.permission.WRITE_EXTERNAL_STORAGE,
+                            Manifest.permission.RECORD_AUDIO} :
+                    new String[] {Manifest.permission.WRITE_EXTERNAL_STORAGE};
+            ActivityCompat.requestPermissions(this, permissions, EXTERNAL_STORAGE_PERMISSION_CODE);
         } else {
             Log.i(TAG, "Write permission is granted!");
             mButtonCreate.setEnabled(true);
@@ -172,6 +382,7 @@ public class MainActivity extends Activity {
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                     Log.i(TAG, "Write permission is granted!");
                     mButtonCreate.setEnabled(true);
+                    prewarmSession();
                 } else {
                     Toast.makeText(this, "Write permission is not granted", Toast.LENGTH_LONG).show();
                 }
@@ -190,18 +401,31 @@ public class MainActivity extends Activity {
     protected void onResume() {
         super.onResume();
         Log.d(TAG, "onResume");
+        mResumed = true;
+        int permission = ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE);
+        if (permission == PackageManager.PERMISSION_GRANTED) {
+            prewarmSession();
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         Log.d(TAG, "onPause");
+        mResumed = false;
         destroyVirtualDisplay();
-        if (mMediaPlayer != null) {
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+        // Don't keep an idle encoder while in the background.
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                discardPrewarmedSession();
+                mEncoderPool.trim();
+            }
+        });
+        if (mPlayback.isOpen()) {
+            mPlayback.close();
+            onPlaybackStopped();
             mButtonPlayVideo.setEnabled(false);
-            mButtonStopVideo.setEnabled(false);
         }
     }
 
@@ -215,14 +439,32 @@ public class MainActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "onDestroy");
-        mDisplayManager.unregisterDisplayListener(mDisplayListener);
-        if (mProjection != null) {
-            Log.i(TAG, "Stop media projection");
-            mProjection.unregisterCallback(mProjectionCallback);
-            mProjection.stop();
-            mProjection = null;
+        mMetricsReporter.release();
+        mPlayback.release();
+        final MediaProjection projection = mProjection;
+        mProjection = null;
+        if (projection != null) {
+            projection.unregisterCallback(mProjectionCallback);
         }
-        mMediaRecorder.release();
+        // Release the sessions after the pending control tasks, then let the threads finish.
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                discardPrewarmedSession();
+                mSessionManager.release();
+                // The recordings of the stopped sessions are processed before the threads end.
+                processRecordings();
+                mRecordingProcessor.shutdown();
+                releaseAudio();
+                mEncoderPool.release();
+                mCatalog.close();
+                if (projection != null) {
+                    Log.i(TAG, "Stop media projection");
+                    projection.stop();
+                }
+            }
+        });
+        mThreads.quit();
     }
 
     private void startScreenCapture() {
@@ -269,121 +511,731 @@ public class MainActivity extends Activity {
         mProjectionCallback = new MediaProjection.Callback() {
             @Override
             public void onStop() {
+                // Called on the projection thread.
                 Log.d(TAG, "MediaProjection.Callback onStop obj:" + toString());
-                destroyVirtualDisplay();
                 mProjection = null;
+                destroyVirtualDisplay();
             }
         };
-        projection.registerCallback(mProjectionCallback, null);
+        projection.registerCallback(mProjectionCallback, mThreads.getProjectionHandler());
         return projection;
     }
 
     private void createVirtualDisplay() {
-        if (mProjection != null && mVirtualDisplay == null) {
-            Log.d(TAG, "createVirtualDisplay WxH (px): " + mWidth + "x" + mHeight +
-                    ", dpi: " + mMetrics.densityDpi);
-            if (!prepareMediaRecorder(mWidth, mHeight, FRAMERATE, FILENAME)) {
-                Toast.makeText(this, "Can't prepare MediaRecorder", Toast.LENGTH_LONG).show();
-                return;
+        if (mProjection == null) {
+            return;
+        }
+        // Release the player before recording new data into the same file.
+        mPlayback.close();
+        mButtonCreate.setEnabled(false);
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean created = createSession();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!created) {
+                            Toast.makeText(MainActivity.this, "Can't prepare encoder", Toast.LENGTH_LONG).show();
+                        }
+                        updateButtons();
+                    }
+                });
             }
-            int flags = DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
-            //flags |= DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC;
-            mVirtualDisplay = mProjection.createVirtualDisplay("MyVirtualDisplay",
-                    mWidth, mHeight, mMetrics.densityDpi, flags, mMediaRecorder.getSurface(),
-                    null /*Callbacks*/, null /*Handler*/);
-            mButtonCreate.setEnabled(false);
-            mButtonDestroy.setEnabled(true);
-            mButtonPlayVideo.setEnabled(false);
-            // Release the previous instance of media player before recording new data into the same file.
-            if (mMediaPlayer != null) {
-                mMediaPlayer.release();
-                mMediaPlayer = null;
+        });
+    }
+
+    /**
+     * Creates and starts a session, called on the control thread.
+     */
+    private boolean createSession() {
+        MediaProjection projection = mProjection;
+        int index = mSessionManager.getSessionCount();
+        if (projection == null || index >= MAX_SESSIONS) {
+            return true;
+        }
+        String filename;
+        CaptureSession session;
+        Handler encoderHandler;
+        if (mPrewarmed != null && mPrewarmedIndex == index &&
+                new File(mPrewarmedPath + PREWARM_SUFFIX).renameTo(new File(mPrewarmedPath))) {
+            // The muxer keeps writing into the renamed file.
+            filename = mPrewarmedPath;
+            session = mPrewarmed;
+            encoderHandler = mPrewarmedHandler;
+            mPrewarmed = null;
+            mPrewarmedHandler = null;
+            mPrewarmedPath = null;
+        } else {
+            discardPrewarmedSession();
+            filename = beginRecording();
+            if (filename == null) {
+                return false;
+            }
+            encoderHandler = mSessionManager.acquireEncoderHandler();
+            session = createSession(index, mWidth, mHeight, FRAMERATE, filename, encoderHandler);
+            if (session == null) {
+                mSessionManager.releaseEncoderHandler(encoderHandler);
+                mCatalog.abort(filename);
+                return false;
+            }
+        }
+        session.getMetrics().markStartRequested(mCreateRequestNs);
+        startAudio();
+        try {
+            mSessionManager.startSession(session, encoderHandler, projection, mMetrics.densityDpi);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(TAG, "Prepare encoder is failed");
+            // The session is stopped and its encoder handler released already.
+            mCatalog.abort(filename);
+            if (mSessionManager.getSessionCount() == 0) {
+                releaseAudio();
             }
-            // Start recording the content of MediaRecorder surface rendering by VirtualDisplay
-            // into file.
-            mMediaRecorder.start();
+            return false;
         }
+        addRecording(filename);
+        prewarmSession();
+        return true;
+    }
+
+    /**
+     * Prepares the session for the next index on the control thread, unless it's
+     * prepared already.
+     */
+    private void prewarmSession() {
+        if (!PREWARM) {
+            return;
+        }
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                int index = mSessionManager.getSessionCount();
+                if (!mResumed || (mPrewarmed != null && mPrewarmedIndex == index)) {
+                    return;
+                }
+                discardPrewarmedSession();
+                if (index >= MAX_SESSIONS) {
+                    return;
+                }
+                long start = System.nanoTime();
+                // Record into a partial file until the session is started, so that it's
+                // deleted with the catalog entry if the session is never started.
+                String path = beginRecording();
+                if (path == null) {
+                    return;
+                }
+                String filename = path + PREWARM_SUFFIX;
+                Handler encoderHandler = mSessionManager.acquireEncoderHandler();
+                CaptureSession session = createSession(index, mWidth, mHeight, FRAMERATE, filename,
+                        encoderHandler);
+                if (session == null) {
+                    mSessionManager.releaseEncoderHandler(encoderHandler);
+                    mCatalog.abort(path);
+                    return;
+                }
+                try {
+                    session.prepare();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    Log.e(TAG, "Prewarm encoder is failed");
+                    session.stop();
+                    mSessionManager.releaseEncoderHandler(encoderHandler);
+                    mCatalog.abort(path);
+                    return;
+                }
+                mPrewarmed = session;
+                mPrewarmedHandler = encoderHandler;
+                mPrewarmedIndex = index;
+                mPrewarmedPath = path;
+                Log.i(TAG, "Prewarmed " + session.getName() + " in " +
+                        (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        });
+    }
+
+    /**
+     * Releases the prepared session, called on the control thread.
+     */
+    private void discardPrewarmedSession() {
+        if (mPrewarmed == null) {
+            return;
+        }
+        mPrewarmed.stop();
+        mSessionManager.releaseEncoderHandler(mPrewarmedHandler);
+        mCatalog.abort(mPrewarmedPath);
+        mPrewarmed = null;
+        mPrewarmedHandler = null;
+        mPrewarmedPath = null;
     }
 
     private void destroyVirtualDisplay() {
         Log.d(TAG, "destroyVirtualDisplay");
-        if (mVirtualDisplay != null) {
-            Log.d(TAG, "destroyVirtualDisplay release");
-            mVirtualDisplay.release();
-            mVirtualDisplay = null;
-            mMediaRecorder.stop();
+        // Stopping a session waits for the encoder to drain, so do it off the UI thread.
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                mSessionManager.stopAll();
+                releaseAudio();
+                processRecordings();
+                prewarmSession();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateButtons();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Remembers a file the sessions record into for the post-processing, called on the
+     * control thread.
+     */
+    private void addRecording(String filename) {
+        // Only a single file of a container can be processed.
+        if (POST_PROCESSING && !REPLAY_ONLY && !SEGMENTED_OUTPUT && !RAW_OUTPUT) {
+            mRecordings.add(filename);
         }
-        mButtonDestroy.setEnabled(false);
+    }
+
+    /**
+     * Post-processes the files of the stopped sessions in the background, called on the
+     * control thread.
+     */
+    private void processRecordings() {
+        for (String filename : mRecordings) {
+            mRecordingProcessor.process(filename, new RecordingProcessor.Callback() {
+                @Override
+                public void onProcessed(RecordingInfo info) {
+                    Log.i(TAG, "Recording " + info);
+                }
+
+                @Override
+                public void onFailed(String path, String message) {
+                    Log.w(TAG, "Can't process " + path + ": " + message);
+                }
+            });
+        }
+        mRecordings.clear();
+    }
+
+    /**
+     * Toggles the encoders of the running sessions between the full and the half size of
+     * the display. The presentations keep running, the recording goes on in new files.
+     */
+    private void resizeVirtualDisplays() {
+        mButtonResize.setEnabled(false);
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                mHalfSize = !mHalfSize;
+                boolean resized = true;
+                List<CaptureSession> sessions = mSessionManager.getSessions();
+                for (int i = 0; i < sessions.size(); i++) {
+                    resized &= reconfigureSession(sessions.get(i), i, getQualityLevel(sessions.get(i)));
+                }
+                final boolean failed = !resized;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failed) {
+                            Toast.makeText(MainActivity.this, "Can't resize encoder", Toast.LENGTH_LONG).show();
+                        }
+                        updateButtons();
+                    }
+                });
+            }
+        });
+    }
+
+    private final Runnable mSeekBarUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updateSeekBar();
+        }
+    };
+
+    private void updateSeekBar() {
+        mSeekBar.removeCallbacks(mSeekBarUpdater);
+        mSeekBar.setProgress(mPlayback.getCurrentPosition());
+        if (mPlayback.isOpen()) {
+            mSeekBar.postDelayed(mSeekBarUpdater, SEEK_BAR_UPDATE_MS);
+        }
+    }
+
+    private void onPlaybackStopped() {
+        mSeekBar.removeCallbacks(mSeekBarUpdater);
+        mSeekBar.setEnabled(false);
         mButtonCreate.setEnabled(true);
+        mButtonDestroy.setEnabled(false);
         mButtonPlayVideo.setEnabled(true);
+        mButtonStopVideo.setEnabled(false);
     }
 
-    private boolean prepareMediaRecorder(int width, int height, int framerate, String filename) {
-        Size sz = new Size(width, height);
-        boolean supported = RecorderHelper.isSupportedByAVCEncoder(sz, framerate);
-        if (!supported) {
-            Log.e(TAG, "The combination of video size and framerate is not supported by MediaCodec");
-            return false;
+    private void updateButtons() {
+        int sessions = mSessionManager.getSessionCount();
+        mButtonCreate.setEnabled(sessions < MAX_SESSIONS);
+        mButtonDestroy.setEnabled(sessions > 0);
+        mButtonSaveReplay.setEnabled((REPLAY_BUFFER || REPLAY_ONLY) && sessions > 0);
+        mButtonResize.setEnabled(sessions > 0);
+        mButtonPlayVideo.setEnabled(sessions == 0);
+    }
+
+    /**
+     * The first session records into the given file, the next ones add their index to the name.
+     */
+    private static String getOutputPath(String filename, int index) {
+        if (index == 0) {
+            return filename;
+        }
+        int dot = filename.lastIndexOf('.');
+        return filename.substring(0, dot) + "_" + index + filename.substring(dot);
+    }
+
+    private CaptureSession createSession(int index, int width, int height, int framerate,
+                                         String filename, Handler encoderHandler) {
+        String name = "MyVirtualDisplay-" + index;
+        EncoderConfig config = getEncoderConfig(width, height, framerate);
+        if (config == null) {
+            return null;
+        }
+        SessionMetrics metrics = new SessionMetrics();
+        SampleRingBuffer replayBuffer = createReplayBuffer(config);
+        MediaCodecEncoder codec = new MediaCodecEncoder(mEncoderPool);
+        BitrateController bitrateController = createBitrateController(codec, config);
+        StreamServer streamServer = null;
+        if (STREAMING) {
+            streamServer = new StreamServer(new InetSocketAddress(STREAM_PORT + index),
+                    STREAM_MAX_QUEUED_FRAMES);
+            try {
+                streamServer.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Start stream server failed: " + e.getMessage());
+                streamServer = null;
+            }
+        }
+        EncoderPipeline pipeline = createPipeline(codec, config, filename, encoderHandler,
+                replayBuffer, bitrateController, streamServer, metrics);
+        if (pipeline == null) {
+            if (streamServer != null) {
+                streamServer.close();
+            }
+            return null;
+        }
+        CaptureSession session = new CaptureSession(name, pipeline, metrics);
+        session.setReplayBuffer(replayBuffer);
+        session.setBitrateController(bitrateController);
+        session.setStreamServer(streamServer);
+        if (VARIABLE_FRAME_RATE) {
+            session.setFrameGate(new FrameGate(KEEP_ALIVE_FRAMERATE));
         }
+        return session;
+    }
 
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mMediaRecorder.setVideoEncodingBitRate(RecorderHelper.getVideoBitRate(sz));
-        mMediaRecorder.setVideoFrameRate(framerate);
-        mMediaRecorder.setVideoSize(sz.getWidth(), sz.getHeight());
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setOutputFile(filename);
+    /**
+     * Switches a running session to an encoder of the display size and the quality level,
+     * called on the control thread. The encoder is configured for the size, the bit rate
+     * and the frame rate of the level are applied to it once it runs.
+     */
+    private boolean reconfigureSession(CaptureSession session, int index,
+                                       QualityGovernor.Level level) {
+        int width = (int) ((mHalfSize ? mWidth / 2 : mWidth) * level.getSizeScale());
+        int height = (int) ((mHalfSize ? mHeight / 2 : mHeight) * level.getSizeScale());
+        Handler encoderHandler = mSessionManager.getEncoderHandler(session.getDisplayId());
+        EncoderConfig config = getEncoderConfig(width, height, FRAMERATE);
+        if (encoderHandler == null || config == null) {
+            return false;
+        }
+        // The recording goes on in a new file.
+        String filename = beginRecording();
+        if (filename == null) {
+            return false;
+        }
+        SampleRingBuffer replayBuffer = createReplayBuffer(config);
+        MediaCodecEncoder codec = new MediaCodecEncoder(mEncoderPool);
+        BitrateController bitrateController = createBitrateController(codec, config);
+        EncoderPipeline pipeline = createPipeline(codec, config, filename, encoderHandler,
+                replayBuffer, bitrateController, session.getStreamServer(), session.getMetrics());
+        if (pipeline == null) {
+            mCatalog.abort(filename);
+            return false;
+        }
         try {
-            mMediaRecorder.prepare();
+            session.reconfigure(pipeline);
         } catch (IOException e) {
             e.printStackTrace();
-            Log.e(TAG, "Prepare MediaRecorder is failed");
+            Log.e(TAG, "Reconfigure encoder is failed");
+            mCatalog.abort(filename);
             return false;
         }
-
+        session.setReplayBuffer(replayBuffer);
+        session.setBitrateController(bitrateController);
+        addRecording(filename);
+        if (!applyQualityLevel(session, level)) {
+            Log.w(TAG, session.getName() + " runs at the full quality of its size");
+        }
         return true;
     }
 
-    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+    /**
+     * Applies the bit rate and the frame rate of the level to the running encoder of the
+     * session without reconfiguring it, called on the control thread.
+     */
+    private boolean applyQualityLevel(CaptureSession session, QualityGovernor.Level level) {
+        EncoderPipeline pipeline = session.getPipeline();
+        BitrateController bitrateController = session.getBitrateController();
+        if (bitrateController == null) {
+            return false;
+        }
+        try {
+            // Capping the frame rate takes a relay unless the session has a frame gate.
+            if (session.getFrameGate() != null ||
+                    level.getFrameRate() < pipeline.getConfig().getFrameRate()) {
+                session.setMaxFrameRate(level.getFrameRate());
+            }
+            bitrateController.setMaxBitRateScale(level.getBitRateScale());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Can't apply " + level + " to " + session.getName() + ": " +
+                    e.getMessage());
+            return false;
+        }
+        return true;
+    }
 
-        private boolean mNewDisplayAdded = false;
-        private int mCurrentDisplayId = -1;
-        private DemoPresentation mPresentation;
+    private QualityGovernor.Level getQualityLevel(CaptureSession session) {
+        mQualityLevels.keySet().retainAll(mSessionManager.getSessions());
+        QualityGovernor.Level level = mQualityLevels.get(session);
+        return level != null ? level : QUALITY_LADDER[0];
+    }
 
-        @Override
-        public void onDisplayAdded(int i) {
-            Log.d(TAG, "onDisplayAdded id=" + i);
-            if (!mNewDisplayAdded && mCurrentDisplayId == -1) {
-                mNewDisplayAdded = true;
-                mCurrentDisplayId = i;
+    /**
+     * Feeds the governor of the session with the metrics of a period and applies the level
+     * it steps to, called on the metrics thread.
+     */
+    private void governSession(final CaptureSession session, MetricsSnapshot snapshot,
+                               MetricsSnapshot previous) {
+        mGovernors.keySet().retainAll(mSessionManager.getSessions());
+        QualityGovernor governor = mGovernors.get(session);
+        if (governor == null) {
+            governor = new QualityGovernor(QUALITY_LADDER);
+            mGovernors.put(session, governor);
+        }
+        mDeviceSignals.update();
+        long encoded = snapshot.getFramesEncoded() - previous.getFramesEncoded();
+        long dropped = snapshot.getFramesDropped() - previous.getFramesDropped();
+        float dropRatio = encoded + dropped > 0 ? dropped / (float) (encoded + dropped) : 0;
+        long latencyUs = snapshot.getEncodeLatency().since(previous.getEncodeLatency())
+                .getPercentileUs(95);
+        QualityGovernor.Signals signals = new QualityGovernor.Signals(latencyUs, dropRatio,
+                mDeviceSignals.getTemperatureC(), mDeviceSignals.getBatteryPercent(),
+                mDeviceSignals.isCharging());
+        QualityGovernor.Decision decision = governor.update(signals);
+        if (decision == QualityGovernor.Decision.HOLD) {
+            return;
+        }
+        final QualityGovernor stepped = governor;
+        final int levelIndex = governor.getLevelIndex();
+        final QualityGovernor.Level level = governor.getLevel();
+        Log.i(TAG, session.getName() + " " + decision + " to " + level + " (" + signals + ")");
+        mThreads.getControlHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                int index = mSessionManager.getSessions().indexOf(session);
+                if (index < 0) {
+                    return;
+                }
+                // Only a new size takes another encoder, the rest is changed on the fly.
+                boolean applied;
+                if (level.getSizeScale() != getQualityLevel(session).getSizeScale()) {
+                    applied = reconfigureSession(session, index, level);
+                } else {
+                    applied = applyQualityLevel(session, level);
+                }
+                if (applied) {
+                    mQualityLevels.put(session, level);
+                } else {
+                    Log.w(TAG, session.getName() + " stays at " + getQualityLevel(session));
+                    stepped.revertStep(levelIndex);
+                }
             }
+        });
+    }
+
+    /**
+     * Chooses the codec of the recordings by the ranking of the encoders for the size of
+     * the virtual display, called on the control thread.
+     */
+    private void selectOutputType() {
+        // The stream server and the raw output take an Annex-B stream.
+        List<String> mimeTypes = RecorderHelper.getOutputMimeTypes(RAW_OUTPUT || STREAMING);
+        EncoderConfig config = RecorderHelper.getBestConfig(new Size(mWidth, mHeight), FRAMERATE,
+                IFRAME_INTERVAL, mimeTypes);
+        String mimeType = config != null ? config.getMimeType() : EncoderConfig.MIME_AVC;
+        mOutputMimeType = mimeType;
+        mRecordingExtension = RecorderHelper.getFileExtension(mimeType, RAW_OUTPUT);
+        mReplayFilename = OUTPUT_DIR + "/" + REPLAY_NAME + "." +
+                RecorderHelper.getFileExtension(mimeType, false);
+        Log.i(TAG, "Recording with " + mimeType + " into " + RECORDINGS_DIR);
+    }
+
+    /**
+     * Loads the catalog of the recordings, called on the control thread.
+     */
+    private void openCatalog() {
+        try {
+            mCatalog.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open the recording catalog: " + e.getMessage());
         }
+    }
 
-        @Override
-        public void onDisplayRemoved(int i) {
-            Log.d(TAG, "onDisplayRemoved id=" + i);
-            if (mCurrentDisplayId == i) {
-                mNewDisplayAdded = false;
-                mCurrentDisplayId = -1;
-                if (mPresentation != null) {
-                    mPresentation.dismiss();
-                    mPresentation = null;
+    /**
+     * Returns the unique path of a new recording, from the catalog if it's catalogued,
+     * or null.
+     */
+    private String beginRecording() {
+        if (!CATALOGUED_OUTPUT) {
+            return String.format(Locale.US, "%s/%s_%d_%d.%s", RECORDINGS_DIR, RECORDING_NAME,
+                    System.currentTimeMillis(), mUncataloguedRecordings++, mRecordingExtension);
+        }
+        try {
+            return mCatalog.begin(mRecordingExtension);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't add a recording to the catalog: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds the finished recordings of the MIME type to the catalog and applies the
+     * retention, called on the output threads.
+     */
+    private IndexingSink.Listener createCatalogListener(final String mimeType) {
+        return new IndexingSink.Listener() {
+            @Override
+            public void onRecordingFinished(String recordingPath, KeyFrameIndex index) {
+                if (index == null) {
+                    mCatalog.abort(recordingPath);
+                    return;
+                }
+                try {
+                    Log.i(TAG, "Recorded " + mCatalog.commit(recordingPath, mimeType, index));
+                    for (RecordingCatalog.Entry evicted : mCatalog.evict(RETENTION_MAX_AGE_MS,
+                            RETENTION_MAX_BYTES, System.currentTimeMillis())) {
+                        mRecordingProcessor.purge(evicted.getPath());
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't catalog " + recordingPath + ": " + e.getMessage());
                 }
             }
+        };
+    }
+
+    private EncoderConfig getEncoderConfig(int width, int height, int framerate) {
+        // Keep the codec of the recordings, AVC fits the same container as HEVC.
+        List<String> mimeTypes = new ArrayList<String>();
+        mimeTypes.add(mOutputMimeType);
+        if (EncoderConfig.MIME_HEVC.equals(mOutputMimeType)) {
+            mimeTypes.add(EncoderConfig.MIME_AVC);
+        }
+        // Take the best configuration the encoder allows instead of failing if the
+        // requested one isn't supported.
+        EncoderConfig config = RecorderHelper.getBestConfig(new Size(width, height), framerate,
+                IFRAME_INTERVAL, mimeTypes);
+        if (config == null) {
+            Log.e(TAG, "The video size can't be encoded by MediaCodec at any framerate");
         }
+        return config;
+    }
 
-        @Override
-        public void onDisplayChanged(int i) {
-            Log.d(TAG, "onDisplayChanged id=" + i);
-            if (mCurrentDisplayId == i) {
-                if (mNewDisplayAdded) {
-                    // create a presentation
-                    mNewDisplayAdded = false;
-                    Display display = mDisplayManager.getDisplay(i);
-                    mPresentation = new DemoPresentation(MainActivity.this, display);
-                    mPresentation.show();
+    /**
+     * Returns the encoder of the audio the recordings are muxed with, called on the control
+     * thread. It's created with the microphone if the permission is granted by then.
+     */
+    private AudioEncoder getAudioEncoder() {
+        if (mAudioEncoder == null) {
+            AudioSource source;
+            if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) ==
+                    PackageManager.PERMISSION_GRANTED) {
+                source = new MicrophoneSource(AUDIO_SAMPLE_RATE, AUDIO_CHANNELS);
+            } else {
+                Log.w(TAG, "Record audio permission is not granted, recording silence");
+                source = new ToneSource(AUDIO_SAMPLE_RATE, AUDIO_CHANNELS, 0);
+            }
+            mAudioEncoder = new AudioEncoder(source, AUDIO_BIT_RATE, AUDIO_MAX_DRIFT_US);
+        }
+        return mAudioEncoder;
+    }
+
+    /**
+     * Starts capturing the audio if it isn't yet, called on the control thread. The video
+     * is recorded alone if it can't be started.
+     */
+    private void startAudio() {
+        if (!AUDIO) {
+            return;
+        }
+        try {
+            getAudioEncoder().start();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't start audio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops capturing the audio after the sessions are stopped, called on the control thread.
+     * The next session picks the source again, e.g. once the permission is granted.
+     */
+    private void releaseAudio() {
+        if (mAudioEncoder != null) {
+            mAudioEncoder.release();
+            mAudioEncoder = null;
+        }
+    }
+
+    /**
+     * Returns the replay buffer of a pipeline, or null if the replay is disabled. Its memory
+     * is taken once the session is started.
+     */
+    private static SampleRingBuffer createReplayBuffer(EncoderConfig config) {
+        if (!REPLAY_BUFFER && !REPLAY_ONLY) {
+            return null;
+        }
+        return SampleRingBuffer.forBitRate(REPLAY_WINDOW_SECONDS, config.getBitRate(),
+                REPLAY_SLOT_CAPACITY, REPLAY_MAX_BYTES);
+    }
+
+    /**
+     * Returns the controller of the bit rate of the codec. The presentation is mostly static,
+     * the bit rate may go down to a quarter of the configured one.
+     */
+    private static BitrateController createBitrateController(EncoderCodec codec,
+                                                             EncoderConfig config) {
+        return new BitrateController(codec, config.getBitRate(),
+                Math.max(EncodeConfigSolver.MIN_BIT_RATE, config.getBitRate() / 4),
+                config.getBitRate(), config.getFrameRate());
+    }
+
+    private EncoderPipeline createPipeline(EncoderCodec codec, EncoderConfig config,
+                                           String filename, Handler encoderHandler,
+                                           SampleRingBuffer replayBuffer,
+                                           BitrateController bitrateController,
+                                           StreamServer streamServer, SessionMetrics metrics) {
+        EncoderPipeline pipeline = new EncoderPipeline(codec, config, encoderHandler);
+        LatencyHistogram muxerLatency = metrics.getMuxerLatency();
+        pipeline.addSink(bitrateController);
+        if (replayBuffer != null) {
+            pipeline.addSink(replayBuffer);
+        }
+        if (streamServer != null) {
+            pipeline.addSink(new StreamingSink(streamServer));
+        }
+        String mimeType = config.getMimeType();
+        SampleSink output = null;
+        try {
+            if (SEGMENTED_OUTPUT) {
+                String basePath = filename.substring(0, filename.lastIndexOf('.')) + "_" +
+                        System.currentTimeMillis();
+                output = new SegmentedMuxerSink(TimedMuxer.wrap(
+                        new MediaMuxerFactory(RecorderHelper.getMuxerOutputFormat(mimeType)),
+                        muxerLatency), basePath, RecorderHelper.getFileExtension(mimeType, false),
+                        SEGMENT_DURATION_SECONDS * 1000000L, SEGMENT_MAX_BYTES);
+            } else if (!REPLAY_ONLY) {
+                if (RAW_OUTPUT) {
+                    StorageWriter writer = new StorageWriter(new File(filename),
+                            STORAGE_BLOCK_SIZE, STORAGE_EXTENT_BYTES, STORAGE_SYNC_INTERVAL_MS,
+                            muxerLatency);
+                    metrics.setStorageWriter(writer);
+                    output = new ElementaryStreamSink(writer);
+                } else {
+                    int outputFormat = RecorderHelper.getMuxerOutputFormat(mimeType);
+                    SampleMuxer muxer = new TimedMuxer(new MediaMuxerAdapter(filename,
+                            outputFormat), muxerLatency);
+                    // WebM takes Vorbis or Opus only, the VP9 recordings stay silent.
+                    if (AUDIO && outputFormat == MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4) {
+                        output = new AvMuxerSink(muxer, getAudioEncoder(), AUDIO_INTERLEAVE_US,
+                                getOutputQueueFrames(config), getOutputSlotSize(config));
+                    } else {
+                        output = new MuxerSink(muxer);
+                    }
+                    // A prewarmed recording gets its final name when it starts.
+                    String recordingPath = filename.endsWith(PREWARM_SUFFIX) ?
+                            filename.substring(0, filename.length() - PREWARM_SUFFIX.length()) :
+                            filename;
+                    output = new IndexingSink(output, recordingPath,
+                            createCatalogListener(mimeType));
                 }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(TAG, "Create muxer is failed");
+            pipeline.release();
+            return null;
         }
-    };
+        if (output != null && QUEUED_OUTPUT) {
+            // Drop the frames up to the next key frame rather than stall the encoder if
+            // the storage can't keep up, the bit rate goes down meanwhile.
+            FrameQueue queue = new FrameQueue(getOutputQueueFrames(config),
+                    getOutputSlotSize(config), FrameQueue.Policy.DROP_UNTIL_KEYFRAME);
+            QueuedSink queuedSink = new QueuedSink("OutputThread", output, queue);
+            queuedSink.setMetrics(metrics);
+            bitrateController.setBacklog(queue);
+            output = queuedSink;
+        }
+        if (output != null) {
+            pipeline.addSink(output);
+        }
+        return pipeline;
+    }
+
+    private static int getOutputQueueFrames(EncoderConfig config) {
+        return config.getFrameRate() * OUTPUT_QUEUE_SECONDS;
+    }
+
+    private static int getOutputSlotSize(EncoderConfig config) {
+        return OUTPUT_SLOT_FRAMES * config.getBitRate() / 8 / config.getFrameRate();
+    }
+
+    private void saveReplay() {
+        final List<CaptureSession> sessions = mSessionManager.getSessions();
+        if (sessions.isEmpty()) {
+            return;
+        }
+        mButtonSaveReplay.setEnabled(false);
+        // Write the files on a separate thread while the encoders keep filling the buffers.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int samples = 0;
+                String message = null;
+                for (int i = 0; i < sessions.size(); i++) {
+                    SampleRingBuffer replayBuffer = sessions.get(i).getReplayBuffer();
+                    if (replayBuffer == null) {
+                        continue;
+                    }
+                    try {
+                        samples += replayBuffer.flush(new MediaMuxerAdapter(
+                                getOutputPath(mReplayFilename, i),
+                                RecorderHelper.getMuxerOutputFormat(mOutputMimeType)));
+                    } catch (IOException e) {
+                        Log.e(TAG, "Save replay is failed", e);
+                        message = "Can't save replay";
+                    }
+                }
+                if (message == null) {
+                    message = "Saved " + samples + " samples into " + mReplayFilename;
+                }
+                final String text = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, text, Toast.LENGTH_SHORT).show();
+                        mButtonSaveReplay.setEnabled(mSessionManager.getSessionCount() > 0);
+                    }
+                });
+            }
+        }, "ReplayFlush").start();
+    }
 }
@@ -0,0 +1,214 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+public class MediaCodecEncoder implements EncoderCodec {
+
+    private static final String TAG = "MediaCodecEncoder";
+
+    private final EncoderPool mPool;
+    private MediaCodec mCodec;
+    private Looper mCallbackLooper;
+    private Callback mCallback;
+    private Handler mHandler;
+    private final SampleInfo mSampleInfo = new SampleInfo();
+
+    public MediaCodecEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param pool the pool the codec is taken from and given back to on release, or null
+     */
+    public MediaCodecEncoder(EncoderPool pool) {
+        mPool = pool;
+    }
+
+    @Override
+    public void setCallback(Callback callback, Handler handler) {
+        mCallback = callback;
+        mHandler = handler;
+    }
+
+    @Override
+    public void configure(EncoderConfig config) throws IOException {
+        if (mCodec == null) {
+            String name = config.getEncoderName();
+            mCallbackLooper = getCallbackLooper();
+            if (mPool != null && name != null) {
+                mCodec = mPool.obtain(name, mCallbackLooper);
+            }
+            if (mCodec == null) {
+                mCodec = createCodec(name, config.getMimeType());
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mCodec.setCallback(mCodecCallback, mHandler);
+        } else {
+            // Before M callbacks are delivered on the looper of the thread created the codec.
+            mCodec.setCallback(mCodecCallback);
+        }
+        mCodec.configure(createFormat(config), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @Override
+    public Surface createInputSurface() {
+        return mCodec.createInputSurface();
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public void setVideoBitRate(int bitRate) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        mCodec.setParameters(params);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Stop failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mCodec != null) {
+            if (mPool != null) {
+                mPool.recycle(mCodec, mCallbackLooper);
+            } else {
+                mCodec.release();
+            }
+            mCodec = null;
+        }
+    }
+
+    static MediaFormat createFormat(EncoderConfig config) {
+        MediaFormat format = MediaFormat.createVideoFormat(config.getMimeType(),
+                config.getWidth(), config.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.getBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.getIFrameInterval());
+        // The virtual display renders at the rate of the content, the input surface drops
+        // the frames over the configured rate (MediaFormat.KEY_MAX_FPS_TO_ENCODER of Q).
+        format.setFloat("max-fps-to-encoder", config.getFrameRate());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // 0 means realtime priority.
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+        }
+        return format;
+    }
+
+    /**
+     * Returns the looper the callbacks of a codec created by this encoder go to, or null
+     * if they go to the looper of the handler.
+     */
+    private Looper getCallbackLooper() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return null;
+        }
+        if (mHandler != null) {
+            return mHandler.getLooper();
+        }
+        Looper looper = Looper.myLooper();
+        return looper != null ? looper : Looper.getMainLooper();
+    }
+
+    /**
+     * Creates the named codec, or the preferred encoder of the MIME type if the name is null.
+     */
+    private MediaCodec createCodec(final String name, final String mimeType) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M || mHandler == null
+                || mHandler.getLooper().isCurrentThread()) {
+            return newCodec(name, mimeType);
+        }
+        // Create the codec on the handler thread so that its callbacks go to that looper.
+        final MediaCodec[] codec = new MediaCodec[1];
+        final IOException[] error = new IOException[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    codec[0] = newCodec(name, mimeType);
+                } catch (IOException e) {
+                    error[0] = e;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating codec");
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return codec[0];
+    }
+
+    private static MediaCodec newCodec(String name, String mimeType) throws IOException {
+        if (name != null) {
+            return MediaCodec.createByCodecName(name);
+        }
+        return MediaCodec.createEncoderByType(mimeType);
+    }
+
+    private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // The input comes from the surface.
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            ByteBuffer buffer = codec.getOutputBuffer(index);
+            mSampleInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            mCallback.onOutputBufferAvailable(MediaCodecEncoder.this, index, buffer, mSampleInfo);
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            mCallback.onError(MediaCodecEncoder.this, e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            mCallback.onOutputFormatChanged(MediaCodecEncoder.this, format);
+        }
+    };
+}
@@ -0,0 +1,35 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MediaCodecListSource implements EncoderListSource {
+
+    @Override
+    public List<EncoderDescription> getEncoders() {
+        List<EncoderDescription> encoders = new ArrayList<EncoderDescription>();
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+            if (!codecInfo.isEncoder()) {
+                continue;
+            }
+            for (String type : codecInfo.getSupportedTypes()) {
+                MediaCodecInfo.CodecCapabilities cap = codecInfo.getCapabilitiesForType(type);
+                if (cap == null) {
+                    continue;
+                }
+                int highestLevel = 0;
+                for (MediaCodecInfo.CodecProfileLevel lvl : cap.profileLevels) {
+                    if (lvl.level > highestLevel) {
+                        highestLevel = lvl.level;
+                    }
+                }
+                encoders.add(new EncoderDescription(codecInfo.getName(), type, highestLevel));
+            }
+        }
+        return encoders;
+    }
+}
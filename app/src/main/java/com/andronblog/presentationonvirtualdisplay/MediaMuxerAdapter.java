@@ -0,0 +1,45 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class MediaMuxerAdapter implements SampleMuxer {
+
+    private final MediaMuxer mMuxer;
+    // Reused for every sample to avoid allocations while recording.
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    public MediaMuxerAdapter(String path, int outputFormat) throws IOException {
+        mMuxer = new MediaMuxer(path, outputFormat);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        mBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mMuxer.writeSampleData(trackIndex, buffer, mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,20 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.io.IOException;
+
+public class MediaMuxerFactory implements MuxerFactory {
+
+    private final int mOutputFormat;
+
+    /**
+     * @param outputFormat one of MediaMuxer.OutputFormat values
+     */
+    public MediaMuxerFactory(int outputFormat) {
+        mOutputFormat = outputFormat;
+    }
+
+    @Override
+    public SampleMuxer create(String path) throws IOException {
+        return new MediaMuxerAdapter(path, mOutputFormat);
+    }
+}
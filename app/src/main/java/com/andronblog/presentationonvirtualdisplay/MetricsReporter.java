@@ -0,0 +1,130 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Polls the metrics of the sessions periodically on its own thread and exports them
+ * into the log and, optionally, into a CSV file.
+ */
+public class MetricsReporter {
+
+    private static final String TAG = "MetricsReporter";
+
+    /**
+     * Gets the metrics of every session each period, on the reporter thread.
+     */
+    public interface Listener {
+
+        void onMetrics(CaptureSession session, MetricsSnapshot snapshot, MetricsSnapshot previous);
+    }
+
+    private final SessionManager mSessionManager;
+    private final long mPeriodMs;
+    private final String mCsvPath;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    // Accessed on the reporter thread only.
+    private final Map<String, MetricsSnapshot> mPrevious = new HashMap<String, MetricsSnapshot>();
+    private Writer mCsvWriter;
+    private volatile Listener mListener;
+
+    /**
+     * @param csvPath the file the snapshots are appended to, or null to log them only
+     */
+    public MetricsReporter(SessionManager sessionManager, long periodMs, String csvPath) {
+        mSessionManager = sessionManager;
+        mPeriodMs = periodMs;
+        mCsvPath = csvPath;
+        mThread = new HandlerThread("MetricsThread");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void start() {
+        mHandler.removeCallbacks(mReportRunnable);
+        mHandler.postDelayed(mReportRunnable, mPeriodMs);
+    }
+
+    public void stop() {
+        mHandler.removeCallbacks(mReportRunnable);
+    }
+
+    public void release() {
+        stop();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeCsv();
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    private void report() {
+        List<CaptureSession> sessions = mSessionManager.getSessions();
+        for (CaptureSession session : sessions) {
+            MetricsSnapshot snapshot = session.getMetrics().snapshot();
+            MetricsSnapshot previous = mPrevious.put(session.getName(), snapshot);
+            if (previous == null) {
+                continue;
+            }
+            Log.d(TAG, session.getName() + " " + snapshot.toString(previous));
+            if (mCsvPath != null) {
+                writeCsv(session.getName(), snapshot.toCsv(previous));
+            }
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onMetrics(session, snapshot, previous);
+            }
+        }
+        if (sessions.isEmpty()) {
+            mPrevious.clear();
+        }
+    }
+
+    private void writeCsv(String name, String line) {
+        try {
+            if (mCsvWriter == null) {
+                mCsvWriter = new FileWriter(mCsvPath, true);
+                mCsvWriter.write("session," + MetricsSnapshot.CSV_HEADER + "\n");
+            }
+            mCsvWriter.write(name + "," + line + "\n");
+            mCsvWriter.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write metrics into " + mCsvPath + ": " + e.getMessage());
+            closeCsv();
+        }
+    }
+
+    private void closeCsv() {
+        if (mCsvWriter != null) {
+            try {
+                mCsvWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mCsvWriter = null;
+        }
+    }
+
+    private final Runnable mReportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            mHandler.postDelayed(this, mPeriodMs);
+        }
+    };
+}
@@ -0,0 +1,238 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.util.Locale;
+
+/**
+ * The values of {@link SessionMetrics} at a moment. The rates are computed against a
+ * previous snapshot. The storage values are the totals of the current file, they're
+ * empty if the session doesn't write through a {@link StorageWriter}. The bit rate values
+ * are the ones of the {@link BitrateController} of the current encoder, if any.
+ */
+public class MetricsSnapshot {
+
+    public static final String CSV_HEADER = "time_us,rendered,encoded,key,dropped,bytes," +
+            "fps,bytes_per_s,encode_p50_us,encode_p99_us,mux_p50_us,mux_p99_us," +
+            "storage_bytes,storage_bytes_per_s,storage_max_stall_us,syncs,sync_time_us," +
+            "target_bps,measured_bps,lag_frames,bitrate_adjustments,bitrate_decision";
+
+    /**
+     * The counters of the {@link StorageWriter} of the recording.
+     */
+    public static class Storage {
+
+        private final long mBytes;
+        private final long mThroughput;
+        private final long mMaxStallUs;
+        private final long mSyncs;
+        private final long mSyncTimeUs;
+
+        public Storage(long bytes, long throughput, long maxStallUs, long syncs,
+                       long syncTimeUs) {
+            mBytes = bytes;
+            mThroughput = throughput;
+            mMaxStallUs = maxStallUs;
+            mSyncs = syncs;
+            mSyncTimeUs = syncTimeUs;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /**
+         * Returns the bytes written per second of the block writes.
+         */
+        public long getThroughput() {
+            return mThroughput;
+        }
+
+        public long getMaxStallUs() {
+            return mMaxStallUs;
+        }
+
+        public long getSyncs() {
+            return mSyncs;
+        }
+
+        public long getSyncTimeUs() {
+            return mSyncTimeUs;
+        }
+
+        String toCsv() {
+            return mBytes + "," + mThroughput + "," + mMaxStallUs + "," + mSyncs + "," +
+                    mSyncTimeUs;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes/s: " + mThroughput + ", max stall: " + mMaxStallUs + " us, syncs: " +
+                    mSyncs + " (" + mSyncTimeUs + " us)";
+        }
+    }
+
+    /**
+     * The state of the {@link BitrateController} of the encoder.
+     */
+    public static class Bitrate {
+
+        private final int mTargetBitRate;
+        private final int mMeasuredBitRate;
+        private final int mLagFrames;
+        private final int mAdjustments;
+        private final BitrateController.Decision mLastDecision;
+
+        public Bitrate(int targetBitRate, int measuredBitRate, int lagFrames, int adjustments,
+                       BitrateController.Decision lastDecision) {
+            mTargetBitRate = targetBitRate;
+            mMeasuredBitRate = measuredBitRate;
+            mLagFrames = lagFrames;
+            mAdjustments = adjustments;
+            mLastDecision = lastDecision;
+        }
+
+        public int getTargetBitRate() {
+            return mTargetBitRate;
+        }
+
+        public int getMeasuredBitRate() {
+            return mMeasuredBitRate;
+        }
+
+        public int getLagFrames() {
+            return mLagFrames;
+        }
+
+        public int getAdjustments() {
+            return mAdjustments;
+        }
+
+        public BitrateController.Decision getLastDecision() {
+            return mLastDecision;
+        }
+
+        String toCsv() {
+            return mTargetBitRate + "," + mMeasuredBitRate + "," + mLagFrames + "," +
+                    mAdjustments + "," + mLastDecision;
+        }
+
+        @Override
+        public String toString() {
+            return "target: " + mTargetBitRate + ", measured: " + mMeasuredBitRate + ", lag: " +
+                    mLagFrames + ", adjustments: " + mAdjustments + ", last: " + mLastDecision;
+        }
+    }
+
+    private final long mTimeUs;
+    private final long mFramesRendered;
+    private final long mFramesEncoded;
+    private final long mKeyFrames;
+    private final long mFramesDropped;
+    private final long mBytes;
+    private final LatencyHistogram.Snapshot mEncodeLatency;
+    private final LatencyHistogram.Snapshot mMuxerLatency;
+    private final Storage mStorage;
+    private final Bitrate mBitrate;
+
+    /**
+     * @param storage the storage counters, or null if the session has no storage writer
+     * @param bitrate the bit rate state, or null if the encoder has no bit rate controller
+     */
+    public MetricsSnapshot(long timeUs, long framesRendered, long framesEncoded, long keyFrames,
+                           long framesDropped, long bytes, LatencyHistogram.Snapshot encodeLatency,
+                           LatencyHistogram.Snapshot muxerLatency, Storage storage,
+                           Bitrate bitrate) {
+        mTimeUs = timeUs;
+        mFramesRendered = framesRendered;
+        mFramesEncoded = framesEncoded;
+        mKeyFrames = keyFrames;
+        mFramesDropped = framesDropped;
+        mBytes = bytes;
+        mEncodeLatency = encodeLatency;
+        mMuxerLatency = muxerLatency;
+        mStorage = storage;
+        mBitrate = bitrate;
+    }
+
+    public long getTimeUs() {
+        return mTimeUs;
+    }
+
+    public long getFramesRendered() {
+        return mFramesRendered;
+    }
+
+    public long getFramesEncoded() {
+        return mFramesEncoded;
+    }
+
+    public long getKeyFrames() {
+        return mKeyFrames;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public LatencyHistogram.Snapshot getEncodeLatency() {
+        return mEncodeLatency;
+    }
+
+    public LatencyHistogram.Snapshot getMuxerLatency() {
+        return mMuxerLatency;
+    }
+
+    /**
+     * Returns the storage counters, or null if the session has no storage writer.
+     */
+    public Storage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Returns the bit rate state, or null if the encoder has no bit rate controller.
+     */
+    public Bitrate getBitrate() {
+        return mBitrate;
+    }
+
+    /**
+     * Returns the encoded frames per second since the previous snapshot.
+     */
+    public float getFrameRate(MetricsSnapshot previous) {
+        long elapsedUs = mTimeUs - previous.mTimeUs;
+        return elapsedUs > 0 ? (mFramesEncoded - previous.mFramesEncoded) * 1000000f / elapsedUs : 0;
+    }
+
+    /**
+     * Returns the encoded bytes per second since the previous snapshot.
+     */
+    public long getBytesPerSecond(MetricsSnapshot previous) {
+        long elapsedUs = mTimeUs - previous.mTimeUs;
+        return elapsedUs > 0 ? (mBytes - previous.mBytes) * 1000000 / elapsedUs : 0;
+    }
+
+    public String toCsv(MetricsSnapshot previous) {
+        return String.format(Locale.US, "%d,%d,%d,%d,%d,%d,%.1f,%d,%d,%d,%d,%d,%s,%s", mTimeUs,
+                mFramesRendered, mFramesEncoded, mKeyFrames, mFramesDropped, mBytes,
+                getFrameRate(previous), getBytesPerSecond(previous),
+                mEncodeLatency.getPercentileUs(50), mEncodeLatency.getPercentileUs(99),
+                mMuxerLatency.getPercentileUs(50), mMuxerLatency.getPercentileUs(99),
+                mStorage != null ? mStorage.toCsv() : ",,,,",
+                mBitrate != null ? mBitrate.toCsv() : ",,,,");
+    }
+
+    public String toString(MetricsSnapshot previous) {
+        String s = String.format(Locale.US, "rendered: %d, encoded: %d, dropped: %d, " +
+                        "fps: %.1f, bytes/s: %d, encode: [%s], mux: [%s]", mFramesRendered,
+                mFramesEncoded, mFramesDropped, getFrameRate(previous),
+                getBytesPerSecond(previous), mEncodeLatency, mMuxerLatency);
+        if (mStorage != null) {
+            s += ", storage: [" + mStorage + "]";
+        }
+        return mBitrate != null ? s + ", bitrate: [" + mBitrate + "]" : s;
+    }
+}
@@ -0,0 +1,95 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the microphone by AudioRecord. The data is read straight into the buffer of
+ * the caller, e.g. an input buffer of the codec, so reading doesn't copy or allocate.
+ */
+public class MicrophoneSource implements AudioSource {
+
+    private static final String TAG = "MicrophoneSource";
+
+    // The record buffer holds a few reads, so that a late read doesn't overrun it.
+    private static final int BUFFER_READS = 4;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private AudioRecord mRecord;
+
+    public MicrophoneSource(int sampleRate, int channelCount) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (mRecord == null) {
+            int channelMask = mChannelCount == 1 ?
+                    AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+            int minSize = AudioRecord.getMinBufferSize(mSampleRate, channelMask,
+                    AudioFormat.ENCODING_PCM_16BIT);
+            if (minSize <= 0) {
+                throw new IOException("Unsupported audio format " + mSampleRate + "Hz " +
+                        mChannelCount + "ch");
+            }
+            // The camcorder source is tuned for recording along with the video.
+            mRecord = new AudioRecord(MediaRecorder.AudioSource.CAMCORDER, mSampleRate,
+                    channelMask, AudioFormat.ENCODING_PCM_16BIT, minSize * BUFFER_READS);
+            if (mRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                mRecord.release();
+                mRecord = null;
+                throw new IOException("Can't initialize audio record");
+            }
+        }
+        mRecord.startRecording();
+        if (mRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            throw new IOException("Can't start audio record");
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        int frameSize = 2 * mChannelCount;
+        int read = mRecord.read(buffer, size - size % frameSize);
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public void stop() {
+        if (mRecord != null) {
+            try {
+                mRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Stop failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mRecord != null) {
+            mRecord.release();
+            mRecord = null;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.io.IOException;
+
+/**
+ * Creates a muxer writing into the given file.
+ */
+public interface MuxerFactory {
+
+    SampleMuxer create(String path) throws IOException;
+}
@@ -0,0 +1,56 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Muxer stage of the pipeline: writes the samples into a {@link SampleMuxer}.
+ */
+public class MuxerSink implements SampleSink {
+
+    private static final String TAG = "MuxerSink";
+
+    private final SampleMuxer mMuxer;
+    private int mTrackIndex = -1;
+    private boolean mStarted;
+
+    public MuxerSink(SampleMuxer muxer) {
+        mMuxer = muxer;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        if (mStarted) {
+            Log.w(TAG, "Output format changed after the muxer has been started");
+            return;
+        }
+        mTrackIndex = mMuxer.addTrack(format);
+        mMuxer.start();
+        mStarted = true;
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        // The codec config is already a part of the output format.
+        if (!mStarted || info.isCodecConfig() || info.size == 0) {
+            return;
+        }
+        mMuxer.writeSampleData(mTrackIndex, buffer, info);
+    }
+
+    @Override
+    public void onEndOfStream() {
+        if (mStarted) {
+            try {
+                mMuxer.stop();
+            } catch (IllegalStateException e) {
+                // Thrown if no sample has been written.
+                Log.e(TAG, "Stop muxer failed: " + e.getMessage());
+            }
+            mStarted = false;
+        }
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,61 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * The background loopers of the capture: display events, media projection lifecycle and
+ * encoder control (session start and stop). The UI thread only gets the results.
+ */
+public class PipelineThreads {
+
+    private final HandlerThread mDisplayThread;
+    private final HandlerThread mProjectionThread;
+    private final HandlerThread mControlThread;
+    private final Handler mDisplayHandler;
+    private final Handler mProjectionHandler;
+    private final Handler mControlHandler;
+    private final Handler mMainHandler;
+
+    public PipelineThreads() {
+        mDisplayThread = new HandlerThread("DisplayThread");
+        mDisplayThread.start();
+        mDisplayHandler = new Handler(mDisplayThread.getLooper());
+        mProjectionThread = new HandlerThread("ProjectionThread");
+        mProjectionThread.start();
+        mProjectionHandler = new Handler(mProjectionThread.getLooper());
+        mControlThread = new HandlerThread("EncoderControlThread");
+        mControlThread.start();
+        mControlHandler = new Handler(mControlThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public Handler getDisplayHandler() {
+        return mDisplayHandler;
+    }
+
+    public Handler getProjectionHandler() {
+        return mProjectionHandler;
+    }
+
+    /**
+     * Returns the handler of the thread starting and stopping the sessions.
+     */
+    public Handler getControlHandler() {
+        return mControlHandler;
+    }
+
+    public Handler getMainHandler() {
+        return mMainHandler;
+    }
+
+    /**
+     * Quits the threads after they run the pending tasks.
+     */
+    public void quit() {
+        mDisplayThread.quitSafely();
+        mProjectionThread.quitSafely();
+        mControlThread.quitSafely();
+    }
+}
@@ -0,0 +1,309 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays recordings without blocking the UI thread: the player is prepared asynchronously
+ * and the key frame index of the recording is loaded meanwhile on the playback thread.
+ * Seeks are snapped to the key frames of the index, so they don't need to decode from
+ * an earlier key frame. If the recording has no index sidecar, or an older one, the
+ * index is built from the sync samples of the container and saved for the next time.
+ *
+ * The engine must be used on a thread with a looper, the listener is called on it.
+ */
+public class PlaybackEngine {
+
+    private static final String TAG = "PlaybackEngine";
+
+    public interface Listener {
+
+        void onPrepared(int durationMs);
+
+        void onCompletion();
+
+        void onError(String message);
+    }
+
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+    private final HandlerThread mThread;
+    private final Handler mPlaybackHandler;
+
+    private MediaPlayer mPlayer;
+    private String mPath;
+    private SurfaceHolder mHolder;
+    private boolean mPrepared;
+    private boolean mStartWhenPrepared;
+    // Replaced by the playback thread, read by the engine thread.
+    private volatile KeyFrameIndex mIndex;
+
+    public PlaybackEngine(Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("PlaybackThread");
+        mThread.start();
+        mPlaybackHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Starts preparing the recording for playback into the surface.
+     */
+    public void open(String path, SurfaceHolder holder) {
+        closePlayer();
+        mPath = path;
+        mHolder = holder;
+        mIndex = null;
+        final String indexPath = path;
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                KeyFrameIndex index = loadIndex(indexPath);
+                if (index != null) {
+                    publishIndex(indexPath, index);
+                }
+            }
+        });
+        prepare();
+    }
+
+    /**
+     * Starts playing, as soon as the player is prepared.
+     */
+    public void start() {
+        if (mPlayer == null) {
+            if (mPath == null) {
+                return;
+            }
+            prepare();
+        }
+        if (mPrepared) {
+            mPlayer.start();
+        } else {
+            mStartWhenPrepared = true;
+        }
+    }
+
+    public void pause() {
+        mStartWhenPrepared = false;
+        if (mPrepared && mPlayer.isPlaying()) {
+            mPlayer.pause();
+        }
+    }
+
+    /**
+     * Stops playing. The next {@link #start()} prepares the recording again asynchronously.
+     */
+    public void stop() {
+        closePlayer();
+    }
+
+    /**
+     * Seeks to the key frame at or before the position if the index is known, or to the
+     * position otherwise. Returns the position seeked to.
+     */
+    public int seekTo(int positionMs) {
+        KeyFrameIndex index = mIndex;
+        int target = positionMs;
+        if (index != null) {
+            target = (int) (index.floorUs(positionMs * 1000L) / 1000);
+        }
+        if (mPrepared) {
+            mPlayer.seekTo(target);
+        }
+        return target;
+    }
+
+    public boolean isPlaying() {
+        return mPrepared && mPlayer.isPlaying();
+    }
+
+    public int getCurrentPosition() {
+        return mPrepared ? mPlayer.getCurrentPosition() : 0;
+    }
+
+    public int getDuration() {
+        return mPrepared ? mPlayer.getDuration() : 0;
+    }
+
+    /**
+     * Returns the key frame index of the recording or null if it isn't loaded yet.
+     */
+    public KeyFrameIndex getIndex() {
+        return mIndex;
+    }
+
+    public boolean isOpen() {
+        return mPath != null;
+    }
+
+    /**
+     * Releases the player and forgets the recording, e.g. before it's recorded again.
+     */
+    public void close() {
+        closePlayer();
+        mPath = null;
+        mIndex = null;
+    }
+
+    public void release() {
+        close();
+        mThread.quitSafely();
+    }
+
+    private void prepare() {
+        final MediaPlayer player = new MediaPlayer();
+        mPlayer = player;
+        mPrepared = false;
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (mp != mPlayer) {
+                    return;
+                }
+                mPrepared = true;
+                mListener.onPrepared(mp.getDuration());
+                if (mStartWhenPrepared) {
+                    mStartWhenPrepared = false;
+                    mp.start();
+                }
+            }
+        });
+        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                if (mp == mPlayer) {
+                    mListener.onCompletion();
+                }
+            }
+        });
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                if (mp == mPlayer) {
+                    closePlayer();
+                    mListener.onError("Playback error " + what + "/" + extra);
+                }
+                return true;
+            }
+        });
+        try {
+            player.setDataSource(mPath);
+            player.setDisplay(mHolder);
+            player.prepareAsync();
+        } catch (IOException e) {
+            closePlayer();
+            mListener.onError("Can't open " + mPath + ": " + e.getMessage());
+        }
+    }
+
+    private void closePlayer() {
+        mStartWhenPrepared = false;
+        mPrepared = false;
+        if (mPlayer != null) {
+            mPlayer.release();
+            mPlayer = null;
+        }
+    }
+
+    private void publishIndex(final String path, final KeyFrameIndex index) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Ignore the index of a recording opened before.
+                if (path.equals(mPath)) {
+                    mIndex = index;
+                    Log.d(TAG, "Key frames of " + path + ": " + index.size());
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the sidecar of the recording, or builds the index and writes the sidecar if
+     * there is none or it's older than the recording. Called on the playback thread.
+     */
+    private static KeyFrameIndex loadIndex(String path) {
+        File recording = new File(path);
+        File sidecar = KeyFrameIndex.getSidecar(path);
+        if (sidecar.exists() && sidecar.lastModified() >= recording.lastModified()) {
+            try {
+                return KeyFrameIndex.read(sidecar);
+            } catch (IOException e) {
+                Log.w(TAG, "Can't read " + sidecar + ": " + e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        KeyFrameIndex index = buildIndex(path);
+        if (index == null) {
+            return null;
+        }
+        Log.d(TAG, "Built key frame index of " + path + " in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        try {
+            index.write(sidecar);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write " + sidecar + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index by jumping from one sync sample of the video track to the next one,
+     * which only reads the sample tables of the container.
+     */
+    private static KeyFrameIndex buildIndex(String path) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(path);
+            int track = -1;
+            long durationUs = 0;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    track = i;
+                    if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                        durationUs = format.getLong(MediaFormat.KEY_DURATION);
+                    }
+                    break;
+                }
+            }
+            if (track < 0) {
+                Log.w(TAG, "No video track in " + path);
+                return null;
+            }
+            extractor.selectTrack(track);
+            KeyFrameIndex.Builder builder = new KeyFrameIndex.Builder();
+            long firstUs = -1;
+            long timeUs = 0;
+            while (true) {
+                extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+                long sampleUs = extractor.getSampleTime();
+                // Past the last sync sample the extractor ends or stays on an earlier one.
+                if (sampleUs < timeUs) {
+                    break;
+                }
+                if (firstUs < 0) {
+                    firstUs = sampleUs;
+                }
+                builder.addKeyFrame(sampleUs - firstUs);
+                timeUs = sampleUs + 1;
+            }
+            builder.setDurationUs(durationUs);
+            return builder.build();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't scan " + path + ": " + e.getMessage());
+            return null;
+        } finally {
+            extractor.release();
+        }
+    }
+}
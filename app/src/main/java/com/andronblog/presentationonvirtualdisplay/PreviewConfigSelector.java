@@ -0,0 +1,56 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Chooses the camera preview size and frame rate range. The smallest size covering the
+ * view and the lowest range reaching the encoder frame rate keep the camera, the memory
+ * bandwidth and the composition as cheap as possible.
+ */
+public final class PreviewConfigSelector {
+
+    private PreviewConfigSelector() {
+    }
+
+    /**
+     * Returns the index of the smallest size which is at least the requested one in both
+     * dimensions, or of the largest size if no one covers it, or -1 if there are no sizes.
+     */
+    public static int chooseSize(int[] widths, int[] heights, int minWidth, int minHeight) {
+        int best = -1;
+        long bestArea = Long.MAX_VALUE;
+        int largest = -1;
+        long largestArea = -1;
+        for (int i = 0; i < widths.length; i++) {
+            long area = (long) widths[i] * heights[i];
+            if (widths[i] >= minWidth && heights[i] >= minHeight && area < bestArea) {
+                best = i;
+                bestArea = area;
+            }
+            if (area > largestArea) {
+                largest = i;
+                largestArea = area;
+            }
+        }
+        return best >= 0 ? best : largest;
+    }
+
+    /**
+     * Returns the index of the range with the lowest upper bound reaching the frame rate,
+     * preferring the lowest lower bound among them. If no range reaches the frame rate,
+     * the index of the range with the highest upper bound is returned, or -1 if there are
+     * no ranges.
+     */
+    public static int chooseFpsRange(int[] mins, int[] maxs, int frameRate) {
+        int best = -1;
+        int fastest = -1;
+        for (int i = 0; i < maxs.length; i++) {
+            if (maxs[i] >= frameRate && (best < 0 || maxs[i] < maxs[best]
+                    || (maxs[i] == maxs[best] && mins[i] < mins[best]))) {
+                best = i;
+            }
+            if (fastest < 0 || maxs[i] > maxs[fastest]) {
+                fastest = i;
+            }
+        }
+        return best >= 0 ? best : fastest;
+    }
+}
@@ -0,0 +1,228 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Steps the quality of a long running session down a ladder of levels when the device
+ * can't keep up with it, and back up when it can again. It's fed with the signals of a
+ * period: the encoder latency and the dropped frames of the session, the temperature and
+ * the battery of the device.
+ *
+ * A period is under pressure if any signal is over its high threshold and relaxed if all
+ * of them are below their low thresholds. The level goes down after a few periods under
+ * pressure in a row, at once if the device is hot, and it goes up only after many relaxed
+ * periods in a row. No step is made for a while after a step, so that the effect of it
+ * is measured before the next one.
+ *
+ * The governor doesn't depend on the framework or a clock, a trace of recorded signals
+ * gives the same decisions on a JVM as on a device. A step which can't be applied is
+ * reverted, so that the level of the governor stays the one the session runs at.
+ */
+public class QualityGovernor {
+
+    public enum Decision {
+        HOLD,
+        STEP_DOWN,
+        STEP_UP
+    }
+
+    // The encoder latency of two and one frames at 30 fps.
+    public static final long LATENCY_HIGH_US = 66000;
+    public static final long LATENCY_LOW_US = 33000;
+    // The part of the rendered frames dropped by the pipeline.
+    public static final float DROP_RATIO_HIGH = 0.02f;
+    // The battery temperature the device starts to throttle at, and it is cool again.
+    public static final float TEMPERATURE_HIGH_C = 42f;
+    public static final float TEMPERATURE_LOW_C = 38f;
+    public static final float TEMPERATURE_CRITICAL_C = 46f;
+    public static final int BATTERY_LOW_PERCENT = 15;
+
+    public static final int DOWN_PERIODS = 2;
+    public static final int UP_PERIODS = 10;
+    public static final int COOLDOWN_PERIODS = 5;
+
+    /**
+     * A quality level of the session, relative to the configured size and bit rate.
+     */
+    public static class Level {
+
+        private final float mSizeScale;
+        private final int mFrameRate;
+        private final float mBitRateScale;
+
+        public Level(float sizeScale, int frameRate, float bitRateScale) {
+            mSizeScale = sizeScale;
+            mFrameRate = frameRate;
+            mBitRateScale = bitRateScale;
+        }
+
+        public float getSizeScale() {
+            return mSizeScale;
+        }
+
+        public int getFrameRate() {
+            return mFrameRate;
+        }
+
+        public float getBitRateScale() {
+            return mBitRateScale;
+        }
+
+        @Override
+        public String toString() {
+            return "x" + mSizeScale + "@" + mFrameRate + "fps bitrate x" + mBitRateScale;
+        }
+    }
+
+    /**
+     * The signals of a period. A temperature of NaN or a battery level below zero is
+     * unknown and doesn't count.
+     */
+    public static class Signals {
+
+        private final long mEncodeLatencyUs;
+        private final float mDropRatio;
+        private final float mTemperatureC;
+        private final int mBatteryPercent;
+        private final boolean mCharging;
+
+        /**
+         * @param encodeLatencyUs a high percentile of the encoder latency over the period
+         * @param dropRatio the dropped frames relative to the rendered ones over the period
+         */
+        public Signals(long encodeLatencyUs, float dropRatio, float temperatureC,
+                       int batteryPercent, boolean charging) {
+            mEncodeLatencyUs = encodeLatencyUs;
+            mDropRatio = dropRatio;
+            mTemperatureC = temperatureC;
+            mBatteryPercent = batteryPercent;
+            mCharging = charging;
+        }
+
+        public long getEncodeLatencyUs() {
+            return mEncodeLatencyUs;
+        }
+
+        public float getDropRatio() {
+            return mDropRatio;
+        }
+
+        public float getTemperatureC() {
+            return mTemperatureC;
+        }
+
+        public int getBatteryPercent() {
+            return mBatteryPercent;
+        }
+
+        public boolean isCharging() {
+            return mCharging;
+        }
+
+        boolean isBatteryLow() {
+            return !mCharging && mBatteryPercent >= 0 && mBatteryPercent <= BATTERY_LOW_PERCENT;
+        }
+
+        @Override
+        public String toString() {
+            return "latency: " + mEncodeLatencyUs + " us, dropped: " + mDropRatio +
+                    ", temperature: " + mTemperatureC + " C, battery: " + mBatteryPercent +
+                    "%" + (mCharging ? " charging" : "");
+        }
+    }
+
+    private final Level[] mLadder;
+    private int mLevel;
+    private int mPreviousLevel;
+    private int mPressurePeriods;
+    private int mRelaxedPeriods;
+    private int mCooldown;
+    private int mSteps;
+
+    /**
+     * @param ladder the levels from the highest quality to the lowest one, the session
+     *               starts at the first one
+     */
+    public QualityGovernor(Level[] ladder) {
+        if (ladder.length == 0) {
+            throw new IllegalArgumentException("The ladder is empty");
+        }
+        mLadder = ladder.clone();
+    }
+
+    /**
+     * Accounts the signals of a period and returns the step to make, the level is
+     * changed already.
+     */
+    public synchronized Decision update(Signals signals) {
+        boolean critical = signals.getTemperatureC() >= TEMPERATURE_CRITICAL_C;
+        boolean pressure = critical || isUnderPressure(signals);
+        boolean relaxed = !pressure && isRelaxed(signals);
+        mPressurePeriods = pressure ? mPressurePeriods + 1 : 0;
+        mRelaxedPeriods = relaxed ? mRelaxedPeriods + 1 : 0;
+        if (mCooldown > 0) {
+            mCooldown--;
+            // Overheating can't wait for the previous step to settle.
+            if (!critical) {
+                return Decision.HOLD;
+            }
+        }
+        if ((critical || mPressurePeriods >= DOWN_PERIODS) && mLevel < mLadder.length - 1) {
+            return step(mLevel + 1, Decision.STEP_DOWN);
+        }
+        if (mRelaxedPeriods >= UP_PERIODS && mLevel > 0) {
+            return step(mLevel - 1, Decision.STEP_UP);
+        }
+        return Decision.HOLD;
+    }
+
+    private Decision step(int level, Decision decision) {
+        mPreviousLevel = mLevel;
+        mLevel = level;
+        mPressurePeriods = 0;
+        mRelaxedPeriods = 0;
+        mCooldown = COOLDOWN_PERIODS;
+        mSteps++;
+        return decision;
+    }
+
+    /**
+     * Goes back to the level before the last step if it's still at the given level, e.g.
+     * when the session can't be switched to it. The cooldown of the step is kept, so the
+     * step isn't retried at once.
+     */
+    public synchronized void revertStep(int level) {
+        if (mLevel == level && mSteps > 0) {
+            mLevel = mPreviousLevel;
+            mSteps--;
+        }
+    }
+
+    private static boolean isUnderPressure(Signals signals) {
+        return signals.getEncodeLatencyUs() > LATENCY_HIGH_US ||
+                signals.getDropRatio() > DROP_RATIO_HIGH ||
+                signals.getTemperatureC() >= TEMPERATURE_HIGH_C ||
+                signals.isBatteryLow();
+    }
+
+    private static boolean isRelaxed(Signals signals) {
+        // An unknown temperature doesn't hold the quality down.
+        boolean cool = Float.isNaN(signals.getTemperatureC()) ||
+                signals.getTemperatureC() < TEMPERATURE_LOW_C;
+        return signals.getEncodeLatencyUs() < LATENCY_LOW_US && signals.getDropRatio() == 0 &&
+                cool && !signals.isBatteryLow();
+    }
+
+    public synchronized Level getLevel() {
+        return mLadder[mLevel];
+    }
+
+    public synchronized int getLevelIndex() {
+        return mLevel;
+    }
+
+    /**
+     * Returns the number of steps made, down or up.
+     */
+    public synchronized int getStepCount() {
+        return mSteps;
+    }
+}
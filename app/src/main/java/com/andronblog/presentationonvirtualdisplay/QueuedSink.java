@@ -0,0 +1,104 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a sink on its own thread behind a {@link FrameQueue}, so that a slow stage, e.g.
+ * the muxer writing to a slow storage, doesn't stall the encoder thread. What happens
+ * when the stage falls behind is decided by the policy of the queue.
+ */
+public class QueuedSink implements SampleSink {
+
+    private static final String TAG = "QueuedSink";
+
+    private static final long POLL_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long END_OF_STREAM_TIMEOUT_MS = 2000;
+
+    private final SampleSink mSink;
+    private final FrameQueue mQueue;
+    private final Thread mThread;
+    private SessionMetrics mMetrics;
+    private volatile boolean mEnded;
+
+    public QueuedSink(String name, SampleSink sink, FrameQueue queue) {
+        mSink = sink;
+        mQueue = queue;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name);
+        mThread.start();
+    }
+
+    /**
+     * Sets the metrics the dropped samples are reported to. Must be called before the
+     * first sample.
+     */
+    public void setMetrics(SessionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public FrameQueue getQueue() {
+        return mQueue;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        mQueue.offerFormat(format);
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        if (!mQueue.offerSample(buffer, info) && mMetrics != null) {
+            mMetrics.recordFramesDropped(1);
+        }
+    }
+
+    /**
+     * Queues the end of stream and waits until the sink gets it, so that the stage is
+     * finished when the pipeline is.
+     */
+    @Override
+    public void onEndOfStream() {
+        mQueue.offerEndOfStream();
+        try {
+            mThread.join(END_OF_STREAM_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) {
+            Log.w(TAG, mThread.getName() + " didn't finish in time");
+        }
+        Log.d(TAG, mThread.getName() + " max queued: " + mQueue.getMaxSize() + "/" +
+                mQueue.getCapacity() + ", dropped: " + mQueue.getDroppedSamples());
+    }
+
+    private void drain() {
+        SampleSink sink = new SampleSink() {
+            @Override
+            public void onOutputFormat(MediaFormat format) {
+                mSink.onOutputFormat(format);
+            }
+
+            @Override
+            public void onSample(ByteBuffer buffer, SampleInfo info) {
+                mSink.onSample(buffer, info);
+            }
+
+            @Override
+            public void onEndOfStream() {
+                mSink.onEndOfStream();
+                mEnded = true;
+            }
+        };
+        while (!mEnded) {
+            mQueue.take(sink, POLL_TIMEOUT_NS);
+        }
+    }
+}
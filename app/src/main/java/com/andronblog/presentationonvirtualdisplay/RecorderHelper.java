@@ -1,30 +1,38 @@
 package com.andronblog.presentationonvirtualdisplay;
 
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
+import android.media.MediaMuxer;
+import android.os.Build;
 import android.util.Log;
 import android.util.Size;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RecorderHelper {
 
     private final static String TAG = "MediaRecorderHelper";
     private final static boolean VERBOSE = true;
 
-    private static final int BIT_RATE_1080P = 16000000;
-    private static final int BIT_RATE_MIN = 64000;
-    private static final int BIT_RATE_MAX = 40000000;
+    // Build.VERSION_CODES.N, MediaMuxer writes HEVC into MP4 and VP9 into WebM since it.
+    private final static int MUXER_HEVC_VP9_SDK = 24;
+
+    /**
+     * Lazily builds the capability index once per process.
+     */
+    private static class CapabilitiesHolder {
+        static final EncoderCapabilities INSTANCE = EncoderCapabilities.build(new MediaCodecListSource());
+    }
+
+    public static EncoderCapabilities getEncoderCapabilities() {
+        return CapabilitiesHolder.INSTANCE;
+    }
 
     /**
      * Calculate a video bit rate based on the size. The bit rate is scaled
      * based on ratio of video size to 1080p size.
      */
     public static int getVideoBitRate(Size sz) {
-        int rate = BIT_RATE_1080P;
-        float scaleFactor = sz.getHeight() * sz.getWidth() / (float)(1920 * 1080);
-        rate = (int)(rate * scaleFactor);
-
-        // Clamp to the MIN, MAX range.
-        return Math.max(BIT_RATE_MIN, Math.min(BIT_RATE_MAX, rate));
+        return EncoderSupport.getVideoBitRate(sz.getWidth(), sz.getHeight());
     }
 
     /**
@@ -34,130 +42,108 @@ public class RecorderHelper {
      * by AVC specification for certain level.
      */
     public static boolean isSupportedByAVCEncoder(Size sz, int frameRate) {
-        String mimeType = "video/avc";
-        MediaCodecInfo codecInfo = getEncoderInfo(mimeType);
-        if (codecInfo == null) {
-            return false;
+        return isSupportedByAVCEncoder(getEncoderCapabilities(), sz.getWidth(), sz.getHeight(), frameRate);
+    }
+
+    /**
+     * Find the best AVC encoder configuration for the requested size and frame rate.
+     * The size is downscaled and the frame rate is reduced if the encoder can't support
+     * them. Returns null if there is no AVC encoder or nothing fits its limits.
+     */
+    public static EncoderConfig getBestAVCConfig(Size sz, int frameRate, int iFrameInterval) {
+        EncoderCapabilities.Entry encoder = getEncoderCapabilities().getEncoder(EncoderConfig.MIME_AVC);
+        if (encoder == null) {
+            Log.e(TAG, "There is no AVC encoder");
+            return null;
         }
-        MediaCodecInfo.CodecCapabilities cap = codecInfo.getCapabilitiesForType(mimeType);
-        if (cap == null) {
-            return false;
+        EncodeConfigSolver solver = new EncodeConfigSolver(encoder.getLimits());
+        EncoderConfig config = solver.solve(EncoderConfig.MIME_AVC, sz.getWidth(), sz.getHeight(),
+                frameRate, getVideoBitRate(sz), iFrameInterval);
+        if (VERBOSE) {
+            Log.v(TAG, "Requested " + sz + "@" + frameRate + ", solved: " + config);
         }
+        return config;
+    }
 
-        int highestLevel = 0;
-        for (MediaCodecInfo.CodecProfileLevel lvl : cap.profileLevels) {
-            if (lvl.level > highestLevel) {
-                highestLevel = lvl.level;
+    /**
+     * Returns the MIME types the recording can be encoded with.
+     *
+     * @param annexB if the output needs an Annex-B elementary stream, e.g. to be streamed
+     */
+    public static List<String> getOutputMimeTypes(boolean annexB) {
+        List<String> mimeTypes = new ArrayList<String>();
+        mimeTypes.add(EncoderConfig.MIME_AVC);
+        if (Build.VERSION.SDK_INT >= MUXER_HEVC_VP9_SDK) {
+            mimeTypes.add(EncoderConfig.MIME_HEVC);
+            if (!annexB) {
+                mimeTypes.add(EncoderConfig.MIME_VP9);
             }
         }
+        return mimeTypes;
+    }
 
-        if(VERBOSE) {
-            Log.v(TAG, "The highest level supported by encoder is: " + highestLevel);
+    /**
+     * Find the best configuration of the most efficient encoder able to encode the
+     * requested size and frame rate, AVC if no other one is better. Returns null if
+     * nothing fits the limits of the encoders.
+     */
+    public static EncoderConfig getBestConfig(Size sz, int frameRate, int iFrameInterval,
+                                              List<String> mimeTypes) {
+        CodecRanker ranker = new CodecRanker(getEncoderCapabilities(), mimeTypes);
+        List<CodecRanker.Candidate> candidates = ranker.rank(sz.getWidth(), sz.getHeight(),
+                frameRate, getVideoBitRate(sz), iFrameInterval);
+        if (VERBOSE) {
+            for (CodecRanker.Candidate candidate : candidates) {
+                Log.v(TAG, "Candidate for " + sz + "@" + frameRate + ": " + candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
+            Log.e(TAG, "There is no encoder for " + sz + "@" + frameRate);
+            return null;
         }
+        return candidates.get(0).getConfig();
+    }
 
-        // Put bitRate here for future use.
-        int maxW, maxH, bitRate;
-        // Max encoding speed.
-        int maxMacroblocksPerSecond = 0;
-        switch(highestLevel) {
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel21:
-                maxW = 352;
-                maxH = 576;
-                bitRate = 4000000;
-                maxMacroblocksPerSecond = 19800;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel22:
-                maxW = 720;
-                maxH = 480;
-                bitRate = 4000000;
-                maxMacroblocksPerSecond = 20250;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel3:
-                maxW = 720;
-                maxH = 480;
-                bitRate = 10000000;
-                maxMacroblocksPerSecond = 40500;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel31:
-                maxW = 1280;
-                maxH = 720;
-                bitRate = 14000000;
-                maxMacroblocksPerSecond = 108000;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel32:
-                maxW = 1280;
-                maxH = 720;
-                bitRate = 20000000;
-                maxMacroblocksPerSecond = 216000;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel4:
-                maxW = 1920;
-                maxH = 1088; // It should be 1088 in terms of AVC capability.
-                bitRate = 20000000;
-                maxMacroblocksPerSecond = 245760;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel41:
-                maxW = 1920;
-                maxH = 1088; // It should be 1088 in terms of AVC capability.
-                bitRate = 50000000;
-                maxMacroblocksPerSecond = 245760;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel42:
-                maxW = 2048;
-                maxH = 1088; // It should be 1088 in terms of AVC capability.
-                bitRate = 50000000;
-                maxMacroblocksPerSecond = 522240;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel5:
-                maxW = 3672;
-                maxH = 1536;
-                bitRate = 135000000;
-                maxMacroblocksPerSecond = 589824;
-                break;
-            case MediaCodecInfo.CodecProfileLevel.AVCLevel51:
-            default:
-                maxW = 4096;
-                maxH = 2304;
-                bitRate = 240000000;
-                maxMacroblocksPerSecond = 983040;
-                break;
+    /**
+     * Returns the MediaMuxer output format of the container of the MIME type.
+     */
+    public static int getMuxerOutputFormat(String mimeType) {
+        if (EncoderConfig.MIME_VP9.equals(mimeType)) {
+            return MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM;
         }
+        return MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
+    }
+
+    /**
+     * Returns the file extension of a recording of the MIME type, without the dot.
+     *
+     * @param raw if the recording is the elementary stream rather than a container
+     */
+    public static String getFileExtension(String mimeType, boolean raw) {
+        if (raw) {
+            return EncoderConfig.MIME_HEVC.equals(mimeType) ? "h265" : "h264";
+        }
+        return EncoderConfig.MIME_VP9.equals(mimeType) ? "webm" : "mp4";
+    }
 
-        // Check size limit.
-        if (sz.getWidth() > maxW || sz.getHeight() > maxH) {
-            Log.i(TAG, "Requested resolution " + sz.toString() + " exceeds (" +
-                    maxW + "," + maxH + ")");
+    static boolean isSupportedByAVCEncoder(EncoderCapabilities capabilities, int width, int height,
+                                           int frameRate) {
+        EncoderCapabilities.Entry encoder = capabilities.getEncoder(EncoderConfig.MIME_AVC);
+        if (encoder == null) {
             return false;
         }
+        if(VERBOSE) {
+            Log.v(TAG, "The highest level supported by encoder is: " + encoder.getHighestLevel());
+        }
 
-        // Check frame rate limit.
-        Size sizeInMb = new Size((sz.getWidth() + 15) / 16, (sz.getHeight() + 15) / 16);
-        int maxFps = maxMacroblocksPerSecond / (sizeInMb.getWidth() * sizeInMb.getHeight());
-        if (frameRate > maxFps) {
-            Log.i(TAG, "Requested frame rate " + frameRate + " exceeds " + maxFps);
+        if (!EncoderSupport.isSupported(capabilities, EncoderConfig.MIME_AVC, width, height, frameRate)) {
+            LevelLimits limits = encoder.getLimits();
+            Log.i(TAG, "Requested " + width + "x" + height + "@" + frameRate + " exceeds (" +
+                    limits.getMaxWidth() + "," + limits.getMaxHeight() + ")@" +
+                    limits.getMaxFrameRate(width, height));
             return false;
         }
 
         return true;
     }
-
-
-    private static MediaCodecInfo getEncoderInfo(String mimeType) {
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-            if (!codecInfo.isEncoder()) {
-                continue;
-            }
-
-            String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    return codecInfo;
-                }
-            }
-        }
-        return null;
-    }
 }
@@ -0,0 +1,638 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Catalog of the recordings of the sessions. Every session records into a file with a
+ * unique name given by {@link #begin(String)}, and the recording is added to the catalog
+ * by {@link #commit(String, String, KeyFrameIndex)} when it's finished.
+ *
+ * The catalog is kept in memory and in an append-only journal: a record is appended for
+ * every change and synced, so that the catalog is loaded by reading the journal once
+ * instead of scanning the recordings. A torn record at the end of the journal is
+ * dropped, the recordings begun but not committed before are deleted when the catalog is
+ * opened, and the journal is compacted when most of its records are obsolete. A journal
+ * which isn't one is moved aside and a new one is started.
+ *
+ * The methods are synchronized, the journal is written on the calling thread.
+ */
+public class RecordingCatalog {
+
+    private static final String TAG = "RecordingCatalog";
+
+    public static final String JOURNAL_FILE = "catalog.journal";
+    // A recording is written under this suffix until it's started.
+    public static final String PARTIAL_SUFFIX = ".part";
+
+    // "RCJ1"
+    private static final int MAGIC = 0x52434a31;
+    private static final byte RECORD_BEGIN = 1;
+    private static final byte RECORD_COMMIT = 2;
+    private static final byte RECORD_DELETE = 3;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    /**
+     * A finished recording.
+     */
+    public static class Entry {
+
+        private final long mId;
+        private final String mPath;
+        private final long mStartTimeMs;
+        private final long mDurationUs;
+        private final long mBytes;
+        private final String mMimeType;
+        private final long[] mKeyFrameTimesUs;
+
+        Entry(long id, String path, long startTimeMs, long durationUs, long bytes,
+              String mimeType, long[] keyFrameTimesUs) {
+            mId = id;
+            mPath = path;
+            mStartTimeMs = startTimeMs;
+            mDurationUs = durationUs;
+            mBytes = bytes;
+            mMimeType = mimeType;
+            mKeyFrameTimesUs = keyFrameTimesUs;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        /**
+         * Returns the wall clock time the recording started at.
+         */
+        public long getStartTimeMs() {
+            return mStartTimeMs;
+        }
+
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        public KeyFrameIndex getKeyFrameIndex() {
+            return new KeyFrameIndex(mKeyFrameTimesUs, mDurationUs);
+        }
+
+        @Override
+        public String toString() {
+            return "#" + mId + " " + mPath + " " + mMimeType + " " + mDurationUs / 1000 + " ms " +
+                    mBytes + " bytes";
+        }
+    }
+
+    private static final Comparator<Entry> BY_START_TIME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.mStartTimeMs != b.mStartTimeMs) {
+                return a.mStartTimeMs < b.mStartTimeMs ? -1 : 1;
+            }
+            return a.mId < b.mId ? -1 : (a.mId == b.mId ? 0 : 1);
+        }
+    };
+
+    private final File mDir;
+    private final String mPrefix;
+    private final File mJournal;
+
+    // The committed recordings, the oldest first.
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    // The ids of the begun recordings by their paths.
+    private final Map<String, Long> mPending = new HashMap<String, Long>();
+    private long mNextId = 1;
+    private long mTotalBytes;
+    private int mObsoleteRecords;
+    private DataOutputStream mOut;
+    private FileOutputStream mFileOut;
+
+    /**
+     * @param dir the directory of the recordings and the journal
+     * @param prefix the name prefix of the recordings
+     */
+    public RecordingCatalog(File dir, String prefix) {
+        mDir = dir;
+        mPrefix = prefix;
+        mJournal = new File(dir, JOURNAL_FILE);
+    }
+
+    /**
+     * Loads the journal and deletes the unfinished recordings of the previous run.
+     */
+    public synchronized void open() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        long start = System.nanoTime();
+        int records = load();
+        Log.d(TAG, "Loaded " + mEntries.size() + " recordings from " + records + " records in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        openJournal();
+        for (Map.Entry<String, Long> pending : mPending.entrySet()) {
+            Log.w(TAG, "Deleting unfinished recording " + pending.getKey());
+            deleteFiles(pending.getKey());
+            appendDelete(pending.getValue());
+            mObsoleteRecords += 2;
+        }
+        mPending.clear();
+        compactIfNeeded();
+    }
+
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    /**
+     * Reserves a unique path for a new recording.
+     */
+    public synchronized String begin(String extension) throws IOException {
+        long id = mNextId++;
+        String path = new File(mDir, String.format(Locale.US, "%s_%06d.%s", mPrefix, id,
+                extension)).getPath();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(id);
+        out.writeUTF(path);
+        append(RECORD_BEGIN, payload.toByteArray());
+        mPending.put(path, id);
+        return path;
+    }
+
+    /**
+     * Adds the finished recording to the catalog.
+     *
+     * @param index the key frames of the recording
+     */
+    public synchronized Entry commit(String path, String mimeType, KeyFrameIndex index)
+            throws IOException {
+        Long id = mPending.remove(path);
+        if (id == null) {
+            throw new IOException("Recording " + path + " isn't begun");
+        }
+        long[] timesUs = new long[index.size()];
+        for (int i = 0; i < timesUs.length; i++) {
+            timesUs[i] = index.getKeyFrameTimeUs(i);
+        }
+        Entry entry = new Entry(id, path,
+                System.currentTimeMillis() - index.getDurationUs() / 1000,
+                index.getDurationUs(), new File(path).length(), mimeType, timesUs);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeEntry(new DataOutputStream(payload), entry);
+        append(RECORD_COMMIT, payload.toByteArray());
+        add(entry);
+        // The begin record is obsolete.
+        mObsoleteRecords++;
+        return entry;
+    }
+
+    /**
+     * Drops a begun recording and deletes its files.
+     */
+    public synchronized void abort(String path) {
+        Long id = mPending.remove(path);
+        if (id == null) {
+            return;
+        }
+        deleteFiles(path);
+        try {
+            appendDelete(id);
+            mObsoleteRecords += 2;
+        } catch (IOException e) {
+            // The recording is deleted on the next open.
+            Log.e(TAG, "Can't journal the abort of " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the recordings, the newest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>(mEntries);
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /**
+     * Returns the newest recording or null if there is none.
+     */
+    public synchronized Entry getLatest() {
+        return mEntries.isEmpty() ? null : mEntries.get(mEntries.size() - 1);
+    }
+
+    public synchronized Entry get(long id) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mId == id) {
+                return mEntries.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the recordings started in the time range, the oldest first.
+     */
+    public synchronized List<Entry> find(long fromMs, long toMs) {
+        int from = lowerBound(fromMs);
+        int to = lowerBound(toMs);
+        return new ArrayList<Entry>(mEntries.subList(from, Math.max(from, to)));
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Deletes the oldest recordings until none is older than the maximum age and they
+     * take no more than the maximum bytes. Returns the deleted recordings.
+     */
+    public synchronized List<Entry> evict(long maxAgeMs, long maxBytes, long nowMs)
+            throws IOException {
+        List<Entry> evicted = new ArrayList<Entry>();
+        while (!mEntries.isEmpty()) {
+            Entry oldest = mEntries.get(0);
+            if (nowMs - oldest.mStartTimeMs <= maxAgeMs && mTotalBytes <= maxBytes) {
+                break;
+            }
+            appendDelete(oldest.mId);
+            mEntries.remove(0);
+            mTotalBytes -= oldest.mBytes;
+            mObsoleteRecords += 2;
+            deleteFiles(oldest.mPath);
+            evicted.add(oldest);
+        }
+        if (!evicted.isEmpty()) {
+            Log.i(TAG, "Evicted " + evicted.size() + " recordings, " + mEntries.size() +
+                    " left taking " + mTotalBytes + " bytes");
+        }
+        compactIfNeeded();
+        return evicted;
+    }
+
+    private void add(Entry entry) {
+        // The entries are committed in about the order they start.
+        int i = mEntries.size();
+        while (i > 0 && BY_START_TIME.compare(mEntries.get(i - 1), entry) > 0) {
+            i--;
+        }
+        mEntries.add(i, entry);
+        mTotalBytes += entry.mBytes;
+    }
+
+    /**
+     * Returns the index of the first entry started at or after the time.
+     */
+    private int lowerBound(long timeMs) {
+        int low = 0;
+        int high = mEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEntries.get(mid).mStartTimeMs < timeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void deleteFiles(String path) {
+        new File(path).delete();
+        new File(path + PARTIAL_SUFFIX).delete();
+        KeyFrameIndex.getSidecar(path).delete();
+    }
+
+    /**
+     * Reads the journal into memory and returns the number of records read. The journal
+     * is truncated after the last valid record.
+     */
+    private int load() throws IOException {
+        if (mJournal.length() < 4) {
+            // Missing, or the process died while it was created.
+            mJournal.delete();
+            skipRecordedIds();
+            return 0;
+        }
+        Map<Long, String> begun = new HashMap<Long, String>();
+        Map<Long, Entry> committed = new HashMap<Long, Entry>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mJournal)));
+        long validLength = 4;
+        int records = 0;
+        try {
+            if (in.readInt() != MAGIC) {
+                in.close();
+                discardJournal();
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new EOFException("Invalid record length " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(type);
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    throw new EOFException("Invalid record checksum");
+                }
+                apply(type, new DataInputStream(new ByteArrayInputStream(payload)),
+                        begun, committed);
+                validLength += 1 + 4 + length + 4;
+                records++;
+            }
+        } catch (EOFException e) {
+            // A record written partly when the process died.
+            Log.w(TAG, "Dropping the torn end of " + mJournal + " at " + validLength);
+            truncate(validLength);
+        } finally {
+            in.close();
+        }
+        for (Map.Entry<Long, String> pending : begun.entrySet()) {
+            mPending.put(pending.getValue(), pending.getKey());
+        }
+        for (Entry entry : committed.values()) {
+            add(entry);
+        }
+        return records;
+    }
+
+    /**
+     * Moves a journal which can't be read aside, so that the catalog starts over instead
+     * of failing to open. Its recordings stay in the directory, out of the catalog.
+     */
+    private void discardJournal() {
+        File bad = new File(mJournal.getPath() + ".bad");
+        bad.delete();
+        if (!mJournal.renameTo(bad)) {
+            mJournal.delete();
+        }
+        Log.e(TAG, "Not a catalog journal, moved to " + bad);
+        skipRecordedIds();
+    }
+
+    /**
+     * Takes the ids of the new recordings after the ones in the directory, so that they
+     * aren't recorded over when the journal is lost.
+     */
+    private void skipRecordedIds() {
+        String[] names = mDir.list();
+        if (names == null) {
+            return;
+        }
+        String prefix = mPrefix + "_";
+        for (String name : names) {
+            int dot = name.indexOf('.');
+            if (!name.startsWith(prefix) || dot < 0) {
+                continue;
+            }
+            try {
+                long id = Long.parseLong(name.substring(prefix.length(), dot));
+                mNextId = Math.max(mNextId, id + 1);
+            } catch (NumberFormatException e) {
+                // Not a recording of the catalog.
+            }
+        }
+    }
+
+    private void apply(byte type, DataInputStream payload, Map<Long, String> begun,
+                       Map<Long, Entry> committed) throws IOException {
+        switch (type) {
+            case RECORD_BEGIN: {
+                long id = payload.readLong();
+                begun.put(id, payload.readUTF());
+                mNextId = Math.max(mNextId, id + 1);
+                break;
+            }
+            case RECORD_COMMIT: {
+                Entry entry = readEntry(payload);
+                // The begin record is obsolete unless a compaction dropped it already.
+                if (begun.remove(entry.mId) != null) {
+                    mObsoleteRecords++;
+                }
+                committed.put(entry.mId, entry);
+                mNextId = Math.max(mNextId, entry.mId + 1);
+                break;
+            }
+            case RECORD_DELETE: {
+                long id = payload.readLong();
+                // The delete record itself and the records of the recording it drops.
+                mObsoleteRecords++;
+                if (begun.remove(id) != null) {
+                    mObsoleteRecords++;
+                }
+                if (committed.remove(id) != null) {
+                    mObsoleteRecords++;
+                }
+                break;
+            }
+            default:
+                // A record of a later version, skip it.
+                Log.w(TAG, "Unknown record type " + type);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (mObsoleteRecords >= MIN_COMPACTION_RECORDS && mObsoleteRecords > mEntries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the committed and begun recordings into a new journal which replaces the
+     * current one.
+     */
+    private void compact() throws IOException {
+        closeJournal();
+        File tmp = new File(mJournal.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(fileOut);
+        try {
+            out.writeInt(MAGIC);
+            for (Entry entry : mEntries) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                writeEntry(new DataOutputStream(payload), entry);
+                writeRecord(out, RECORD_COMMIT, payload.toByteArray());
+            }
+            for (Map.Entry<String, Long> pending : mPending.entrySet()) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(payload);
+                data.writeLong(pending.getValue());
+                data.writeUTF(pending.getKey());
+                writeRecord(out, RECORD_BEGIN, payload.toByteArray());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mJournal)) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + mJournal);
+        }
+        Log.d(TAG, "Compacted " + mJournal + ", dropped " + mObsoleteRecords + " records");
+        mObsoleteRecords = 0;
+        openJournal();
+    }
+
+    private void openJournal() throws IOException {
+        boolean exists = mJournal.length() > 0;
+        mFileOut = new FileOutputStream(mJournal, exists);
+        mOut = new DataOutputStream(mFileOut);
+        if (!exists) {
+            mOut.writeInt(MAGIC);
+            mOut.flush();
+        }
+    }
+
+    private void closeJournal() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Close " + mJournal + " failed: " + e.getMessage());
+            }
+            mOut = null;
+            mFileOut = null;
+        }
+    }
+
+    private void appendDelete(long id) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new DataOutputStream(payload).writeLong(id);
+        append(RECORD_DELETE, payload.toByteArray());
+    }
+
+    private void append(byte type, byte[] payload) throws IOException {
+        if (mOut == null) {
+            throw new IOException("Catalog " + mJournal + " isn't open");
+        }
+        writeRecord(mOut, type, payload);
+        mOut.flush();
+        mFileOut.getFD().sync();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes the entry with the key frame times as variable length deltas, a few bytes
+     * per key frame.
+     */
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.mId);
+        out.writeUTF(entry.mPath);
+        out.writeLong(entry.mStartTimeMs);
+        out.writeLong(entry.mDurationUs);
+        out.writeLong(entry.mBytes);
+        out.writeUTF(entry.mMimeType);
+        out.writeInt(entry.mKeyFrameTimesUs.length);
+        long previous = 0;
+        for (long timeUs : entry.mKeyFrameTimesUs) {
+            writeVarLong(out, timeUs - previous);
+            previous = timeUs;
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String path = in.readUTF();
+        long startTimeMs = in.readLong();
+        long durationUs = in.readLong();
+        long bytes = in.readLong();
+        String mimeType = in.readUTF();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_RECORD_SIZE) {
+            throw new IOException("Invalid key frame count " + count);
+        }
+        long[] timesUs = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarLong(in);
+            timesUs[i] = previous;
+        }
+        return new Entry(id, path, startTimeMs, durationUs, bytes, mimeType, timesUs);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+}
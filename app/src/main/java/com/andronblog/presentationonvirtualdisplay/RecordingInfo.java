@@ -0,0 +1,199 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The results of the post-processing of a recording: its statistics, the poster
+ * thumbnail and the scrub sprite sheet, a grid of key frame thumbnails in time order.
+ * It's kept next to the images in the cache, so that a gallery doesn't have to open the
+ * recordings.
+ */
+public class RecordingInfo {
+
+    private static final String KEY_PATH = "path";
+    private static final String KEY_DURATION_US = "duration_us";
+    private static final String KEY_BYTES = "bytes";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_KEY_FRAMES = "key_frames";
+    private static final String KEY_POSTER = "poster";
+    private static final String KEY_SPRITE = "sprite";
+    private static final String KEY_SPRITE_COLUMNS = "sprite_columns";
+    private static final String KEY_TILE_WIDTH = "tile_width";
+    private static final String KEY_TILE_HEIGHT = "tile_height";
+    private static final String KEY_TILE_TIMES_US = "tile_times_us";
+
+    private final String mPath;
+    private final long mDurationUs;
+    private final long mBytes;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mKeyFrames;
+    private final File mPoster;
+    private final File mSprite;
+    private final int mSpriteColumns;
+    private final int mTileWidth;
+    private final int mTileHeight;
+    private final long[] mTileTimesUs;
+
+    /**
+     * @param keyFrames the number of key frames, or -1 if the recording has no index
+     * @param tileTimesUs the times of the key frames of the sprite tiles, row by row
+     */
+    public RecordingInfo(String path, long durationUs, long bytes, int width, int height,
+                         int keyFrames, File poster, File sprite, int spriteColumns,
+                         int tileWidth, int tileHeight, long[] tileTimesUs) {
+        mPath = path;
+        mDurationUs = durationUs;
+        mBytes = bytes;
+        mWidth = width;
+        mHeight = height;
+        mKeyFrames = keyFrames;
+        mPoster = poster;
+        mSprite = sprite;
+        mSpriteColumns = spriteColumns;
+        mTileWidth = tileWidth;
+        mTileHeight = tileHeight;
+        mTileTimesUs = tileTimesUs;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the average bit rate of the recording, container included.
+     */
+    public long getBitRate() {
+        return mDurationUs > 0 ? mBytes * 8 * 1000000 / mDurationUs : 0;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getKeyFrames() {
+        return mKeyFrames;
+    }
+
+    public File getPoster() {
+        return mPoster;
+    }
+
+    public File getSprite() {
+        return mSprite;
+    }
+
+    public int getSpriteColumns() {
+        return mSpriteColumns;
+    }
+
+    public int getTileWidth() {
+        return mTileWidth;
+    }
+
+    public int getTileHeight() {
+        return mTileHeight;
+    }
+
+    public int getTileCount() {
+        return mTileTimesUs.length;
+    }
+
+    public long getTileTimeUs(int tile) {
+        return mTileTimesUs[tile];
+    }
+
+    public static RecordingInfo read(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            String[] times = properties.getProperty(KEY_TILE_TIMES_US, "").split(",");
+            long[] tileTimesUs = new long[times[0].isEmpty() ? 0 : times.length];
+            for (int i = 0; i < tileTimesUs.length; i++) {
+                tileTimesUs[i] = Long.parseLong(times[i]);
+            }
+            return new RecordingInfo(properties.getProperty(KEY_PATH),
+                    Long.parseLong(properties.getProperty(KEY_DURATION_US)),
+                    Long.parseLong(properties.getProperty(KEY_BYTES)),
+                    Integer.parseInt(properties.getProperty(KEY_WIDTH)),
+                    Integer.parseInt(properties.getProperty(KEY_HEIGHT)),
+                    Integer.parseInt(properties.getProperty(KEY_KEY_FRAMES)),
+                    new File(properties.getProperty(KEY_POSTER)),
+                    new File(properties.getProperty(KEY_SPRITE)),
+                    Integer.parseInt(properties.getProperty(KEY_SPRITE_COLUMNS)),
+                    Integer.parseInt(properties.getProperty(KEY_TILE_WIDTH)),
+                    Integer.parseInt(properties.getProperty(KEY_TILE_HEIGHT)), tileTimesUs);
+        } catch (RuntimeException e) {
+            // A missing key or a malformed number.
+            throw new IOException("Invalid recording info " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Writes the info into a temporary file renamed to the given one, so that a partly
+     * written info is never read.
+     */
+    public void write(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_PATH, mPath);
+        properties.setProperty(KEY_DURATION_US, Long.toString(mDurationUs));
+        properties.setProperty(KEY_BYTES, Long.toString(mBytes));
+        properties.setProperty(KEY_WIDTH, Integer.toString(mWidth));
+        properties.setProperty(KEY_HEIGHT, Integer.toString(mHeight));
+        properties.setProperty(KEY_KEY_FRAMES, Integer.toString(mKeyFrames));
+        properties.setProperty(KEY_POSTER, mPoster.getPath());
+        properties.setProperty(KEY_SPRITE, mSprite.getPath());
+        properties.setProperty(KEY_SPRITE_COLUMNS, Integer.toString(mSpriteColumns));
+        properties.setProperty(KEY_TILE_WIDTH, Integer.toString(mTileWidth));
+        properties.setProperty(KEY_TILE_HEIGHT, Integer.toString(mTileHeight));
+        StringBuilder times = new StringBuilder();
+        for (int i = 0; i < mTileTimesUs.length; i++) {
+            if (i > 0) {
+                times.append(',');
+            }
+            times.append(mTileTimesUs[i]);
+        }
+        properties.setProperty(KEY_TILE_TIMES_US, times.toString());
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mPath + ": " + mWidth + "x" + mHeight + ", " + mDurationUs / 1000 + " ms, " +
+                mBytes + " bytes, " + getBitRate() + " bps, key frames: " + mKeyFrames;
+    }
+}
@@ -0,0 +1,322 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Post-processes the finished recordings on a bounded pool of background threads: a
+ * poster thumbnail, a scrub sprite sheet and the statistics of each recording, see
+ * {@link RecordingInfo}. Only key frames are decoded, at the times of the
+ * {@link KeyFrameIndex} of the recording if it has one. The results are cached by the
+ * path, size and modification time of the recording, so a recording is processed once.
+ */
+public class RecordingProcessor {
+
+    private static final String TAG = "RecordingProcessor";
+
+    public interface Callback {
+
+        /**
+         * Called on a worker thread when the info of the recording is ready.
+         */
+        void onProcessed(RecordingInfo info);
+
+        void onFailed(String path, String message);
+    }
+
+    private static final String INFO_FILE = "info.properties";
+    private static final String POSTER_FILE = "poster.jpg";
+    private static final String SPRITE_FILE = "sprite.jpg";
+    private static final int POSTER_WIDTH = 320;
+    private static final int TILE_WIDTH = 160;
+    private static final int SPRITE_COLUMNS = 5;
+    private static final int MAX_TILES = 25;
+    private static final int JPEG_QUALITY = 80;
+
+    private final File mCacheDir;
+    private final ThreadPoolExecutor mExecutor;
+    // The paths being processed, so that a recording isn't processed twice at once.
+    private final Set<String> mPending = new HashSet<String>();
+
+    /**
+     * @param threads the number of recordings processed at once
+     * @param maxQueued the number of recordings waiting for a thread, more are refused
+     */
+    public RecordingProcessor(File cacheDir, int threads, int maxQueued) {
+        mCacheDir = cacheDir;
+        final AtomicInteger count = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "PostProcessThread-" + count.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Returns the cached info of the recording or null if it isn't processed yet or it's
+     * changed since. Reads a small file, can be called on any thread but the UI one.
+     */
+    public RecordingInfo getCached(String path) {
+        File info = new File(getCacheDir(new File(path)), INFO_FILE);
+        if (!info.exists()) {
+            return null;
+        }
+        try {
+            return RecordingInfo.read(info);
+        } catch (IOException e) {
+            Log.w(TAG, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Processes the recording in the background, or gives the cached info.
+     */
+    public void process(final String path, final Callback callback) {
+        synchronized (mPending) {
+            if (!mPending.add(path)) {
+                return;
+            }
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        RecordingInfo info = getCached(path);
+                        if (info == null) {
+                            info = processRecording(path);
+                        }
+                        callback.onProcessed(info);
+                    } catch (IOException e) {
+                        callback.onFailed(path, e.getMessage());
+                    } catch (RuntimeException e) {
+                        // MediaMetadataRetriever throws for the files it can't open.
+                        callback.onFailed(path, e.toString());
+                    } finally {
+                        synchronized (mPending) {
+                            mPending.remove(path);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (mPending) {
+                mPending.remove(path);
+            }
+            callback.onFailed(path, mExecutor.isShutdown() ? "The processor is shut down" :
+                    "Too many recordings to process");
+        }
+    }
+
+    /**
+     * Deletes the cached results of a deleted recording, can be called on any thread but
+     * the UI one.
+     */
+    public void purge(String path) {
+        deleteStaleVersions(new File(path), null);
+    }
+
+    /**
+     * Lets the queued recordings finish and stops the threads.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Returns the cache directory of the recording, named after the file and its version.
+     */
+    private File getCacheDir(File recording) {
+        long version = recording.getAbsolutePath().hashCode() * 31L + recording.length();
+        version = version * 31 + recording.lastModified();
+        return new File(mCacheDir, recording.getName() + "-" + Long.toHexString(version));
+    }
+
+    private RecordingInfo processRecording(String path) throws IOException {
+        File recording = new File(path);
+        if (!recording.isFile()) {
+            throw new IOException("No recording " + path);
+        }
+        long start = System.nanoTime();
+        File dir = getCacheDir(recording);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        deleteStaleVersions(recording, dir);
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            long durationUs = parseLong(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_DURATION)) * 1000;
+            int width = (int) parseLong(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int height = (int) parseLong(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            if (width <= 0 || height <= 0) {
+                throw new IOException("No video in " + path);
+            }
+
+            KeyFrameIndex index = null;
+            File sidecar = KeyFrameIndex.getSidecar(path);
+            if (sidecar.exists() && sidecar.lastModified() >= recording.lastModified()) {
+                try {
+                    index = KeyFrameIndex.read(sidecar);
+                } catch (IOException e) {
+                    Log.w(TAG, e.getMessage());
+                }
+            }
+            long[] tileTimesUs = getTileTimes(index, durationUs);
+            int tileHeight = Math.max(1, TILE_WIDTH * height / width);
+            File sprite = new File(dir, SPRITE_FILE);
+            writeSprite(retriever, tileTimesUs, tileHeight, sprite);
+
+            // The first frame is often the blank display before the content is drawn.
+            File poster = new File(dir, POSTER_FILE);
+            Bitmap frame = retriever.getFrameAtTime(durationUs / 10,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (frame == null) {
+                throw new IOException("Can't decode a frame of " + path);
+            }
+            Bitmap thumbnail = Bitmap.createScaledBitmap(frame, POSTER_WIDTH,
+                    Math.max(1, POSTER_WIDTH * height / width), true);
+            writeJpeg(thumbnail, poster);
+            frame.recycle();
+            thumbnail.recycle();
+
+            RecordingInfo info = new RecordingInfo(path, durationUs, recording.length(), width,
+                    height, index != null ? index.size() : -1, poster, sprite, SPRITE_COLUMNS,
+                    TILE_WIDTH, tileHeight, tileTimesUs);
+            info.write(new File(dir, INFO_FILE));
+            Log.d(TAG, "Processed " + info + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return info;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Returns the times of the sprite tiles: key frames spread evenly over the recording.
+     * Without the index, the times are spread evenly and snap to the key frames when
+     * decoded.
+     */
+    private static long[] getTileTimes(KeyFrameIndex index, long durationUs) {
+        if (index != null && index.size() > 0) {
+            int count = Math.min(MAX_TILES, index.size());
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = index.getKeyFrameTimeUs((int) ((long) i * index.size() / count));
+            }
+            return times;
+        }
+        long[] times = new long[MAX_TILES];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = durationUs * i / times.length;
+        }
+        return times;
+    }
+
+    private static void writeSprite(MediaMetadataRetriever retriever, long[] timesUs,
+                                    int tileHeight, File file) throws IOException {
+        int rows = (timesUs.length + SPRITE_COLUMNS - 1) / SPRITE_COLUMNS;
+        Bitmap sprite = Bitmap.createBitmap(SPRITE_COLUMNS * TILE_WIDTH, rows * tileHeight,
+                Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(sprite);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect dst = new Rect();
+        for (int i = 0; i < timesUs.length; i++) {
+            Bitmap frame = retriever.getFrameAtTime(timesUs[i],
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (frame == null) {
+                continue;
+            }
+            int x = (i % SPRITE_COLUMNS) * TILE_WIDTH;
+            int y = (i / SPRITE_COLUMNS) * tileHeight;
+            dst.set(x, y, x + TILE_WIDTH, y + tileHeight);
+            canvas.drawBitmap(frame, null, dst, paint);
+            frame.recycle();
+        }
+        try {
+            writeJpeg(sprite, file);
+        } finally {
+            sprite.recycle();
+        }
+    }
+
+    /**
+     * Deletes the results of the previous versions of the recording, e.g. when a new
+     * session is recorded into the same file.
+     */
+    private void deleteStaleVersions(File recording, File current) {
+        File[] dirs = mCacheDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        String prefix = recording.getName() + "-";
+        for (File dir : dirs) {
+            if (!dir.getName().startsWith(prefix) || dir.equals(current)) {
+                continue;
+            }
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static void writeJpeg(Bitmap bitmap, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("Can't compress " + file);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + file);
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Metadata of an encoded sample. It mirrors {@link android.media.MediaCodec.BufferInfo}
+ * but doesn't depend on the framework, so pipeline stages can be exercised on the JVM.
+ * An instance is reused for every sample, so a consumer must copy the values it wants
+ * to keep.
+ */
+public class SampleInfo {
+
+    // The values are the same as MediaCodec.BUFFER_FLAG_* ones.
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public void set(SampleInfo other) {
+        set(other.offset, other.size, other.presentationTimeUs, other.flags);
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (flags & FLAG_END_OF_STREAM) != 0;
+    }
+}
@@ -0,0 +1,22 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes encoded samples into a container. {@link MediaMuxerAdapter} is the
+ * implementation backed by MediaMuxer.
+ */
+public interface SampleMuxer {
+
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info);
+
+    void stop();
+
+    void release();
+}
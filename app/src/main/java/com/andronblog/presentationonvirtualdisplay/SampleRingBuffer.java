@@ -0,0 +1,291 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the encoded samples of the last N seconds in memory, so that they can be saved
+ * on demand without writing the whole session to disk.
+ *
+ * The samples are stored in a preallocated direct buffer divided into fixed-capacity
+ * slots, a sample takes one or more contiguous slots. The window always starts with a
+ * key frame. {@link #flush(SampleMuxer)} hands the stored slots to a muxer without
+ * copying them, while the encoder keeps writing the new samples into the free slots.
+ * The buffer is allocated when the first sample comes, so a session which is prepared
+ * but never started doesn't take the memory, and no allocation is done afterwards.
+ */
+public class SampleRingBuffer implements SampleSink {
+
+    private static final String TAG = "SampleRingBuffer";
+
+    private final long mWindowUs;
+    private final int mSlotCapacity;
+    private final int mSlotCount;
+    // Allocated with the first sample.
+    private ByteBuffer mArena;
+    // The view used by flush, so that it doesn't share position and limit with the writer.
+    private ByteBuffer mReadView;
+    private final SampleInfo mReadInfo = new SampleInfo();
+
+    // The metadata of the stored samples indexed by sequence number modulo capacity.
+    private final int mCapacity;
+    private final long[] mPts;
+    private final int[] mSize;
+    private final int[] mFlags;
+    private final int[] mDataSlot;
+    // The slots taken by a sample including the padding skipped at the end of the arena.
+    private final int[] mUsedSlots;
+
+    private long mFirstSeq;
+    private long mNextSeq;
+    private int mFreeSlots;
+    private int mHeadSlot;
+
+    // Samples with sequence number in [mPinSeq, mPinEndSeq) are being flushed.
+    private long mPinSeq;
+    private long mPinEndSeq;
+    private boolean mFlushing;
+
+    private boolean mDropUntilKeyFrame = true;
+    private MediaFormat mFormat;
+    private long mDroppedSamples;
+
+    /**
+     * @param windowUs the duration of the kept samples, it's exceeded by up to one
+     *                 key frame interval to start with a key frame
+     * @param slotCount the number of slots, it's also the maximum number of samples
+     * @param slotCapacity the capacity of a slot in bytes
+     */
+    public SampleRingBuffer(long windowUs, int slotCount, int slotCapacity) {
+        mWindowUs = windowUs;
+        mSlotCount = slotCount;
+        mSlotCapacity = slotCapacity;
+        mCapacity = slotCount;
+        mPts = new long[mCapacity];
+        mSize = new int[mCapacity];
+        mFlags = new int[mCapacity];
+        mDataSlot = new int[mCapacity];
+        mUsedSlots = new int[mCapacity];
+        mFreeSlots = slotCount;
+    }
+
+    /**
+     * Creates a buffer large enough to keep the window at the given bit rate, up to the
+     * given size. A smaller buffer keeps a shorter window.
+     */
+    public static SampleRingBuffer forBitRate(int windowSeconds, int bitRate, int slotCapacity,
+                                              long maxBytes) {
+        // Leave a half of headroom for the key frame interval and the bit rate peaks.
+        long bytes = Math.min(maxBytes, (long) windowSeconds * bitRate / 8 * 3 / 2);
+        int slotCount = (int) Math.max(1, bytes / slotCapacity);
+        return new SampleRingBuffer(windowSeconds * 1000000L, slotCount, slotCapacity);
+    }
+
+    @Override
+    public synchronized void onOutputFormat(MediaFormat format) {
+        mFormat = format;
+    }
+
+    @Override
+    public synchronized void onSample(ByteBuffer buffer, SampleInfo info) {
+        // The codec config is a part of the output format.
+        if (info.isCodecConfig() || info.size == 0) {
+            return;
+        }
+        boolean keyFrame = info.isKeyFrame();
+        if (mDropUntilKeyFrame) {
+            if (!keyFrame) {
+                mDroppedSamples++;
+                return;
+            }
+            mDropUntilKeyFrame = false;
+        }
+
+        int span = (info.size + mSlotCapacity - 1) / mSlotCapacity;
+        if (span > mSlotCount || !allocate(span, keyFrame)) {
+            // Keep the stored samples decodable: skip the rest of the key frame interval.
+            mDroppedSamples++;
+            mDropUntilKeyFrame = true;
+            return;
+        }
+
+        if (mArena == null) {
+            mArena = ByteBuffer.allocateDirect(mSlotCount * mSlotCapacity);
+            mReadView = mArena.duplicate();
+        }
+        int index = (int) (mNextSeq % mCapacity);
+        int used = slotsNeeded(span);
+        int dataSlot = (mHeadSlot + span > mSlotCount) ? 0 : mHeadSlot;
+        mDataSlot[index] = dataSlot;
+        mUsedSlots[index] = used;
+        mPts[index] = info.presentationTimeUs;
+        mSize[index] = info.size;
+        mFlags[index] = info.flags;
+        mFreeSlots -= used;
+        mHeadSlot = (dataSlot + span) % mSlotCount;
+        mNextSeq++;
+
+        mArena.limit((dataSlot * mSlotCapacity) + info.size);
+        mArena.position(dataSlot * mSlotCapacity);
+        mArena.put(buffer);
+
+        if (keyFrame) {
+            evictOutdated(info.presentationTimeUs);
+        }
+    }
+
+    @Override
+    public synchronized void onEndOfStream() {
+        mDropUntilKeyFrame = true;
+    }
+
+    /**
+     * Returns the number of slots a sample with the given span takes at the head: the
+     * sample doesn't wrap around, so the slots till the end of the arena are skipped.
+     */
+    private int slotsNeeded(int span) {
+        return span + (mHeadSlot + span > mSlotCount ? mSlotCount - mHeadSlot : 0);
+    }
+
+    /**
+     * Evicts the oldest samples until there are enough free slots for a sample with the
+     * given span. Returns false if the pinned samples prevent that or if the last key
+     * frame interval had to be evicted for a sample which isn't a key frame.
+     */
+    private boolean allocate(int span, boolean keyFrame) {
+        while (mFreeSlots < slotsNeeded(span)) {
+            if (mFirstSeq == mNextSeq || !evictOldestKeyFrameInterval(keyFrame)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evicts whole key frame intervals while the window is still covered without them.
+     */
+    private void evictOutdated(long newestPts) {
+        while (true) {
+            long next = nextKeyFrame(mFirstSeq);
+            if (next < 0 || newestPts - mPts[(int) (next % mCapacity)] < mWindowUs) {
+                return;
+            }
+            if (!evictOldestKeyFrameInterval(false)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evicts the samples from the oldest key frame till the next one.
+     *
+     * @param evictLast whether the last key frame interval can be evicted
+     */
+    private boolean evictOldestKeyFrameInterval(boolean evictLast) {
+        long next = nextKeyFrame(mFirstSeq);
+        if (next < 0 && !evictLast) {
+            return false;
+        }
+        long end = next < 0 ? mNextSeq : next;
+        if (mFlushing && end > mPinSeq && mFirstSeq < mPinEndSeq) {
+            return false;
+        }
+        while (mFirstSeq < end) {
+            mFreeSlots += mUsedSlots[(int) (mFirstSeq % mCapacity)];
+            mFirstSeq++;
+        }
+        if (mFirstSeq == mNextSeq) {
+            mFreeSlots = mSlotCount;
+            mHeadSlot = 0;
+        }
+        return true;
+    }
+
+    private long nextKeyFrame(long fromSeq) {
+        for (long seq = fromSeq + 1; seq < mNextSeq; seq++) {
+            if ((mFlags[(int) (seq % mCapacity)] & SampleInfo.FLAG_KEY_FRAME) != 0) {
+                return seq;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the stored window into the muxer and releases it. The capture isn't
+     * interrupted, it must be called on a thread other than the encoder one.
+     * Returns the number of written samples.
+     */
+    public int flush(SampleMuxer muxer) {
+        long first;
+        long end;
+        MediaFormat format;
+        synchronized (this) {
+            if (mFlushing) {
+                throw new IllegalStateException("The buffer is already being flushed");
+            }
+            if (mFormat == null || mFirstSeq == mNextSeq) {
+                muxer.release();
+                return 0;
+            }
+            first = mFirstSeq;
+            end = mNextSeq;
+            format = mFormat;
+            mPinSeq = first;
+            mPinEndSeq = end;
+            mFlushing = true;
+        }
+        int written = 0;
+        try {
+            int track = muxer.addTrack(format);
+            muxer.start();
+            for (long seq = first; seq < end; seq++) {
+                int index = (int) (seq % mCapacity);
+                int offset = mDataSlot[index] * mSlotCapacity;
+                mReadView.limit(offset + mSize[index]);
+                mReadView.position(offset);
+                mReadInfo.set(offset, mSize[index], mPts[index], mFlags[index]);
+                muxer.writeSampleData(track, mReadView, mReadInfo);
+                written++;
+                synchronized (this) {
+                    // Let the writer reuse the slots already written.
+                    mPinSeq = seq + 1;
+                }
+            }
+            muxer.stop();
+        } finally {
+            muxer.release();
+            synchronized (this) {
+                mFlushing = false;
+            }
+        }
+        Log.d(TAG, "Flushed " + written + " samples");
+        return written;
+    }
+
+    /**
+     * Returns the duration of the stored window in microseconds.
+     */
+    public synchronized long getBufferedDurationUs() {
+        if (mFirstSeq == mNextSeq) {
+            return 0;
+        }
+        return mPts[(int) ((mNextSeq - 1) % mCapacity)] - mPts[(int) (mFirstSeq % mCapacity)];
+    }
+
+    public synchronized int getBufferedSamples() {
+        return (int) (mNextSeq - mFirstSeq);
+    }
+
+    public synchronized long getDroppedSamples() {
+        return mDroppedSamples;
+    }
+
+    /**
+     * Returns the size of the buffer, which is allocated with the first sample.
+     */
+    public int getCapacityBytes() {
+        return mSlotCount * mSlotCapacity;
+    }
+}
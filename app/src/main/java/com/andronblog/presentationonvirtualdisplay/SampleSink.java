@@ -0,0 +1,22 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stage receiving the encoded samples of {@link EncoderPipeline}. All methods are
+ * called on the encoder thread.
+ */
+public interface SampleSink {
+
+    void onOutputFormat(MediaFormat format);
+
+    /**
+     * The buffer content is valid only during the call, its position and limit are
+     * set to the sample data.
+     */
+    void onSample(ByteBuffer buffer, SampleInfo info);
+
+    void onEndOfStream();
+}
@@ -0,0 +1,119 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Muxer stage writing the session into a sequence of files. A new segment is started at
+ * a key frame once the current one reaches the maximum duration or size, so every closed
+ * segment is a complete playable file and a crash loses at most the open one.
+ */
+public class SegmentedMuxerSink implements SampleSink {
+
+    private static final String TAG = "SegmentedMuxerSink";
+
+    private final MuxerFactory mMuxerFactory;
+    private final String mBasePath;
+    private final String mExtension;
+    private final long mMaxDurationUs;
+    private final long mMaxBytes;
+
+    private MediaFormat mFormat;
+    private SampleMuxer mMuxer;
+    private int mTrackIndex;
+    private int mSegmentIndex;
+    private String mSegmentPath;
+    private long mSegmentStartUs;
+    private long mSegmentEndUs;
+    private long mSegmentBytes;
+
+    /**
+     * @param basePath the segments are named basePath_NNN.extension
+     * @param maxDurationUs the duration a segment is closed after
+     * @param maxBytes the size a segment is closed after, 0 means no limit
+     */
+    public SegmentedMuxerSink(MuxerFactory muxerFactory, String basePath, String extension,
+                              long maxDurationUs, long maxBytes) {
+        mMuxerFactory = muxerFactory;
+        mBasePath = basePath;
+        mExtension = extension;
+        mMaxDurationUs = maxDurationUs;
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        mFormat = format;
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        // The codec config is a part of the output format.
+        if (info.isCodecConfig() || info.size == 0 || mFormat == null) {
+            return;
+        }
+        if (info.isKeyFrame() && (mMuxer == null || isSegmentFull(info.presentationTimeUs))) {
+            closeSegment();
+            openSegment(info.presentationTimeUs);
+        }
+        if (mMuxer == null) {
+            // Wait for a key frame to start a segment.
+            return;
+        }
+        mMuxer.writeSampleData(mTrackIndex, buffer, info);
+        mSegmentBytes += info.size;
+        mSegmentEndUs = info.presentationTimeUs;
+    }
+
+    @Override
+    public void onEndOfStream() {
+        closeSegment();
+    }
+
+    public int getSegmentCount() {
+        return mSegmentIndex;
+    }
+
+    private boolean isSegmentFull(long presentationTimeUs) {
+        return presentationTimeUs - mSegmentStartUs >= mMaxDurationUs
+                || (mMaxBytes > 0 && mSegmentBytes >= mMaxBytes);
+    }
+
+    private void openSegment(long presentationTimeUs) {
+        String path = String.format(Locale.US, "%s_%03d.%s", mBasePath, mSegmentIndex, mExtension);
+        try {
+            mMuxer = mMuxerFactory.create(path);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't create segment " + path, e);
+            mMuxer = null;
+            return;
+        }
+        mTrackIndex = mMuxer.addTrack(mFormat);
+        mMuxer.start();
+        mSegmentIndex++;
+        mSegmentPath = path;
+        mSegmentStartUs = presentationTimeUs;
+        mSegmentEndUs = presentationTimeUs;
+        mSegmentBytes = 0;
+        Log.d(TAG, "Open segment " + path);
+    }
+
+    private void closeSegment() {
+        if (mMuxer == null) {
+            return;
+        }
+        try {
+            mMuxer.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Stop muxer failed: " + e.getMessage());
+        }
+        mMuxer.release();
+        mMuxer = null;
+        Log.d(TAG, "Close segment " + mSegmentPath + " duration: " +
+                (mSegmentEndUs - mSegmentStartUs) + "us bytes: " + mSegmentBytes);
+    }
+}
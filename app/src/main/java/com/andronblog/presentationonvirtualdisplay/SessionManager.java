@@ -0,0 +1,208 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the capture sessions keyed by the id of their virtual display. Each session has
+ * its own presentation and encoder, the encoders share the threads of a pool.
+ *
+ * The sessions are started and stopped on a control thread, the display events are
+ * received on a display thread and the presentations are shown on the UI thread.
+ */
+public class SessionManager implements DisplayManager.DisplayListener {
+
+    private static final String TAG = "SessionManager";
+
+    private final Context mContext;
+    private final DisplayManager mDisplayManager;
+    private final Handler mDisplayHandler;
+    private final Handler mMainHandler;
+    private final EncoderThreadPool mThreadPool;
+    private final SparseArray<CaptureSession> mSessions = new SparseArray<CaptureSession>();
+    private final SparseArray<Handler> mSessionHandlers = new SparseArray<Handler>();
+    // The display events can come before the session is registered. The displays added
+    // meanwhile are kept here, the value tells if the display has been changed as well.
+    private final SparseBooleanArray mEarlyDisplays = new SparseBooleanArray();
+
+    /**
+     * @param displayHandler the handler the display events are received on
+     * @param mainHandler the handler of the UI thread the presentations are shown on
+     */
+    public SessionManager(Context context, int encoderThreads, Handler displayHandler,
+                          Handler mainHandler) {
+        mContext = context;
+        mDisplayHandler = displayHandler;
+        mMainHandler = mainHandler;
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mDisplayManager.registerDisplayListener(this, displayHandler);
+        mThreadPool = new EncoderThreadPool(encoderThreads);
+    }
+
+    /**
+     * Returns a handler of an encoder thread for a new session. It must be passed to
+     * {@link #startSession} or given back by {@link #releaseEncoderHandler(Handler)}.
+     */
+    public Handler acquireEncoderHandler() {
+        return mThreadPool.acquire();
+    }
+
+    public void releaseEncoderHandler(Handler handler) {
+        mThreadPool.release(handler);
+    }
+
+    /**
+     * Starts the session. On failure the session is stopped and the handler is released.
+     *
+     * @param encoderHandler the handler the session pipeline was created with
+     */
+    public CaptureSession startSession(CaptureSession session, Handler encoderHandler,
+                                       MediaProjection projection, int densityDpi) throws IOException {
+        try {
+            session.start(projection, densityDpi, mDisplayHandler);
+        } catch (IOException e) {
+            session.stop();
+            mThreadPool.release(encoderHandler);
+            throw e;
+        }
+        int displayId = session.getDisplayId();
+        int count;
+        synchronized (this) {
+            mSessions.put(displayId, session);
+            mSessionHandlers.put(displayId, encoderHandler);
+            count = mSessions.size();
+            int early = mEarlyDisplays.indexOfKey(displayId);
+            if (early >= 0) {
+                session.onDisplayAdded();
+                if (mEarlyDisplays.valueAt(early)) {
+                    showPresentation(session, displayId);
+                }
+                mEarlyDisplays.removeAt(early);
+            }
+        }
+        Log.d(TAG, "Started " + session.getName() + " on display " + displayId +
+                ", sessions: " + count);
+        return session;
+    }
+
+    public void stopSession(int displayId) {
+        CaptureSession session;
+        Handler handler;
+        synchronized (this) {
+            session = mSessions.get(displayId);
+            if (session == null) {
+                return;
+            }
+            handler = mSessionHandlers.get(displayId);
+            mSessions.remove(displayId);
+            mSessionHandlers.remove(displayId);
+        }
+        // Stopping waits for the end of stream, don't hold the lock meanwhile.
+        dismissPresentation(session);
+        session.stop();
+        mThreadPool.release(handler);
+    }
+
+    public void stopAll() {
+        while (true) {
+            int displayId;
+            synchronized (this) {
+                if (mSessions.size() == 0) {
+                    return;
+                }
+                displayId = mSessions.keyAt(0);
+            }
+            stopSession(displayId);
+        }
+    }
+
+    public synchronized int getSessionCount() {
+        return mSessions.size();
+    }
+
+    public synchronized CaptureSession getSession(int displayId) {
+        return mSessions.get(displayId);
+    }
+
+    /**
+     * Returns the handler of the encoder thread the session of the display runs on.
+     */
+    public synchronized Handler getEncoderHandler(int displayId) {
+        return mSessionHandlers.get(displayId);
+    }
+
+    public synchronized List<CaptureSession> getSessions() {
+        List<CaptureSession> sessions = new ArrayList<CaptureSession>(mSessions.size());
+        for (int i = 0; i < mSessions.size(); i++) {
+            sessions.add(mSessions.valueAt(i));
+        }
+        return sessions;
+    }
+
+    public void release() {
+        stopAll();
+        mDisplayManager.unregisterDisplayListener(this);
+        mThreadPool.quit();
+    }
+
+    private void showPresentation(final CaptureSession session, final int displayId) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                session.showPresentation(mContext, mDisplayManager.getDisplay(displayId));
+            }
+        });
+    }
+
+    private void dismissPresentation(final CaptureSession session) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                session.dismissPresentation();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void onDisplayAdded(int i) {
+        Log.d(TAG, "onDisplayAdded id=" + i);
+        CaptureSession session = mSessions.get(i);
+        if (session != null) {
+            session.onDisplayAdded();
+        } else {
+            mEarlyDisplays.put(i, false);
+        }
+    }
+
+    @Override
+    public synchronized void onDisplayRemoved(int i) {
+        Log.d(TAG, "onDisplayRemoved id=" + i);
+        mEarlyDisplays.delete(i);
+        CaptureSession session = mSessions.get(i);
+        if (session != null) {
+            dismissPresentation(session);
+        }
+    }
+
+    @Override
+    public synchronized void onDisplayChanged(int i) {
+        Log.d(TAG, "onDisplayChanged id=" + i);
+        CaptureSession session = mSessions.get(i);
+        if (session != null) {
+            if (session.isPresentationPending()) {
+                showPresentation(session, i);
+            }
+        } else if (mEarlyDisplays.indexOfKey(i) >= 0) {
+            mEarlyDisplays.put(i, true);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Instrumentation of a session: frames rendered by the presentation, frames encoded and
+ * dropped, encoded bytes, encode and muxer write latency, the storage counters of the
+ * {@link StorageWriter} of the recording and the state of the {@link BitrateController}
+ * of the encoder if any. The counters are updated on the pipeline
+ * threads without locks and allocations, and can be read from any thread.
+ */
+public class SessionMetrics implements SampleSink {
+
+    private static final String TAG = "SessionMetrics";
+
+    private final AtomicLong mFramesRendered = new AtomicLong();
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mKeyFrames = new AtomicLong();
+    private final AtomicLong mFramesDropped = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final LatencyHistogram mEncodeLatency = new LatencyHistogram();
+    private final LatencyHistogram mMuxerLatency = new LatencyHistogram();
+    private volatile long mFirstPtsUs = -1;
+    private volatile long mLastPtsUs = -1;
+    private volatile long mStartRequestNs = -1;
+    private volatile long mTimeToFirstFrameUs = -1;
+    private volatile StorageWriter mStorageWriter;
+    private volatile BitrateController mBitrateController;
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        if (info.isCodecConfig()) {
+            return;
+        }
+        mFrames.incrementAndGet();
+        if (info.isKeyFrame()) {
+            mKeyFrames.incrementAndGet();
+        }
+        mBytes.addAndGet(info.size);
+        if (mFirstPtsUs < 0) {
+            mFirstPtsUs = info.presentationTimeUs;
+            if (mStartRequestNs >= 0) {
+                mTimeToFirstFrameUs = (System.nanoTime() - mStartRequestNs) / 1000;
+                Log.i(TAG, "Time to first encoded frame: " + mTimeToFirstFrameUs / 1000 + " ms");
+            }
+        }
+        mLastPtsUs = info.presentationTimeUs;
+        // The frames of the virtual display are stamped with System.nanoTime().
+        mEncodeLatency.record(System.nanoTime() / 1000 - info.presentationTimeUs);
+    }
+
+    @Override
+    public void onEndOfStream() {
+    }
+
+    /**
+     * Called when the user asks to start the session, the time to the first encoded frame
+     * is measured from it.
+     */
+    public void markStartRequested(long nowNs) {
+        mStartRequestNs = nowNs;
+    }
+
+    /**
+     * Returns the time from the start request to the first encoded frame, or -1 if it
+     * isn't known yet.
+     */
+    public long getTimeToFirstFrameUs() {
+        return mTimeToFirstFrameUs;
+    }
+
+    /**
+     * Called when the presentation draws a frame.
+     */
+    public void recordFrameRendered() {
+        mFramesRendered.incrementAndGet();
+    }
+
+    /**
+     * Called by a stage dropping frames.
+     */
+    public void recordFramesDropped(int count) {
+        mFramesDropped.addAndGet(count);
+    }
+
+    /**
+     * Sets the writer the storage counters are taken from. A reconfigured session sets
+     * the writer of its new file, the counters are then the ones of that file.
+     */
+    public void setStorageWriter(StorageWriter writer) {
+        mStorageWriter = writer;
+    }
+
+    /**
+     * Sets the controller the bit rate state is taken from. A reconfigured session sets
+     * the controller of its new encoder.
+     */
+    public void setBitrateController(BitrateController controller) {
+        mBitrateController = controller;
+    }
+
+    /**
+     * Returns the histogram the muxer write time should be recorded into.
+     */
+    public LatencyHistogram getMuxerLatency() {
+        return mMuxerLatency;
+    }
+
+    public LatencyHistogram getEncodeLatency() {
+        return mEncodeLatency;
+    }
+
+    public long getFramesRendered() {
+        return mFramesRendered.get();
+    }
+
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    public long getKeyFrames() {
+        return mKeyFrames.get();
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped.get();
+    }
+
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    public long getDurationUs() {
+        return mFirstPtsUs < 0 ? 0 : mLastPtsUs - mFirstPtsUs;
+    }
+
+    /**
+     * Returns the average encoded frame rate over the session.
+     */
+    public float getFrameRate() {
+        long durationUs = getDurationUs();
+        return durationUs > 0 ? (getFrames() - 1) * 1000000f / durationUs : 0;
+    }
+
+    /**
+     * Returns the average bit rate over the session.
+     */
+    public long getBitRate() {
+        long durationUs = getDurationUs();
+        return durationUs > 0 ? getBytes() * 8 * 1000000 / durationUs : 0;
+    }
+
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot.Storage storage = null;
+        StorageWriter writer = mStorageWriter;
+        if (writer != null) {
+            storage = new MetricsSnapshot.Storage(writer.getBytesWritten(),
+                    writer.getThroughput(), writer.getMaxStallUs(), writer.getSyncs(),
+                    writer.getSyncTimeUs());
+        }
+        MetricsSnapshot.Bitrate bitrate = null;
+        BitrateController controller = mBitrateController;
+        if (controller != null) {
+            bitrate = new MetricsSnapshot.Bitrate(controller.getTargetBitRate(),
+                    controller.getMeasuredBitRate(), controller.getLagFrames(),
+                    controller.getAdjustmentCount(), controller.getLastDecision());
+        }
+        return new MetricsSnapshot(System.nanoTime() / 1000, getFramesRendered(), getFrames(),
+                getKeyFrames(), getFramesDropped(), getBytes(), mEncodeLatency.snapshot(),
+                mMuxerLatency.snapshot(), storage, bitrate);
+    }
+
+    @Override
+    public String toString() {
+        return "frames: " + getFrames() + " (key: " + getKeyFrames() + ", dropped: " +
+                getFramesDropped() + "), fps: " + getFrameRate() + ", bitrate: " + getBitRate();
+    }
+}
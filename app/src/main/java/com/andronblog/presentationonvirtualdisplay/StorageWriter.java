@@ -0,0 +1,218 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a recording through a FileChannel in large blocks: the small sample writes are
+ * coalesced into a block of the block size before it's written at an aligned position,
+ * the file is extended by preallocated extents ahead of the writes, and the data is
+ * synced to the storage at most once per sync interval. This keeps a slow card from
+ * stalling the writer on every sample and on metadata updates.
+ *
+ * Writes happen on a single thread, the metrics can be read from any thread.
+ */
+public class StorageWriter {
+
+    private static final String TAG = "StorageWriter";
+
+    // The block size is rounded up to the page size of the storage.
+    private static final int ALIGNMENT = 4096;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBlock;
+    private long mExtentBytes;
+    private final long mSyncIntervalNs;
+    private final LatencyHistogram mWriteLatency;
+
+    private long mPosition;
+    private long mAllocated;
+    private long mLastSyncNs;
+    private boolean mClosed;
+
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mBlocksWritten = new AtomicLong();
+    private final AtomicLong mWriteTimeUs = new AtomicLong();
+    private final AtomicLong mMaxStallUs = new AtomicLong();
+    private final AtomicLong mSyncs = new AtomicLong();
+    private final AtomicLong mSyncTimeUs = new AtomicLong();
+
+    /**
+     * @param blockSize the size of the coalesced writes
+     * @param extentBytes the size the file is extended by ahead of the writes, 0 to not
+     *                    preallocate
+     * @param syncIntervalMs the minimum time between the syncs, 0 to sync only on close
+     * @param writeLatency the histogram the block writes are recorded into, may be null
+     */
+    public StorageWriter(File file, int blockSize, long extentBytes, long syncIntervalMs,
+                         LatencyHistogram writeLatency) throws FileNotFoundException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mBlock = ByteBuffer.allocateDirect((blockSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        mExtentBytes = extentBytes;
+        mSyncIntervalNs = syncIntervalMs * 1000000L;
+        mWriteLatency = writeLatency;
+        mLastSyncNs = System.nanoTime();
+    }
+
+    /**
+     * Copies the remaining bytes of the buffer into the current block, writing the
+     * blocks filled up.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        if (mClosed) {
+            throw new IOException("Writer of " + mFile + " is closed");
+        }
+        ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+            int count = Math.min(src.remaining(), mBlock.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + count);
+            mBlock.put(src);
+            src.limit(limit);
+            if (!mBlock.hasRemaining()) {
+                writeBlock();
+            }
+        }
+        if (mSyncIntervalNs > 0 && System.nanoTime() - mLastSyncNs >= mSyncIntervalNs) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes the partial block and syncs the data to the storage.
+     */
+    public void flush() throws IOException {
+        if (mBlock.position() > 0) {
+            writeBlock();
+        }
+        sync();
+    }
+
+    /**
+     * Flushes the data, gives back the preallocated space the data doesn't use and
+     * closes the file. The file is cut after the data, also when it existed before with
+     * a longer content.
+     */
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mBlock.position() > 0) {
+                writeBlock();
+            }
+            mChannel.truncate(mPosition);
+            sync();
+        } finally {
+            mRandomAccessFile.close();
+        }
+        Log.d(TAG, mFile + ": " + this);
+    }
+
+    private void writeBlock() throws IOException {
+        mBlock.flip();
+        int size = mBlock.remaining();
+        long start = System.nanoTime();
+        if (mExtentBytes > 0 && mPosition + size > mAllocated) {
+            preallocate(mPosition + size);
+        }
+        while (mBlock.hasRemaining()) {
+            mPosition += mChannel.write(mBlock, mPosition);
+        }
+        mBlock.clear();
+        long us = (System.nanoTime() - start) / 1000;
+        mBytesWritten.addAndGet(size);
+        mBlocksWritten.incrementAndGet();
+        mWriteTimeUs.addAndGet(us);
+        if (us > mMaxStallUs.get()) {
+            mMaxStallUs.set(us);
+        }
+        if (mWriteLatency != null) {
+            mWriteLatency.record(us);
+        }
+    }
+
+    /**
+     * Allocates the next extents of the file, so that the block writes don't have to
+     * allocate the space of the file system.
+     */
+    private void preallocate(long end) {
+        long size = (end - mAllocated + mExtentBytes - 1) / mExtentBytes * mExtentBytes;
+        try {
+            Os.posix_fallocate(mRandomAccessFile.getFD(), mAllocated, size);
+            mAllocated += size;
+        } catch (ErrnoException e) {
+            // Not supported by the file system, e.g. FAT of an SD card, the writes go on.
+            Log.w(TAG, "Can't preallocate " + mFile + ": " + e.getMessage());
+            mExtentBytes = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "Can't preallocate " + mFile + ": " + e.getMessage());
+            mExtentBytes = 0;
+        }
+    }
+
+    private void sync() throws IOException {
+        long start = System.nanoTime();
+        mChannel.force(false);
+        mLastSyncNs = System.nanoTime();
+        mSyncs.incrementAndGet();
+        mSyncTimeUs.addAndGet((mLastSyncNs - start) / 1000);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public long getBlocksWritten() {
+        return mBlocksWritten.get();
+    }
+
+    /**
+     * Returns the longest time a block write took, including the preallocation.
+     */
+    public long getMaxStallUs() {
+        return mMaxStallUs.get();
+    }
+
+    public long getSyncs() {
+        return mSyncs.get();
+    }
+
+    public long getSyncTimeUs() {
+        return mSyncTimeUs.get();
+    }
+
+    /**
+     * Returns the write throughput of the storage: the bytes written per second of the
+     * block writes, excluding the syncs.
+     */
+    public long getThroughput() {
+        long us = mWriteTimeUs.get();
+        return us > 0 ? mBytesWritten.get() * 1000000 / us : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "bytes: " + getBytesWritten() + ", blocks: " + getBlocksWritten() +
+                ", bytes/s: " + getThroughput() + ", max stall: " + getMaxStallUs() +
+                " us, syncs: " + getSyncs() + " (" + getSyncTimeUs() + " us)";
+    }
+}
@@ -0,0 +1,361 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Serves a live elementary stream to any number of TCP clients. The sockets are
+ * non-blocking and served by a selector on the server thread, the frames are offered on
+ * the producer thread and never block it.
+ *
+ * Every client has a bounded queue of frames. A client starts with the codec config
+ * followed by the next key frame. If its queue overflows, the queued frames are dropped
+ * and the client waits for the next key frame again, so a slow client only loses its
+ * own frames.
+ */
+public class StreamServer {
+
+    private static final String TAG = "StreamServer";
+
+    private final InetSocketAddress mAddress;
+    private final int mMaxQueuedFrames;
+    private final List<Client> mClients = new ArrayList<Client>();
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mClosed;
+    // Guarded by mClients.
+    private ByteBuffer mCodecConfig;
+    private long mDisconnectedDrops;
+
+    /**
+     * @param address the address to listen on, the port can be 0 to take any free one
+     * @param maxQueuedFrames the number of frames a client can lag behind before its frames
+     *                        are dropped
+     */
+    public StreamServer(InetSocketAddress address, int maxQueuedFrames) {
+        mAddress = address;
+        mMaxQueuedFrames = maxQueuedFrames;
+    }
+
+    public void start() throws IOException {
+        mSelector = Selector.open();
+        try {
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.configureBlocking(false);
+            mServerChannel.socket().setReuseAddress(true);
+            mServerChannel.socket().bind(mAddress);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            if (mServerChannel != null) {
+                mServerChannel.close();
+            }
+            mSelector.close();
+            throw e;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "StreamServer");
+        mThread.start();
+        Log.i(TAG, "Listening on " + mServerChannel.socket().getLocalSocketAddress());
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        synchronized (mClients) {
+            return mClients.size();
+        }
+    }
+
+    public boolean hasClients() {
+        return getClientCount() > 0;
+    }
+
+    /**
+     * Sets the codec config, e.g. SPS and PPS of AVC, sent to every client before its
+     * first key frame. The clients connected already get the new one before the next
+     * key frame.
+     */
+    public void setCodecConfig(ByteBuffer config) {
+        ByteBuffer copy = ByteBuffer.allocate(config.remaining());
+        copy.put(config.duplicate()).flip();
+        synchronized (mClients) {
+            if (copy.equals(mCodecConfig)) {
+                return;
+            }
+            mCodecConfig = copy.asReadOnlyBuffer();
+            for (Client client : mClients) {
+                client.restart();
+            }
+        }
+    }
+
+    /**
+     * Offers an encoded frame to the clients. The data is shared by the clients and must
+     * not be changed afterwards.
+     */
+    public void offer(ByteBuffer frame, boolean keyFrame) {
+        boolean queued = false;
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                queued |= client.offer(frame, keyFrame, mCodecConfig);
+            }
+        }
+        if (queued) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * Returns the number of frames dropped for the slow clients.
+     */
+    public long getDroppedFrames() {
+        long dropped = 0;
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                dropped += client.getDroppedFrames();
+            }
+        }
+        return dropped + mDisconnectedDrops;
+    }
+
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mSelector != null) {
+            mSelector.wakeup();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void serve() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        try {
+            while (!mClosed) {
+                mSelector.select();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                readBuffer.clear();
+                                // Whatever the client sends is ignored, only the end of stream matters.
+                                if (client.channel.read(readBuffer) < 0) {
+                                    disconnect(client);
+                                    continue;
+                                }
+                            }
+                            if (key.isWritable()) {
+                                client.write();
+                            }
+                        } catch (IOException e) {
+                            Log.d(TAG, "Client failed: " + e.getMessage());
+                            disconnect(client);
+                        }
+                    }
+                }
+                updateInterest();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Server failed: " + e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Accepts a client. A failure, e.g. out of file descriptors or a connection reset
+     * meanwhile, only loses this client, the server keeps serving.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = mServerChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel, mMaxQueuedFrames);
+            client.key = channel.register(mSelector, SelectionKey.OP_READ, client);
+            synchronized (mClients) {
+                mClients.add(client);
+            }
+            Log.i(TAG, "Client connected: " + channel.socket().getRemoteSocketAddress());
+        } catch (IOException e) {
+            Log.w(TAG, "Accept failed: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void updateInterest() {
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                int ops = SelectionKey.OP_READ;
+                if (client.hasPending()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                if (client.key.isValid() && client.key.interestOps() != ops) {
+                    client.key.interestOps(ops);
+                }
+            }
+        }
+    }
+
+    private void disconnect(Client client) {
+        synchronized (mClients) {
+            mClients.remove(client);
+            mDisconnectedDrops += client.getDroppedFrames();
+        }
+        client.close();
+        Log.i(TAG, "Client disconnected, dropped frames: " + client.getDroppedFrames());
+    }
+
+    private void closeAll() {
+        List<Client> clients;
+        synchronized (mClients) {
+            clients = new ArrayList<Client>(mClients);
+            mClients.clear();
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        try {
+            mServerChannel.close();
+            mSelector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        Log.i(TAG, "Closed");
+    }
+
+    private static class Client {
+
+        final SocketChannel channel;
+        final int maxQueuedFrames;
+        SelectionKey key;
+
+        // Guarded by this.
+        private final ArrayDeque<ByteBuffer> mQueue = new ArrayDeque<ByteBuffer>();
+        private boolean mWaitingForKeyFrame = true;
+        private long mDropped;
+        // Accessed on the server thread only.
+        private ByteBuffer mCurrent;
+
+        Client(SocketChannel channel, int maxQueuedFrames) {
+            this.channel = channel;
+            this.maxQueuedFrames = maxQueuedFrames;
+        }
+
+        /**
+         * Makes the client wait for the next key frame preceded by the codec config.
+         */
+        synchronized void restart() {
+            mWaitingForKeyFrame = true;
+        }
+
+        /**
+         * Returns true if the frame is queued.
+         */
+        synchronized boolean offer(ByteBuffer frame, boolean keyFrame, ByteBuffer config) {
+            if (mWaitingForKeyFrame) {
+                if (!keyFrame || config == null) {
+                    mDropped++;
+                    return false;
+                }
+                mWaitingForKeyFrame = false;
+                mQueue.add(config.duplicate());
+            } else if (mQueue.size() >= maxQueuedFrames) {
+                // The client is too slow, skip to the next key frame.
+                mDropped += mQueue.size();
+                mQueue.clear();
+                if (!keyFrame || config == null) {
+                    mWaitingForKeyFrame = true;
+                    mDropped++;
+                    return false;
+                }
+                mQueue.add(config.duplicate());
+            }
+            mQueue.add(frame.duplicate());
+            return true;
+        }
+
+        synchronized boolean hasPending() {
+            return mCurrent != null || !mQueue.isEmpty();
+        }
+
+        synchronized long getDroppedFrames() {
+            return mDropped;
+        }
+
+        void write() throws IOException {
+            while (true) {
+                if (mCurrent == null) {
+                    synchronized (this) {
+                        mCurrent = mQueue.poll();
+                    }
+                    if (mCurrent == null) {
+                        return;
+                    }
+                }
+                channel.write(mCurrent);
+                if (mCurrent.hasRemaining()) {
+                    // The socket buffer is full, wait until it's writable again.
+                    return;
+                }
+                mCurrent = null;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming stage of the pipeline: offers the encoded frames to the clients of a
+ * {@link StreamServer}. The codec output of AVC is an Annex-B elementary stream, so the
+ * frames are served as they are, after the SPS and PPS.
+ *
+ * The server isn't closed at the end of stream, so that it can outlive the pipeline
+ * when the session is reconfigured.
+ */
+public class StreamingSink implements SampleSink {
+
+    private final StreamServer mServer;
+
+    public StreamingSink(StreamServer server) {
+        mServer = server;
+    }
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        // Encoders deliver the codec config as a sample as well, the format is a fallback.
+        ByteBuffer csd0 = format.getByteBuffer("csd-0");
+        ByteBuffer csd1 = format.getByteBuffer("csd-1");
+        if (csd0 == null) {
+            return;
+        }
+        ByteBuffer config = ByteBuffer.allocate(csd0.remaining() +
+                (csd1 != null ? csd1.remaining() : 0));
+        config.put(csd0.duplicate());
+        if (csd1 != null) {
+            config.put(csd1.duplicate());
+        }
+        config.flip();
+        mServer.setCodecConfig(config);
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        if (info.isCodecConfig()) {
+            mServer.setCodecConfig(buffer);
+            return;
+        }
+        if (info.size == 0 || !mServer.hasClients()) {
+            return;
+        }
+        // The codec buffer is given back after the sinks, the clients get their own copy.
+        ByteBuffer frame = ByteBuffer.allocate(buffer.remaining());
+        frame.put(buffer.duplicate()).flip();
+        mServer.offer(frame.asReadOnlyBuffer(), info.isKeyFrame());
+    }
+
+    @Override
+    public void onEndOfStream() {
+    }
+}
@@ -0,0 +1,266 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays the frames rendered into its input surface to an output surface, scaling them
+ * to the output size with the aspect ratio preserved. With a {@link FrameGate} only the
+ * frames the gate lets through are submitted, and the last frame is repeated when nothing
+ * is submitted for the keep-alive interval. The frames are consumed and drawn by GLES on
+ * the relay thread.
+ */
+public class SurfaceRelay implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final String TAG = "SurfaceRelay";
+
+    private static final long SYNC_TIMEOUT_MS = 2000;
+    private static final long RELEASE_TIMEOUT_MS = 1000;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final FrameGate mGate;
+    // Written on the relay thread, or before it's started.
+    private int mOutputWidth;
+    private int mOutputHeight;
+    private final float[] mTexMatrix = new float[16];
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // Accessed on the relay thread only.
+    private EglCore mEglCore;
+    private TextureRenderer mRenderer;
+    private SurfaceTexture mSurfaceTexture;
+    private boolean mHasFrame;
+    private long mLastPtsNs;
+
+    private Surface mInputSurface;
+
+    /**
+     * @param width the width of the input surface
+     * @param height the height of the input surface
+     * @param gate the gate deciding which frames are submitted, or null to submit all of them
+     */
+    public SurfaceRelay(int width, int height, FrameGate gate) {
+        mWidth = width;
+        mHeight = height;
+        mGate = gate;
+    }
+
+    /**
+     * Starts the relay thread drawing into the output surface and returns the surface
+     * the frames should be rendered into.
+     */
+    public Surface start(final Surface outputSurface, int outputWidth, int outputHeight) {
+        mOutputWidth = outputWidth;
+        mOutputHeight = outputHeight;
+        mThread = new HandlerThread("RelayThread");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        final CountDownLatch started = new CountDownLatch(1);
+        final RuntimeException[] error = new RuntimeException[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mEglCore = new EglCore(outputSurface);
+                    mRenderer = new TextureRenderer();
+                    mSurfaceTexture = new SurfaceTexture(mRenderer.getTextureId());
+                    mSurfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+                    mSurfaceTexture.setOnFrameAvailableListener(SurfaceRelay.this, mHandler);
+                    mInputSurface = new Surface(mSurfaceTexture);
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                    releaseGl();
+                }
+                started.countDown();
+            }
+        });
+        try {
+            if (!started.await(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                error[0] = new IllegalStateException("Relay isn't started in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error[0] = new IllegalStateException("Interrupted while starting relay");
+        }
+        if (error[0] != null) {
+            release();
+            throw error[0];
+        }
+        if (mGate != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleKeepAlive();
+                }
+            });
+        }
+        return mInputSurface;
+    }
+
+    /**
+     * Switches the relay to another output surface, e.g. of an encoder with another size.
+     * The last frame is drawn into the new surface right away. Returns when the previous
+     * surface isn't used any more.
+     */
+    public void setOutputSurface(final Surface outputSurface, final int outputWidth,
+                                 final int outputHeight) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final RuntimeException[] error = new RuntimeException[1];
+        boolean posted = mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mEglCore.setWindowSurface(outputSurface);
+                    mOutputWidth = outputWidth;
+                    mOutputHeight = outputHeight;
+                    if (mHasFrame) {
+                        draw(System.nanoTime());
+                    }
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                }
+                done.countDown();
+            }
+        });
+        if (!posted) {
+            throw new IllegalStateException("Relay is released");
+        }
+        try {
+            if (!done.await(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Output surface isn't switched in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while switching output surface");
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        Log.d(TAG, "Output switched to " + outputWidth + "x" + outputHeight);
+    }
+
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    public FrameGate getGate() {
+        return mGate;
+    }
+
+    /**
+     * Stops the relay and releases its surface. The producer of the frames must be
+     * released before.
+     */
+    public void release() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mKeepAliveRunnable);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseGl();
+            }
+        });
+        mThread.quitSafely();
+        try {
+            mThread.join(RELEASE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        if (mGate != null) {
+            Log.i(TAG, "Frames " + mGate);
+        }
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (mEglCore == null) {
+            return;
+        }
+        // The frame must be consumed even if it's skipped to let the producer go on.
+        surfaceTexture.updateTexImage();
+        surfaceTexture.getTransformMatrix(mTexMatrix);
+        mHasFrame = true;
+        long timestampNs = surfaceTexture.getTimestamp();
+        if (mGate == null) {
+            draw(timestampNs);
+        } else if (mGate.onFrame(timestampNs)) {
+            draw(timestampNs);
+            scheduleKeepAlive();
+        } else if (mGate.isFrameHeldBack()) {
+            // Draw it when the frame rate cap allows.
+            scheduleKeepAlive();
+        }
+    }
+
+    private void draw(long timestampNs) {
+        // The encoder requires increasing timestamps.
+        timestampNs = Math.max(timestampNs, mLastPtsNs + 1);
+        mLastPtsNs = timestampNs;
+        // Fit the input into the output preserving the aspect ratio.
+        int width = mOutputWidth;
+        int height = (int) ((long) mOutputWidth * mHeight / mWidth);
+        if (height > mOutputHeight) {
+            height = mOutputHeight;
+            width = (int) ((long) mOutputHeight * mWidth / mHeight);
+        }
+        mRenderer.draw((mOutputWidth - width) / 2, (mOutputHeight - height) / 2, width, height,
+                mTexMatrix);
+        mEglCore.setPresentationTime(timestampNs);
+        if (!mEglCore.swapBuffers()) {
+            Log.w(TAG, "eglSwapBuffers failed");
+        }
+    }
+
+    private void scheduleKeepAlive() {
+        mHandler.removeCallbacks(mKeepAliveRunnable);
+        long delayMs = mGate.getKeepAliveDelayMs(System.nanoTime());
+        if (delayMs >= 0) {
+            mHandler.postDelayed(mKeepAliveRunnable, delayMs);
+        }
+    }
+
+    private void releaseGl() {
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.setOnFrameAvailableListener(null);
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+        }
+        if (mRenderer != null) {
+            mRenderer.release();
+            mRenderer = null;
+        }
+        if (mEglCore != null) {
+            mEglCore.release();
+            mEglCore = null;
+        }
+    }
+
+    private final Runnable mKeepAliveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mEglCore == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (mHasFrame && mGate.getKeepAliveDelayNs(now) == 0) {
+                draw(now);
+                mGate.onKeepAlive(now);
+            }
+            scheduleKeepAlive();
+        }
+    };
+}
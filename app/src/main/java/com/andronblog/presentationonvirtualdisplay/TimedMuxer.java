@@ -0,0 +1,59 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the time each sample write takes into a histogram.
+ */
+public class TimedMuxer implements SampleMuxer {
+
+    private final SampleMuxer mMuxer;
+    private final LatencyHistogram mWriteLatency;
+
+    public TimedMuxer(SampleMuxer muxer, LatencyHistogram writeLatency) {
+        mMuxer = muxer;
+        mWriteLatency = writeLatency;
+    }
+
+    /**
+     * Returns a factory wrapping the muxers of the given one.
+     */
+    public static MuxerFactory wrap(final MuxerFactory factory, final LatencyHistogram writeLatency) {
+        return new MuxerFactory() {
+            @Override
+            public SampleMuxer create(String path) throws IOException {
+                return new TimedMuxer(factory.create(path), writeLatency);
+            }
+        };
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        long start = System.nanoTime();
+        mMuxer.writeSampleData(trackIndex, buffer, info);
+        mWriteLatency.record((System.nanoTime() - start) / 1000);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,81 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Generates a sine tone, or silence, at the pace of a real source: a read blocks until
+ * the frames it returns would have been captured. It stands in for the microphone when
+ * the permission isn't granted and lets the audio path be exercised without a device.
+ */
+public class ToneSource implements AudioSource {
+
+    private static final double AMPLITUDE = 0.2 * Short.MAX_VALUE;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mFrequencyHz;
+    private long mStartUs;
+    private long mFrames;
+
+    /**
+     * @param frequencyHz the frequency of the tone in whole hertz, so that the phase restarts
+     *                    every second, or 0 for silence
+     */
+    public ToneSource(int sampleRate, int channelCount, int frequencyHz) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFrequencyHz = frequencyHz;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void start() {
+        mStartUs = AvClock.nowUs();
+        mFrames = 0;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        int frames = size / (2 * mChannelCount);
+        long endUs = mStartUs + (mFrames + frames) * 1000000 / mSampleRate;
+        long waitUs = endUs - AvClock.nowUs();
+        if (waitUs > 0) {
+            try {
+                Thread.sleep(waitUs / 1000, (int) (waitUs % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.nativeOrder());
+        double step = 2 * Math.PI * mFrequencyHz / mSampleRate;
+        for (int i = 0; i < frames; i++) {
+            short value = (short) (AMPLITUDE * Math.sin(step * ((mFrames + i) % mSampleRate)));
+            for (int c = 0; c < mChannelCount; c++) {
+                buffer.putShort(value);
+            }
+        }
+        buffer.order(order);
+        mFrames += frames;
+        return frames * 2 * mChannelCount;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,79 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+/**
+ * Precomputed limits of the VP9 levels. The level values are the same as
+ * MediaCodecInfo.CodecProfileLevel.VP9Level* ones. Like HEVC, VP9 limits the frame area
+ * and any dimension of the frame.
+ */
+public final class Vp9Levels {
+
+    public static final int LEVEL_1 = 0x1;
+    public static final int LEVEL_11 = 0x2;
+    public static final int LEVEL_2 = 0x4;
+    public static final int LEVEL_21 = 0x8;
+    public static final int LEVEL_3 = 0x10;
+    public static final int LEVEL_31 = 0x20;
+    public static final int LEVEL_4 = 0x40;
+    public static final int LEVEL_41 = 0x80;
+    public static final int LEVEL_5 = 0x100;
+    public static final int LEVEL_51 = 0x200;
+    public static final int LEVEL_52 = 0x400;
+    public static final int LEVEL_6 = 0x800;
+    public static final int LEVEL_61 = 0x1000;
+    public static final int LEVEL_62 = 0x2000;
+
+    // The sample rate, frame size, bit rate in kbps and maximum dimension of each level
+    // as defined by the VP9 levels.
+    private static final long[][] SPEC = {
+            {829440, 36864, 200, 512},
+            {2764800, 73728, 800, 768},
+            {4608000, 122880, 1800, 960},
+            {9216000, 245760, 3600, 1344},
+            {20736000, 552960, 7200, 2048},
+            {36864000, 983040, 12000, 2752},
+            {83558400, 2228224, 18000, 4160},
+            {160432128, 2228224, 30000, 4160},
+            {311951360, 8912896, 60000, 8384},
+            {588251136, 8912896, 120000, 8384},
+            {1176502272, 8912896, 180000, 8384},
+            {1176502272, 35651584, 180000, 16832},
+            {2353004544L, 35651584, 240000, 16832},
+            {4706009088L, 35651584, 480000, 16832},
+    };
+
+    private static final LevelLimits[] LIMITS = new LevelLimits[SPEC.length];
+
+    static {
+        for (int i = 0; i < SPEC.length; i++) {
+            int maxDimension = (int) SPEC[i][3];
+            LIMITS[i] = new LevelLimits(1 << i, maxDimension, maxDimension,
+                    (int) (SPEC[i][1] / 256), (int) (SPEC[i][0] / 256), (int) (SPEC[i][2] * 1000));
+        }
+    }
+
+    private static final LevelLimits DEFAULT_LIMITS = forLevel(LEVEL_4);
+
+    private Vp9Levels() {
+    }
+
+    /**
+     * Returns the limits of the given level. An unknown level is treated as level 4, the
+     * platform doesn't report the VP9 levels before Android N.
+     */
+    public static LevelLimits forLevel(int level) {
+        if (level > 0 && Integer.bitCount(level) == 1) {
+            int index = Integer.numberOfTrailingZeros(level);
+            if (index < LIMITS.length) {
+                return LIMITS[index];
+            }
+        }
+        return DEFAULT_LIMITS;
+    }
+
+    /**
+     * Returns the limits of all the levels in ascending order.
+     */
+    public static LevelLimits[] all() {
+        return LIMITS.clone();
+    }
+}
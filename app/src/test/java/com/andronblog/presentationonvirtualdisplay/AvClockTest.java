@@ -0,0 +1,62 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AvClockTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final long MAX_DRIFT_US = 40000;
+    // 1024 frames at 48 kHz.
+    private static final int CHUNK = 1024;
+    private static final long CHUNK_US = 21333;
+
+    @Test
+    public void timelineIsAnchoredAtFirstChunk() {
+        AvClock clock = new AvClock(SAMPLE_RATE, MAX_DRIFT_US);
+        long anchorUs = 1000000 - CHUNK_US;
+        assertEquals(anchorUs, clock.stamp(CHUNK, 1000000));
+        // The jitter of the reads doesn't move the timestamps.
+        assertEquals(anchorUs + CHUNK_US, clock.stamp(CHUNK, 1000000 + CHUNK_US + 5000));
+        assertEquals(5000, clock.getDriftUs());
+        assertEquals(anchorUs + 2 * CHUNK_US, clock.stamp(CHUNK, 1000000 + 2 * CHUNK_US - 3000));
+        assertEquals(-3000, clock.getDriftUs());
+        assertEquals(0, clock.getResyncs());
+        assertEquals(0, clock.getDroppedFrames());
+    }
+
+    @Test
+    public void timelineJumpsToClockWhenBehind() {
+        AvClock clock = new AvClock(SAMPLE_RATE, MAX_DRIFT_US);
+        clock.stamp(CHUNK, 1000000);
+        // The source lost 100 ms of frames.
+        long readEndUs = 1000000 + CHUNK_US + 100000;
+        assertEquals(readEndUs - CHUNK_US, clock.stamp(CHUNK, readEndUs));
+        assertEquals(1, clock.getResyncs());
+        // The timeline goes on from the new anchor.
+        assertEquals(readEndUs, clock.stamp(CHUNK, readEndUs + CHUNK_US));
+        assertEquals(0, clock.getDriftUs());
+    }
+
+    @Test
+    public void chunksAreDroppedWhenAhead() {
+        AvClock clock = new AvClock(SAMPLE_RATE, MAX_DRIFT_US);
+        long anchorUs = clock.stamp(CHUNK, 1000000);
+        // The chunk ends 50 ms earlier than the timeline expects.
+        assertEquals(-1, clock.stamp(CHUNK, 1000000 + CHUNK_US - 50000));
+        assertEquals(CHUNK, clock.getDroppedFrames());
+        // The dropped chunk doesn't advance the timeline, the timestamps never go back.
+        assertEquals(anchorUs + CHUNK_US, clock.stamp(CHUNK, 1000000 + CHUNK_US));
+        assertEquals(0, clock.getResyncs());
+    }
+
+    @Test
+    public void resetAnchorsAgain() {
+        AvClock clock = new AvClock(SAMPLE_RATE, MAX_DRIFT_US);
+        clock.stamp(CHUNK, 1000000);
+        clock.reset();
+        assertEquals(5000000 - CHUNK_US, clock.stamp(CHUNK, 5000000));
+        assertEquals(0, clock.getResyncs());
+    }
+}
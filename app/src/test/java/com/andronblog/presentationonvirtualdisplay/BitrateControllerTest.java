@@ -0,0 +1,124 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BitrateControllerTest {
+
+    private static final int FRAME_INTERVAL_US = 1000000 / 30;
+
+    @Test
+    public void staticContentLowersTarget() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        // A window of about 1 Mbps, a quarter of the target.
+        encodeWindow(controller, 1000000, 0);
+        assertEquals(BitrateController.Decision.DECREASE_IDLE, controller.getLastDecision());
+        int measured = controller.getMeasuredBitRate();
+        assertTrue(measured < 2000000);
+        assertEquals((int) (measured * 1.5f), controller.getTargetBitRate());
+        assertEquals(controller.getTargetBitRate(), codec.mBitRate);
+        assertEquals(1, controller.getAdjustmentCount());
+    }
+
+    @Test
+    public void encoderLagLowersTarget() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        // The content saturates the target but the frames come out 5 frames late.
+        encodeWindow(controller, 4000000, 5 * FRAME_INTERVAL_US);
+        assertEquals(BitrateController.Decision.DECREASE_LAG, controller.getLastDecision());
+        assertEquals(5, controller.getLagFrames());
+        assertEquals(3400000, controller.getTargetBitRate());
+        assertEquals(3400000, codec.mBitRate);
+    }
+
+    @Test
+    public void backlogCountsAsLag() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        FrameQueue backlog = new FrameQueue(8, 16, FrameQueue.Policy.BLOCK);
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < 5; i++) {
+            info.set(0, 1, i, 0);
+            backlog.offerSample(ByteBuffer.wrap(new byte[1]), info);
+        }
+        controller.setBacklog(backlog);
+        encodeWindow(controller, 4000000, 0);
+        assertEquals(BitrateController.Decision.DECREASE_LAG, controller.getLastDecision());
+        assertEquals(5, controller.getLagFrames());
+        assertEquals(3400000, controller.getTargetBitRate());
+    }
+
+    @Test
+    public void decisionsAreReportedWithMetrics() {
+        BitrateController controller = new BitrateController(new FakeEncoderCodec(), 4000000,
+                1000000, 4000000, 30);
+        SessionMetrics metrics = new SessionMetrics();
+        assertNull(metrics.snapshot().getBitrate());
+        metrics.setBitrateController(controller);
+        encodeWindow(controller, 1000000, 0);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        MetricsSnapshot.Bitrate bitrate = snapshot.getBitrate();
+        assertEquals(controller.getTargetBitRate(), bitrate.getTargetBitRate());
+        assertEquals(controller.getMeasuredBitRate(), bitrate.getMeasuredBitRate());
+        assertEquals(0, bitrate.getLagFrames());
+        assertEquals(1, bitrate.getAdjustments());
+        assertEquals(BitrateController.Decision.DECREASE_IDLE, bitrate.getLastDecision());
+        String csv = snapshot.toCsv(snapshot);
+        assertTrue(csv.endsWith(",DECREASE_IDLE"));
+        assertEquals(MetricsSnapshot.CSV_HEADER.split(",", -1).length,
+                csv.split(",", -1).length);
+    }
+
+    @Test
+    public void maxScaleLowersTargetAtOnce() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        controller.setMaxBitRateScale(0.5f);
+        assertEquals(2000000, controller.getMaxBitRate());
+        assertEquals(2000000, controller.getTargetBitRate());
+        assertEquals(2000000, codec.mBitRate);
+    }
+
+    @Test
+    public void maxScaleKeepsLowerBound() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        controller.setMaxBitRateScale(0.1f);
+        assertEquals(1000000, controller.getMaxBitRate());
+        assertEquals(1000000, controller.getTargetBitRate());
+    }
+
+    @Test
+    public void raisedMaxLetsTargetGrow() {
+        FakeEncoderCodec codec = new FakeEncoderCodec();
+        BitrateController controller = new BitrateController(codec, 4000000, 1000000, 4000000, 30);
+        controller.setMaxBitRateScale(0.5f);
+        controller.setMaxBitRateScale(1f);
+        // The target isn't raised until the content needs it.
+        assertEquals(4000000, controller.getMaxBitRate());
+        assertEquals(2000000, controller.getTargetBitRate());
+        // A busy window of 4 Mbps.
+        for (int i = 0; i <= 30; i++) {
+            controller.onFrameEncoded(4000000 / 8 / 30, i * 1000000L / 30, i * 1000000L / 30);
+        }
+        assertEquals(BitrateController.Decision.INCREASE, controller.getLastDecision());
+        assertEquals(2500000, controller.getTargetBitRate());
+    }
+
+    /**
+     * Encodes a window of frames at the bit rate, which come out of the encoder with the lag.
+     */
+    private static void encodeWindow(BitrateController controller, int bitRate, long lagUs) {
+        for (int i = 0; i <= 30; i++) {
+            long ptsUs = i * 1000000L / 30;
+            controller.onFrameEncoded(bitRate / 8 / 30, ptsUs, ptsUs + lagUs);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodecRankerTest {
+
+    private static final String AVC = EncoderConfig.MIME_AVC;
+    private static final String HEVC = EncoderConfig.MIME_HEVC;
+    private static final String VP9 = EncoderConfig.MIME_VP9;
+
+    private static final String HW_AVC = "OMX.vendor.video.encoder.avc";
+    private static final String HW_HEVC = "OMX.vendor.video.encoder.hevc";
+    private static final String HW_VP9 = "OMX.vendor.video.encoder.vp9";
+    private static final String SW_AVC = "OMX.google.h264.encoder";
+    private static final String SW_HEVC = "c2.android.hevc.encoder";
+
+    private static final List<String> MIME_TYPES = Arrays.asList(HEVC, VP9, AVC);
+    private static final int BUDGET = 8000000;
+
+    @Test
+    public void hardwareComesFirst() {
+        CodecRanker ranker = ranker(
+                new EncoderDescription(SW_HEVC, HEVC, HevcLevels.MAIN_TIER_LEVEL_41),
+                new EncoderDescription(HW_AVC, AVC, AvcLevels.LEVEL_41));
+        List<CodecRanker.Candidate> candidates = ranker.rank(1920, 1080, 30, BUDGET, 1);
+        assertEquals(2, candidates.size());
+        assertEquals(HW_AVC, candidates.get(0).getEncoder().getName());
+        assertEquals(SW_HEVC, candidates.get(1).getEncoder().getName());
+    }
+
+    @Test
+    public void moreEfficientHardwareCodecWins() {
+        CodecRanker ranker = ranker(
+                new EncoderDescription(HW_AVC, AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription(HW_VP9, VP9, Vp9Levels.LEVEL_41),
+                new EncoderDescription(HW_HEVC, HEVC, HevcLevels.MAIN_TIER_LEVEL_41));
+        List<CodecRanker.Candidate> candidates = ranker.rank(1280, 720, 30, BUDGET, 1);
+        assertEquals(Arrays.asList(HW_HEVC, HW_VP9, HW_AVC), names(candidates));
+        EncoderConfig config = candidates.get(0).getConfig();
+        assertEquals(HEVC, config.getMimeType());
+        assertEquals(BUDGET / 2, config.getBitRate());
+    }
+
+    @Test
+    public void lessEfficientSoftwareCodecWins() {
+        CodecRanker ranker = ranker(
+                new EncoderDescription(SW_HEVC, HEVC, HevcLevels.MAIN_TIER_LEVEL_41),
+                new EncoderDescription(SW_AVC, AVC, AvcLevels.LEVEL_41));
+        List<CodecRanker.Candidate> candidates = ranker.rank(1280, 720, 30, BUDGET, 1);
+        assertEquals(Arrays.asList(SW_AVC, SW_HEVC), names(candidates));
+    }
+
+    @Test
+    public void coverageComesBeforeEfficiency() {
+        CodecRanker ranker = ranker(
+                new EncoderDescription(HW_HEVC, HEVC, HevcLevels.MAIN_TIER_LEVEL_3),
+                new EncoderDescription(HW_AVC, AVC, AvcLevels.LEVEL_41));
+        List<CodecRanker.Candidate> candidates = ranker.rank(1280, 720, 30, BUDGET, 1);
+        assertEquals(Arrays.asList(HW_AVC, HW_HEVC), names(candidates));
+        assertEquals(1f, candidates.get(0).getCoverage(), 0f);
+        assertTrue(candidates.get(1).getCoverage() < 1f);
+    }
+
+    @Test
+    public void hardwareEncoderListedLaterIsRanked() {
+        // The software encoder is the preferred one of the type, it's listed first.
+        CodecRanker ranker = ranker(
+                new EncoderDescription(SW_AVC, AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription(HW_AVC, AVC, AvcLevels.LEVEL_41));
+        List<CodecRanker.Candidate> candidates = ranker.rank(1280, 720, 30, BUDGET, 1);
+        assertEquals(Arrays.asList(HW_AVC, SW_AVC), names(candidates));
+        assertEquals(HW_AVC, ranker.select(1280, 720, 30, BUDGET, 1).getEncoderName());
+    }
+
+    @Test
+    public void selectNamesTheEncoder() {
+        CodecRanker ranker = ranker(
+                new EncoderDescription(HW_AVC, AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription(HW_HEVC, HEVC, HevcLevels.MAIN_TIER_LEVEL_41));
+        EncoderConfig config = ranker.select(1280, 720, 30, BUDGET, 1);
+        assertEquals(HW_HEVC, config.getEncoderName());
+        assertEquals(1280, config.getWidth());
+        assertEquals(720, config.getHeight());
+        assertEquals(30, config.getFrameRate());
+    }
+
+    @Test
+    public void typesWithoutLevelTableAreSkipped() {
+        String vp8 = "video/x-vnd.on2.vp8";
+        CodecRanker ranker = new CodecRanker(capabilities(
+                new EncoderDescription("OMX.google.vp8.encoder", vp8, 0)), Arrays.asList(vp8));
+        assertTrue(ranker.rank(1280, 720, 30, BUDGET, 1).isEmpty());
+        assertNull(ranker.select(1280, 720, 30, BUDGET, 1));
+        assertNull(ranker().select(1280, 720, 30, BUDGET, 1));
+    }
+
+    private static CodecRanker ranker(EncoderDescription... encoders) {
+        return new CodecRanker(capabilities(encoders), MIME_TYPES);
+    }
+
+    private static EncoderCapabilities capabilities(EncoderDescription... encoders) {
+        return EncoderCapabilities.build(source(encoders));
+    }
+
+    private static EncoderListSource source(EncoderDescription... encoders) {
+        final List<EncoderDescription> list = Arrays.asList(encoders);
+        return new EncoderListSource() {
+            @Override
+            public List<EncoderDescription> getEncoders() {
+                return list;
+            }
+        };
+    }
+
+    private static List<String> names(List<CodecRanker.Candidate> candidates) {
+        List<String> names = new ArrayList<String>();
+        for (CodecRanker.Candidate candidate : candidates) {
+            names.add(candidate.getEncoder().getName());
+            assertEquals(candidate.getEncoder().getName(), candidate.getConfig().getEncoderName());
+        }
+        return names;
+    }
+}
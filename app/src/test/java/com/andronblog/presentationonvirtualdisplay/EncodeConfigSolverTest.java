@@ -0,0 +1,93 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EncodeConfigSolverTest {
+
+    private static final int[][] SIZES = {
+            {176, 144}, {320, 320}, {640, 480}, {720, 1280}, {1280, 720}, {1920, 1080},
+            {2560, 1600}, {3840, 2160}, {4096, 4096},
+    };
+    private static final int[] FRAME_RATES = {10, 15, 24, 30, 60};
+    private static final int BIT_RATE = 8000000;
+    private static final int GOP = 1;
+
+    @Test
+    public void solutionsFitEveryAvcLevel() {
+        for (LevelLimits limits : AvcLevels.all()) {
+            EncodeConfigSolver solver = new EncodeConfigSolver(limits);
+            for (int[] size : SIZES) {
+                for (int frameRate : FRAME_RATES) {
+                    String request = limits + " " + size[0] + "x" + size[1] + "@" + frameRate;
+                    EncoderConfig config = solver.solve(EncoderConfig.MIME_AVC, size[0], size[1],
+                            frameRate, BIT_RATE, GOP);
+                    assertNotNull(request, config);
+                    checkConfig(request, limits, size[0], size[1], frameRate, config);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void supportedRequestIsKept() {
+        for (LevelLimits limits : AvcLevels.all()) {
+            EncodeConfigSolver solver = new EncodeConfigSolver(limits);
+            for (int[] size : SIZES) {
+                for (int frameRate : FRAME_RATES) {
+                    if (size[0] % 16 != 0 || size[1] % 16 != 0 ||
+                            !limits.isSupported(size[0], size[1], frameRate)) {
+                        continue;
+                    }
+                    EncoderConfig config = solver.solve(EncoderConfig.MIME_AVC, size[0], size[1],
+                            frameRate, BIT_RATE, GOP);
+                    String request = limits + " " + size[0] + "x" + size[1] + "@" + frameRate;
+                    assertEquals(request, size[0], config.getWidth());
+                    assertEquals(request, size[1], config.getHeight());
+                    assertEquals(request, frameRate, config.getFrameRate());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unsolvableRequestReturnsNull() {
+        // Not even a single macroblock at the minimal frame rate.
+        LevelLimits limits = new LevelLimits(0, 176, 144, 10, 64000);
+        assertNull(new EncodeConfigSolver(limits).solve(EncoderConfig.MIME_AVC, 176, 144, 30,
+                BIT_RATE, GOP));
+    }
+
+    private static void checkConfig(String request, LevelLimits limits, int width, int height,
+                                    int frameRate, EncoderConfig config) {
+        int w = config.getWidth();
+        int h = config.getHeight();
+        int fps = config.getFrameRate();
+        assertEquals(request, EncoderConfig.MIME_AVC, config.getMimeType());
+        assertEquals(request, GOP, config.getIFrameInterval());
+        // The size is aligned, not upscaled, and within the limits of the level.
+        assertTrue(request, w > 0 && h > 0);
+        assertEquals(request, 0, w % EncodeConfigSolver.DEFAULT_ALIGNMENT);
+        assertEquals(request, 0, h % EncodeConfigSolver.DEFAULT_ALIGNMENT);
+        assertTrue(request, w <= width && h <= height);
+        assertTrue(request, limits.isSizeSupported(w, h));
+        // The macroblock rate is within the limits of the level.
+        assertTrue(request, (long) LevelLimits.macroblocks(w, h) * fps <=
+                limits.getMaxMacroblocksPerSecond());
+        // The frame rate isn't raised, nor reduced under the floor.
+        assertTrue(request, fps <= frameRate);
+        assertTrue(request, fps >= Math.min(EncodeConfigSolver.DEFAULT_MIN_FRAME_RATE, frameRate));
+        // The aspect ratio is kept up to the alignment.
+        double aspect = width / (double) height;
+        assertTrue(request, Math.abs(w / (double) h - aspect) <=
+                aspect * 2 * EncodeConfigSolver.DEFAULT_ALIGNMENT / Math.min(w, h));
+        // The bit rate is within the limits of the level and the budget.
+        assertTrue(request, config.getBitRate() >= EncodeConfigSolver.MIN_BIT_RATE);
+        assertTrue(request, config.getBitRate() <= Math.max(EncodeConfigSolver.MIN_BIT_RATE,
+                Math.min(limits.getMaxBitRate(), BIT_RATE)));
+    }
+}
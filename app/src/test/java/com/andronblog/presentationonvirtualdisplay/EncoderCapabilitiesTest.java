@@ -0,0 +1,104 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EncoderCapabilitiesTest {
+
+    private static final String AVC = EncoderConfig.MIME_AVC;
+    private static final String HEVC = EncoderConfig.MIME_HEVC;
+    private static final String VP8 = "video/x-vnd.on2.vp8";
+
+    @Test
+    public void mimeTypesAreLowerCased() {
+        EncoderCapabilities capabilities = build(
+                new EncoderDescription("OMX.vendor.video.encoder.avc", "Video/AVC",
+                        AvcLevels.LEVEL_41));
+        EncoderCapabilities.Entry encoder = capabilities.getEncoder(AVC);
+        assertEquals("OMX.vendor.video.encoder.avc", encoder.getName());
+        assertEquals(AVC, encoder.getMimeType());
+        assertTrue(capabilities.hasEncoder(AVC));
+        assertFalse(capabilities.hasEncoder(HEVC));
+        assertNull(capabilities.getEncoder(HEVC));
+    }
+
+    @Test
+    public void firstEncoderOfTypeWins() {
+        EncoderCapabilities capabilities = build(
+                new EncoderDescription("OMX.google.h264.encoder", AVC, AvcLevels.LEVEL_31),
+                new EncoderDescription("OMX.vendor.video.encoder.avc", AVC, AvcLevels.LEVEL_41));
+        assertEquals("OMX.google.h264.encoder", capabilities.getEncoder(AVC).getName());
+        // All of them stay listed in order.
+        List<EncoderCapabilities.Entry> encoders = capabilities.getEncoders();
+        assertEquals(2, encoders.size());
+        assertEquals("OMX.vendor.video.encoder.avc", encoders.get(1).getName());
+    }
+
+    @Test
+    public void encoderIsFoundByName() {
+        EncoderCapabilities capabilities = build(
+                new EncoderDescription("OMX.vendor.video.encoder", AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription("OMX.vendor.video.encoder", HEVC,
+                        HevcLevels.MAIN_TIER_LEVEL_41),
+                new EncoderDescription("OMX.google.h264.encoder", AVC, AvcLevels.LEVEL_31));
+        EncoderCapabilities.Entry hevc = capabilities.getEncoder("OMX.vendor.video.encoder", HEVC);
+        assertEquals(HEVC, hevc.getMimeType());
+        assertEquals(HevcLevels.MAIN_TIER_LEVEL_41, hevc.getHighestLevel());
+        assertEquals(AvcLevels.LEVEL_31,
+                capabilities.getEncoder("OMX.google.h264.encoder", AVC).getHighestLevel());
+        assertNull(capabilities.getEncoder("OMX.google.h264.encoder", HEVC));
+        assertNull(capabilities.getEncoder("OMX.unknown.encoder", AVC));
+    }
+
+    @Test
+    public void softwareEncodersAreRecognized() {
+        assertTrue(EncoderCapabilities.isSoftwareEncoder("OMX.google.h264.encoder"));
+        assertTrue(EncoderCapabilities.isSoftwareEncoder("c2.android.avc.encoder"));
+        assertTrue(EncoderCapabilities.isSoftwareEncoder("c2.google.vp9.encoder"));
+        assertTrue(EncoderCapabilities.isSoftwareEncoder("OMX.qcom.video.encoder.avc.sw"));
+        assertTrue(EncoderCapabilities.isSoftwareEncoder("OMX.vendor.sw.encoder.avc"));
+        assertFalse(EncoderCapabilities.isSoftwareEncoder("OMX.qcom.video.encoder.avc"));
+        assertFalse(EncoderCapabilities.isSoftwareEncoder("c2.exynos.h264.encoder"));
+
+        EncoderCapabilities capabilities = build(
+                new EncoderDescription("OMX.google.h264.encoder", AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription("OMX.qcom.video.encoder.hevc", HEVC,
+                        HevcLevels.MAIN_TIER_LEVEL_41));
+        assertFalse(capabilities.getEncoder(AVC).isHardwareAccelerated());
+        assertTrue(capabilities.getEncoder(HEVC).isHardwareAccelerated());
+    }
+
+    @Test
+    public void levelLimitsAreResolved() {
+        EncoderCapabilities capabilities = build(
+                new EncoderDescription("OMX.vendor.video.encoder.avc", AVC, AvcLevels.LEVEL_41),
+                new EncoderDescription("OMX.vendor.video.encoder.hevc", HEVC, 0),
+                new EncoderDescription("OMX.google.vp8.encoder", VP8, 1));
+        assertSame(AvcLevels.forLevel(AvcLevels.LEVEL_41),
+                capabilities.getEncoder(AVC).getLimits());
+        assertEquals(AvcLevels.LEVEL_41, capabilities.getEncoder(AVC).getLimits().getLevel());
+        // An unknown level gets the default limits of the type.
+        assertSame(HevcLevels.forLevel(HevcLevels.MAIN_TIER_LEVEL_41),
+                capabilities.getEncoder(HEVC).getLimits());
+        // There is no level table of the type.
+        assertNull(capabilities.getEncoder(VP8).getLimits());
+    }
+
+    private static EncoderCapabilities build(EncoderDescription... encoders) {
+        final List<EncoderDescription> list = Arrays.asList(encoders);
+        return EncoderCapabilities.build(new EncoderListSource() {
+            @Override
+            public List<EncoderDescription> getEncoders() {
+                return list;
+            }
+        });
+    }
+}
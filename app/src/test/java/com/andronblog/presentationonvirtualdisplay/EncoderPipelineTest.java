@@ -0,0 +1,97 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EncoderPipelineTest {
+
+    private static final EncoderConfig CONFIG =
+            new EncoderConfig(EncoderConfig.MIME_AVC, 640, 480, 30, 2000000, 1);
+
+    private FakeEncoderCodec mCodec;
+    private EncoderPipeline mPipeline;
+    private RecordingSink mFirst;
+    private RecordingSink mSecond;
+
+    @Before
+    public void setUp() throws Exception {
+        mCodec = new FakeEncoderCodec();
+        mPipeline = new EncoderPipeline(mCodec, CONFIG, null);
+        mFirst = new RecordingSink();
+        mSecond = new RecordingSink();
+        mPipeline.addSink(mFirst);
+        mPipeline.addSink(mSecond);
+        mPipeline.prepare();
+    }
+
+    @Test
+    public void configuresCodec() {
+        assertSame(CONFIG, mCodec.mConfig);
+        assertSame(CONFIG, mPipeline.getConfig());
+    }
+
+    @Test
+    public void everySinkGetsFormatAndSamples() {
+        MediaFormat format = new MediaFormat();
+        mPipeline.start();
+        mCodec.emitFormat(format);
+        mCodec.emitSample(new byte[] {1, 2, 3}, 0, SampleInfo.FLAG_KEY_FRAME);
+        mCodec.emitSample(new byte[] {4, 5}, 33333, 0);
+        for (RecordingSink sink : Arrays.asList(mFirst, mSecond)) {
+            assertEquals(1, sink.mFormats.size());
+            assertSame(format, sink.mFormats.get(0));
+            assertEquals(2, sink.mData.size());
+            assertArrayEquals(new byte[] {1, 2, 3}, sink.mData.get(0));
+            assertArrayEquals(new byte[] {4, 5}, sink.mData.get(1));
+            assertEquals(Arrays.asList(0L, 33333L), sink.mPts);
+            assertEquals(SampleInfo.FLAG_KEY_FRAME, (int) sink.mFlags.get(0));
+        }
+    }
+
+    @Test
+    public void outputBuffersAreReleased() {
+        mPipeline.start();
+        mCodec.emitSample(new byte[] {1}, 0, SampleInfo.FLAG_KEY_FRAME);
+        mCodec.emitSample(new byte[] {2}, 33333, 0);
+        assertEquals(Arrays.asList(0, 1), mCodec.mReleasedBuffers);
+    }
+
+    @Test
+    public void stopDeliversEndOfStreamOnce() {
+        mPipeline.start();
+        mCodec.emitSample(new byte[] {1}, 0, SampleInfo.FLAG_KEY_FRAME);
+        mPipeline.stop();
+        assertTrue(mCodec.mStopped);
+        mPipeline.release();
+        assertTrue(mCodec.mReleased);
+        assertEquals(1, mFirst.mEndOfStreams);
+        assertEquals(1, mSecond.mEndOfStreams);
+    }
+
+    @Test
+    public void releaseEndsStreamIfCodecDoesNot() {
+        mCodec.setEndOfStreamOnSignal(false);
+        mPipeline.release();
+        assertEquals(1, mFirst.mEndOfStreams);
+        assertEquals(1, mSecond.mEndOfStreams);
+    }
+
+    @Test
+    public void errorEndsStreamOnce() {
+        mPipeline.start();
+        mCodec.emitError();
+        mCodec.emitEndOfStream();
+        mPipeline.release();
+        assertEquals(1, mFirst.mEndOfStreams);
+        assertEquals(1, mSecond.mEndOfStreams);
+    }
+}
@@ -0,0 +1,106 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An encoder driven by the test: the output is emitted on the calling thread and the
+ * released buffers are recorded. It has no input surface.
+ */
+class FakeEncoderCodec implements EncoderCodec {
+
+    private Callback mCallback;
+    private int mNextIndex;
+    private boolean mEndOfStreamOnSignal = true;
+
+    final List<Integer> mReleasedBuffers = new ArrayList<Integer>();
+    EncoderConfig mConfig;
+    boolean mStarted;
+    boolean mStopped;
+    boolean mReleased;
+    int mBitRate;
+
+    /**
+     * Makes the codec emit the end of stream when the end of input is signaled, as a
+     * working codec does.
+     */
+    void setEndOfStreamOnSignal(boolean endOfStreamOnSignal) {
+        mEndOfStreamOnSignal = endOfStreamOnSignal;
+    }
+
+    void emitFormat(MediaFormat format) {
+        mCallback.onOutputFormatChanged(this, format);
+    }
+
+    void emitSample(byte[] data, long presentationTimeUs, int flags) {
+        // Put the data at an offset to check that the sinks get the position set.
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 16);
+        buffer.position(16);
+        buffer.put(data);
+        SampleInfo info = new SampleInfo();
+        info.set(16, data.length, presentationTimeUs, flags);
+        mCallback.onOutputBufferAvailable(this, mNextIndex++, buffer, info);
+    }
+
+    void emitEndOfStream() {
+        SampleInfo info = new SampleInfo();
+        info.set(0, 0, 0, SampleInfo.FLAG_END_OF_STREAM);
+        mCallback.onOutputBufferAvailable(this, mNextIndex++, ByteBuffer.allocate(0), info);
+    }
+
+    void emitError() {
+        mCallback.onError(this, new IllegalStateException("fake error"));
+    }
+
+    @Override
+    public void setCallback(Callback callback, Handler handler) {
+        mCallback = callback;
+    }
+
+    @Override
+    public void configure(EncoderConfig config) {
+        mConfig = config;
+    }
+
+    @Override
+    public Surface createInputSurface() {
+        return null;
+    }
+
+    @Override
+    public void start() {
+        mStarted = true;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mReleasedBuffers.add(index);
+    }
+
+    @Override
+    public void setVideoBitRate(int bitRate) {
+        mBitRate = bitRate;
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        if (mEndOfStreamOnSignal) {
+            emitEndOfStream();
+        }
+    }
+
+    @Override
+    public void stop() {
+        mStopped = true;
+    }
+
+    @Override
+    public void release() {
+        mReleased = true;
+    }
+}
@@ -0,0 +1,88 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameGateTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void passThroughSubmitsEveryFrame() {
+        FrameGate gate = FrameGate.passThrough();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gate.onFrame(i * MS));
+        }
+        assertEquals(-1, gate.getKeepAliveDelayNs(10 * MS));
+    }
+
+    @Test
+    public void capHoldsBackFramesUntilDue() {
+        FrameGate gate = FrameGate.passThrough();
+        gate.setMaxFrameRate(10);
+        assertTrue(gate.onFrame(0));
+        assertFalse(gate.onFrame(40 * MS));
+        assertTrue(gate.isFrameHeldBack());
+        assertEquals(60 * MS, gate.getKeepAliveDelayNs(40 * MS));
+        assertEquals(0, gate.getKeepAliveDelayNs(100 * MS));
+        gate.onKeepAlive(100 * MS);
+        assertFalse(gate.isFrameHeldBack());
+        assertEquals(-1, gate.getKeepAliveDelayNs(100 * MS));
+        assertTrue(gate.onFrame(200 * MS));
+    }
+
+    @Test
+    public void removedCapSubmitsEveryFrame() {
+        FrameGate gate = FrameGate.passThrough();
+        gate.setMaxFrameRate(10);
+        assertTrue(gate.onFrame(0));
+        assertFalse(gate.onFrame(10 * MS));
+        gate.setMaxFrameRate(0);
+        assertTrue(gate.onFrame(20 * MS));
+        assertFalse(gate.isFrameHeldBack());
+    }
+
+    @Test
+    public void capAppliesToDamagedFramesOnly() {
+        FrameGate gate = new FrameGate(1, 0);
+        gate.setMaxFrameRate(10);
+        assertTrue(gate.onFrame(0));
+        // Not damaged, nothing is held back.
+        assertFalse(gate.onFrame(10 * MS));
+        assertFalse(gate.isFrameHeldBack());
+        gate.markDamaged(20 * MS);
+        assertFalse(gate.onFrame(20 * MS));
+        assertTrue(gate.isFrameHeldBack());
+        assertEquals(80 * MS, gate.getKeepAliveDelayNs(20 * MS));
+    }
+
+    @Test
+    public void keepAliveDelayIsRoundedUp() {
+        FrameGate gate = FrameGate.passThrough();
+        gate.setMaxFrameRate(10);
+        assertTrue(gate.onFrame(0));
+        assertFalse(gate.onFrame(40 * MS));
+        assertEquals(60, gate.getKeepAliveDelayMs(40 * MS));
+        // Less than a millisecond left doesn't make the keep-alive run at once.
+        assertEquals(1, gate.getKeepAliveDelayMs(100 * MS - 1));
+        assertEquals(2, gate.getKeepAliveDelayMs(98 * MS + 1));
+        assertEquals(0, gate.getKeepAliveDelayMs(100 * MS));
+        gate.onKeepAlive(100 * MS);
+        assertEquals(-1, gate.getKeepAliveDelayMs(100 * MS));
+    }
+
+    @Test
+    public void keepAliveRepeatsLastFrame() {
+        FrameGate gate = new FrameGate(10, 0);
+        assertEquals(100, gate.getKeepAliveDelayMs(0));
+        gate.markDamaged(0);
+        assertTrue(gate.onFrame(0));
+        assertEquals(100 * MS, gate.getKeepAliveDelayNs(0));
+        assertEquals(0, gate.getKeepAliveDelayNs(150 * MS));
+        gate.onKeepAlive(150 * MS);
+        assertEquals(100 * MS, gate.getKeepAliveDelayNs(150 * MS));
+    }
+}
@@ -0,0 +1,75 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+
+    private static final long TIMEOUT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final SampleInfo mInfo = new SampleInfo();
+
+    @Test
+    public void dropsUntilKeyFrameButKeepsCodecConfig() throws Exception {
+        final FrameQueue queue = new FrameQueue(1, 16, FrameQueue.Policy.DROP_UNTIL_KEYFRAME);
+        final RecordingSink sink = new RecordingSink();
+        assertTrue(offer(queue, new byte[] {1}, 0, SampleInfo.FLAG_KEY_FRAME));
+        assertFalse(offer(queue, new byte[] {2}, 1, 0));
+
+        // The queue is full, the codec config waits for the consumer instead of being dropped.
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.take(sink, TIMEOUT_NS);
+            }
+        });
+        consumer.start();
+        assertTrue(offer(queue, new byte[] {3}, 2, SampleInfo.FLAG_CODEC_CONFIG));
+        consumer.join();
+        // Full again, dropping until the next key frame.
+        assertFalse(offer(queue, new byte[] {4}, 3, 0));
+        assertTrue(queue.take(sink, TIMEOUT_NS));
+        assertTrue(offer(queue, new byte[] {5}, 4, SampleInfo.FLAG_KEY_FRAME));
+        assertTrue(queue.take(sink, TIMEOUT_NS));
+
+        assertEquals(Arrays.asList(0L, 2L, 4L), sink.mPts);
+        assertEquals(2, queue.getDroppedSamples());
+    }
+
+    @Test
+    public void growsSlotsForBigSamples() {
+        FrameQueue queue = new FrameQueue(2, 4, FrameQueue.Policy.BLOCK);
+        RecordingSink sink = new RecordingSink();
+        byte[] big = new byte[64];
+        big[63] = 7;
+        for (int i = 0; i < 6; i++) {
+            assertTrue(offer(queue, i % 2 == 0 ? big : new byte[] {1}, i, 0));
+            assertTrue(queue.take(sink, TIMEOUT_NS));
+        }
+        for (int i = 0; i < 6; i += 2) {
+            assertArrayEquals(big, sink.mData.get(i));
+        }
+    }
+
+    @Test
+    public void takeWaitsForTheTimeout() {
+        FrameQueue queue = new FrameQueue(2, 4, FrameQueue.Policy.BLOCK);
+        long timeoutNs = TimeUnit.MILLISECONDS.toNanos(50);
+        long start = System.nanoTime();
+        assertFalse(queue.take(new RecordingSink(), timeoutNs));
+        assertTrue(System.nanoTime() - start >= timeoutNs);
+    }
+
+    private boolean offer(FrameQueue queue, byte[] data, long ptsUs, int flags) {
+        mInfo.set(0, data.length, ptsUs, flags);
+        return queue.offerSample(ByteBuffer.wrap(data), mInfo);
+    }
+}
@@ -0,0 +1,44 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreviewConfigSelectorTest {
+
+    private static final int[] WIDTHS = {1920, 640, 1280, 320, 960};
+    private static final int[] HEIGHTS = {1080, 480, 720, 240, 1280};
+
+    @Test
+    public void smallestSizeCoveringTheViewIsChosen() {
+        assertEquals(1, PreviewConfigSelector.chooseSize(WIDTHS, HEIGHTS, 600, 400));
+        assertEquals(2, PreviewConfigSelector.chooseSize(WIDTHS, HEIGHTS, 1280, 720));
+        assertEquals(3, PreviewConfigSelector.chooseSize(WIDTHS, HEIGHTS, 1, 1));
+        // Wide enough isn't enough, both dimensions have to be covered.
+        assertEquals(0, PreviewConfigSelector.chooseSize(WIDTHS, HEIGHTS, 1000, 800));
+    }
+
+    @Test
+    public void largestSizeIsChosenIfNoneCoversTheView() {
+        assertEquals(0, PreviewConfigSelector.chooseSize(WIDTHS, HEIGHTS, 3840, 2160));
+        assertEquals(-1, PreviewConfigSelector.chooseSize(new int[0], new int[0], 640, 480));
+    }
+
+    @Test
+    public void lowestRangeReachingTheFrameRateIsChosen() {
+        int[] mins = {15, 30, 7, 24, 15};
+        int[] maxs = {30, 30, 30, 24, 60};
+        // The lowest lower bound among the ranges up to 30 fps.
+        assertEquals(2, PreviewConfigSelector.chooseFpsRange(mins, maxs, 30));
+        assertEquals(3, PreviewConfigSelector.chooseFpsRange(mins, maxs, 24));
+        assertEquals(4, PreviewConfigSelector.chooseFpsRange(mins, maxs, 50));
+    }
+
+    @Test
+    public void fastestRangeIsChosenIfNoneReachesTheFrameRate() {
+        int[] mins = {15, 24, 7};
+        int[] maxs = {15, 24, 30};
+        assertEquals(2, PreviewConfigSelector.chooseFpsRange(mins, maxs, 60));
+        assertEquals(-1, PreviewConfigSelector.chooseFpsRange(new int[0], new int[0], 30));
+    }
+}
@@ -0,0 +1,114 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QualityGovernorTest {
+
+    private static final QualityGovernor.Level[] LADDER = {
+            new QualityGovernor.Level(1f, 30, 1f),
+            new QualityGovernor.Level(1f, 20, 0.8f),
+            new QualityGovernor.Level(0.5f, 15, 0.5f),
+    };
+    private static final QualityGovernor.Signals PRESSURE =
+            new QualityGovernor.Signals(100000, 0, Float.NaN, -1, false);
+    private static final QualityGovernor.Signals CRITICAL =
+            new QualityGovernor.Signals(0, 0, QualityGovernor.TEMPERATURE_CRITICAL_C, -1, false);
+    private static final QualityGovernor.Signals RELAXED =
+            new QualityGovernor.Signals(10000, 0, 30f, 80, false);
+    // Between the low and the high thresholds: neither under pressure nor relaxed.
+    private static final QualityGovernor.Signals BUSY =
+            new QualityGovernor.Signals(50000, 0, 30f, 80, false);
+    private static final QualityGovernor.Signals WARM =
+            new QualityGovernor.Signals(10000, 0, 40f, 80, false);
+    private static final QualityGovernor.Signals LOW_BATTERY =
+            new QualityGovernor.Signals(10000, 0, 30f, 10, false);
+    private static final QualityGovernor.Signals LOW_BATTERY_CHARGING =
+            new QualityGovernor.Signals(10000, 0, 30f, 10, true);
+
+    private static final QualityGovernor.Decision HOLD = QualityGovernor.Decision.HOLD;
+    private static final QualityGovernor.Decision DOWN = QualityGovernor.Decision.STEP_DOWN;
+    private static final QualityGovernor.Decision UP = QualityGovernor.Decision.STEP_UP;
+
+    @Test
+    public void stepsDownUnderPressure() {
+        QualityGovernor governor = new QualityGovernor(LADDER);
+        assertEquals(QualityGovernor.Decision.HOLD, governor.update(PRESSURE));
+        assertEquals(QualityGovernor.Decision.STEP_DOWN, governor.update(PRESSURE));
+        assertEquals(1, governor.getLevelIndex());
+        assertEquals(1, governor.getStepCount());
+    }
+
+    @Test
+    public void revertGoesBackToPreviousLevel() {
+        QualityGovernor governor = new QualityGovernor(LADDER);
+        governor.update(PRESSURE);
+        governor.update(PRESSURE);
+        governor.revertStep(1);
+        assertEquals(0, governor.getLevelIndex());
+        assertEquals(0, governor.getStepCount());
+        // The cooldown of the reverted step holds the level.
+        for (int i = 0; i < QualityGovernor.COOLDOWN_PERIODS; i++) {
+            assertEquals(QualityGovernor.Decision.HOLD, governor.update(PRESSURE));
+        }
+    }
+
+    @Test
+    public void revertOfOutdatedStepIsIgnored() {
+        QualityGovernor governor = new QualityGovernor(LADDER);
+        assertEquals(QualityGovernor.Decision.STEP_DOWN, governor.update(CRITICAL));
+        assertEquals(QualityGovernor.Decision.STEP_DOWN, governor.update(CRITICAL));
+        governor.revertStep(1);
+        assertEquals(2, governor.getLevelIndex());
+        governor.revertStep(2);
+        assertEquals(1, governor.getLevelIndex());
+    }
+
+    @Test
+    public void replaysTrace() {
+        // The signals of each period, the decision and the level after it.
+        Object[][] trace = {
+                {RELAXED, HOLD, 0},
+                {BUSY, HOLD, 0},
+                {PRESSURE, HOLD, 0},
+                // A period in the band breaks the periods under pressure.
+                {BUSY, HOLD, 0},
+                {PRESSURE, HOLD, 0},
+                {PRESSURE, DOWN, 1},
+                // Overheating doesn't wait for the cooldown.
+                {CRITICAL, DOWN, 2},
+                {CRITICAL, HOLD, 2},
+                {WARM, HOLD, 2},
+                {WARM, HOLD, 2},
+                {WARM, HOLD, 2},
+                {WARM, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, HOLD, 2},
+                {RELAXED, UP, 1},
+                // The periods under pressure during the cooldown count once it's over.
+                {LOW_BATTERY, HOLD, 1},
+                {LOW_BATTERY, HOLD, 1},
+                {LOW_BATTERY, HOLD, 1},
+                {LOW_BATTERY, HOLD, 1},
+                {LOW_BATTERY, HOLD, 1},
+                {LOW_BATTERY, DOWN, 2},
+                {LOW_BATTERY_CHARGING, HOLD, 2},
+        };
+        QualityGovernor governor = new QualityGovernor(LADDER);
+        for (int i = 0; i < trace.length; i++) {
+            assertEquals("period " + i, trace[i][1],
+                    governor.update((QualityGovernor.Signals) trace[i][0]));
+            assertEquals("period " + i, trace[i][2], governor.getLevelIndex());
+        }
+        assertEquals(4, governor.getStepCount());
+        assertEquals(LADDER[2].getFrameRate(), governor.getLevel().getFrameRate());
+    }
+}
@@ -0,0 +1,169 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingCatalogTest {
+
+    private static final KeyFrameIndex INDEX = new KeyFrameIndex(new long[] {0}, 1000000);
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void reopenKeepsTheRecordings() throws IOException {
+        RecordingCatalog catalog = open();
+        String first = record(catalog);
+        String second = record(catalog);
+        String aborted = catalog.begin("mp4");
+        catalog.abort(aborted);
+        catalog.begin("mp4");
+        catalog.close();
+
+        catalog = open();
+        assertEquals(2, catalog.size());
+        assertEquals(second, catalog.getLatest().getPath());
+        assertTrue(new File(first).exists());
+        catalog.close();
+    }
+
+    @Test
+    public void compactedJournalIsntCompactedAgainOnOpen() throws IOException {
+        RecordingCatalog catalog = open();
+        for (int i = 0; i < 70; i++) {
+            record(catalog);
+        }
+        File journal = new File(mFolder.getRoot(), RecordingCatalog.JOURNAL_FILE);
+        long length = journal.length();
+        // The obsolete begin and delete records outnumber the recordings.
+        assertEquals(2, catalog.evict(Long.MAX_VALUE, 68, System.currentTimeMillis()).size());
+        assertTrue(journal.length() < length);
+        // Only the commit and the delete of this one are obsolete in the compacted journal.
+        String evicted = catalog.evict(Long.MAX_VALUE, 67, System.currentTimeMillis())
+                .get(0).getPath();
+        assertFalse(new File(evicted).exists());
+        catalog.close();
+        length = journal.length();
+
+        catalog = open();
+        assertEquals(67, catalog.size());
+        assertEquals(length, journal.length());
+        catalog.close();
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws IOException {
+        RecordingCatalog catalog = open();
+        record(catalog);
+        String last = record(catalog);
+        catalog.close();
+        File journal = new File(mFolder.getRoot(), RecordingCatalog.JOURNAL_FILE);
+        long length = journal.length();
+        // The process died while a record was written.
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.seek(length);
+            file.writeByte(2);
+            file.writeInt(1000);
+            file.write(new byte[10]);
+        } finally {
+            file.close();
+        }
+
+        catalog = open();
+        assertEquals(2, catalog.size());
+        assertEquals(last, catalog.getLatest().getPath());
+        assertEquals(length, journal.length());
+        // The journal takes records after the valid ones again.
+        record(catalog);
+        catalog.close();
+        catalog = open();
+        assertEquals(3, catalog.size());
+        catalog.close();
+    }
+
+    @Test
+    public void unfinishedRecordingIsDeletedOnOpen() throws IOException {
+        RecordingCatalog catalog = open();
+        String finished = record(catalog);
+        String unfinished = catalog.begin("mp4");
+        write(unfinished);
+        write(unfinished + RecordingCatalog.PARTIAL_SUFFIX);
+        write(KeyFrameIndex.getSidecar(unfinished).getPath());
+        // The process dies without committing the recording.
+        catalog.close();
+
+        catalog = open();
+        assertEquals(1, catalog.size());
+        assertEquals(finished, catalog.getLatest().getPath());
+        assertFalse(new File(unfinished).exists());
+        assertFalse(new File(unfinished + RecordingCatalog.PARTIAL_SUFFIX).exists());
+        assertFalse(KeyFrameIndex.getSidecar(unfinished).exists());
+        assertTrue(new File(finished).exists());
+        catalog.close();
+
+        // The delete is journaled, it isn't repeated on the next open.
+        catalog = open();
+        assertEquals(1, catalog.size());
+        catalog.close();
+    }
+
+    @Test
+    public void unreadableJournalIsMovedAside() throws IOException {
+        RecordingCatalog catalog = open();
+        String recorded = record(catalog);
+        catalog.close();
+        File journal = new File(mFolder.getRoot(), RecordingCatalog.JOURNAL_FILE);
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+
+        catalog = open();
+        assertEquals(0, catalog.size());
+        assertTrue(new File(journal.getPath() + ".bad").exists());
+        // The new recordings don't overwrite the ones of the lost journal.
+        String path = record(catalog);
+        assertNotEquals(recorded, path);
+        assertTrue(new File(recorded).exists());
+        catalog.close();
+        catalog = open();
+        assertEquals(path, catalog.getLatest().getPath());
+        catalog.close();
+    }
+
+    private RecordingCatalog open() throws IOException {
+        RecordingCatalog catalog = new RecordingCatalog(mFolder.getRoot(), "presentation");
+        catalog.open();
+        return catalog;
+    }
+
+    private static String record(RecordingCatalog catalog) throws IOException {
+        String path = catalog.begin("mp4");
+        write(path);
+        catalog.commit(path, EncoderConfig.MIME_AVC, INDEX);
+        return path;
+    }
+
+    private static void write(String path) throws IOException {
+        FileOutputStream out = new FileOutputStream(path);
+        try {
+            out.write(1);
+        } finally {
+            out.close();
+        }
+    }
+}
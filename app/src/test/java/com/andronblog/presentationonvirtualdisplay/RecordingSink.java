@@ -0,0 +1,38 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a copy of everything a sink gets.
+ */
+class RecordingSink implements SampleSink {
+
+    final List<MediaFormat> mFormats = new ArrayList<MediaFormat>();
+    final List<byte[]> mData = new ArrayList<byte[]>();
+    final List<Long> mPts = new ArrayList<Long>();
+    final List<Integer> mFlags = new ArrayList<Integer>();
+    int mEndOfStreams;
+
+    @Override
+    public void onOutputFormat(MediaFormat format) {
+        mFormats.add(format);
+    }
+
+    @Override
+    public void onSample(ByteBuffer buffer, SampleInfo info) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        mData.add(data);
+        mPts.add(info.presentationTimeUs);
+        mFlags.add(info.flags);
+    }
+
+    @Override
+    public void onEndOfStream() {
+        mEndOfStreams++;
+    }
+}
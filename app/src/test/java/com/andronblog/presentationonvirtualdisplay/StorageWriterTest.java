@@ -0,0 +1,83 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StorageWriterTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void samplesAreCoalescedIntoBlocks() throws IOException {
+        File file = mFolder.newFile("stream.h264");
+        StorageWriter writer = new StorageWriter(file, 4096, 0, 0, null);
+        byte[] expected = new byte[5000];
+        for (int i = 0; i < 50; i++) {
+            byte[] sample = new byte[100];
+            for (int j = 0; j < sample.length; j++) {
+                sample[j] = (byte) (i + j);
+            }
+            System.arraycopy(sample, 0, expected, i * 100, sample.length);
+            writer.write(ByteBuffer.wrap(sample));
+        }
+        // One block is full, the rest waits for the next samples.
+        assertEquals(1, writer.getBlocksWritten());
+        assertEquals(4096, writer.getBytesWritten());
+        writer.close();
+        assertEquals(2, writer.getBlocksWritten());
+        assertEquals(5000, writer.getBytesWritten());
+        assertArrayEquals(expected, read(file));
+    }
+
+    @Test
+    public void blockSizeIsAligned() throws IOException {
+        File file = mFolder.newFile("stream.h264");
+        StorageWriter writer = new StorageWriter(file, 1000, 0, 0, null);
+        writer.write(ByteBuffer.wrap(new byte[4095]));
+        assertEquals(0, writer.getBlocksWritten());
+        writer.write(ByteBuffer.wrap(new byte[2]));
+        assertEquals(1, writer.getBlocksWritten());
+        writer.close();
+        assertEquals(4097, file.length());
+    }
+
+    @Test
+    public void existingFileIsCutAfterData() throws IOException {
+        File file = mFolder.newFile("stream.h264");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[10000]);
+        } finally {
+            out.close();
+        }
+        StorageWriter writer = new StorageWriter(file, 4096, 0, 0, null);
+        writer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        writer.close();
+        assertArrayEquals(new byte[] {1, 2, 3}, read(file));
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,142 @@
+package com.andronblog.presentationonvirtualdisplay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamServerTest {
+
+    private static final byte CONFIG = 0x7f;
+    private static final int FRAME_SIZE = 256 * 1024;
+    private static final int KEY_FRAME_INTERVAL = 10;
+
+    private StreamServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test(timeout = 10000)
+    public void clientGetsConfigThenKeyFrame() throws Exception {
+        mServer.setCodecConfig(ByteBuffer.wrap(new byte[] {1, 2}));
+        SocketChannel client = connect(0);
+        awaitClients(1);
+        try {
+            // Not decodable without the previous key frame.
+            mServer.offer(ByteBuffer.wrap(new byte[] {9}), false);
+            mServer.offer(ByteBuffer.wrap(new byte[] {3, 3}), true);
+            mServer.offer(ByteBuffer.wrap(new byte[] {4}), false);
+            mServer.offer(ByteBuffer.wrap(new byte[] {5}), false);
+            assertArrayEquals(new byte[] {1, 2, 3, 3, 4, 5}, read(client, 6));
+            assertEquals(1, mServer.getDroppedFrames());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void slowClientSkipsToNextKeyFrame() throws Exception {
+        mServer.setCodecConfig(ByteBuffer.wrap(frame(CONFIG)));
+        // The slow client doesn't read for a while, its socket buffers fill up at once.
+        SocketChannel slow = connect(4096);
+        SocketChannel fast = connect(0);
+        awaitClients(2);
+        int frames = 40;
+        try {
+            for (int i = 0; i < frames; i++) {
+                mServer.offer(ByteBuffer.wrap(frame((byte) i)), i % KEY_FRAME_INTERVAL == 0);
+                if (i == 0) {
+                    assertArrayEquals(frame(CONFIG), read(fast, FRAME_SIZE));
+                }
+                assertArrayEquals(frame((byte) i), read(fast, FRAME_SIZE));
+            }
+        } finally {
+            fast.close();
+        }
+        assertTrue(mServer.getDroppedFrames() > 0);
+
+        // The slow client catches up and gets the next key frame after the config.
+        for (int i = frames; i < frames + 3; i++) {
+            mServer.offer(ByteBuffer.wrap(frame((byte) i)), i % KEY_FRAME_INTERVAL == 0);
+        }
+        List<Byte> ids = new ArrayList<Byte>();
+        byte id;
+        do {
+            id = readFrame(slow);
+            ids.add(id);
+        } while (id != frames + 2);
+        slow.close();
+        assertEquals(CONFIG, (byte) ids.get(0));
+        int i = 1;
+        while (ids.get(i) != CONFIG) {
+            assertEquals(i - 1, (int) ids.get(i));
+            i++;
+        }
+        assertTrue(i - 1 < frames);
+        assertEquals(Arrays.asList(CONFIG, (byte) frames, (byte) (frames + 1),
+                (byte) (frames + 2)), ids.subList(i, ids.size()));
+    }
+
+    private SocketChannel connect(int receiveBufferSize) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        if (receiveBufferSize > 0) {
+            channel.socket().setReceiveBufferSize(receiveBufferSize);
+        }
+        channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                mServer.getPort()));
+        return channel;
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        while (mServer.getClientCount() < count) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] frame(byte id) {
+        byte[] frame = new byte[FRAME_SIZE];
+        Arrays.fill(frame, id);
+        return frame;
+    }
+
+    private static byte[] read(SocketChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("End of stream");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads a whole frame and returns its id.
+     */
+    private static byte readFrame(SocketChannel channel) throws IOException {
+        byte[] frame = read(channel, FRAME_SIZE);
+        for (byte b : frame) {
+            assertEquals(frame[0], b);
+        }
+        return frame[0];
+    }
+}
@@ -0,0 +1,59 @@
+package com.andronblog.presentationonvirtualdisplay.benchmark;
+
+import com.andronblog.presentationonvirtualdisplay.AvcLevels;
+import com.andronblog.presentationonvirtualdisplay.CodecRanker;
+import com.andronblog.presentationonvirtualdisplay.EncoderCapabilities;
+import com.andronblog.presentationonvirtualdisplay.EncoderConfig;
+import com.andronblog.presentationonvirtualdisplay.EncoderSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the ranking of the AVC, HEVC and VP9 encoders of the stub codec list which
+ * chooses the codec of the recordings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecRankerBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private CodecRanker mRanker;
+
+    @Setup
+    public void setUp() {
+        int x = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, x));
+        mHeight = Integer.parseInt(size.substring(x + 1));
+        EncoderCapabilities capabilities = EncoderCapabilities.build(
+                new StubEncoderListSource(AvcLevels.LEVEL_41));
+        mRanker = new CodecRanker(capabilities, Arrays.asList(EncoderConfig.MIME_AVC,
+                EncoderConfig.MIME_HEVC, EncoderConfig.MIME_VP9));
+    }
+
+    @Benchmark
+    public List<CodecRanker.Candidate> rank() {
+        return mRanker.rank(mWidth, mHeight, 30, EncoderSupport.getVideoBitRate(mWidth, mHeight), 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.andronblog.presentationonvirtualdisplay.benchmark;
+
+import com.andronblog.presentationonvirtualdisplay.AvcLevels;
+import com.andronblog.presentationonvirtualdisplay.EncodeConfigSolver;
+import com.andronblog.presentationonvirtualdisplay.EncoderConfig;
+import com.andronblog.presentationonvirtualdisplay.EncoderSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bit rate and frame rate arithmetic which configures the encoder of a
+ * session, for requests which fit the level and for ones which must be downscaled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeConfigSolverBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"30", "60"})
+    public int frameRate;
+
+    @Param({"LEVEL_31", "LEVEL_41", "LEVEL_51"})
+    public String level;
+
+    private int mWidth;
+    private int mHeight;
+    private EncodeConfigSolver mSolver;
+
+    @Setup
+    public void setUp() throws Exception {
+        int x = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, x));
+        mHeight = Integer.parseInt(size.substring(x + 1));
+        int avcLevel = AvcLevels.class.getField(level).getInt(null);
+        mSolver = new EncodeConfigSolver(AvcLevels.forLevel(avcLevel));
+    }
+
+    @Benchmark
+    public EncoderConfig solve() {
+        return mSolver.solve(EncoderConfig.MIME_AVC, mWidth, mHeight, frameRate,
+                EncoderSupport.getVideoBitRate(mWidth, mHeight), 1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.andronblog.presentationonvirtualdisplay.benchmark;
+
+import com.andronblog.presentationonvirtualdisplay.AvcLevels;
+import com.andronblog.presentationonvirtualdisplay.EncoderCapabilities;
+import com.andronblog.presentationonvirtualdisplay.EncoderConfig;
+import com.andronblog.presentationonvirtualdisplay.EncoderSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the checks done for every session: the bit rate for a size, the size and
+ * frame rate check against the encoder level and building the capability index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderSupportBenchmark {
+
+    @Param({"720x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"30", "60"})
+    public int frameRate;
+
+    private int mWidth;
+    private int mHeight;
+    private StubEncoderListSource mSource;
+    private EncoderCapabilities mCapabilities;
+
+    @Setup
+    public void setUp() {
+        int x = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, x));
+        mHeight = Integer.parseInt(size.substring(x + 1));
+        mSource = new StubEncoderListSource(AvcLevels.LEVEL_41);
+        mCapabilities = EncoderCapabilities.build(mSource);
+    }
+
+    @Benchmark
+    public int videoBitRate() {
+        return EncoderSupport.getVideoBitRate(mWidth, mHeight);
+    }
+
+    @Benchmark
+    public boolean isSupportedByAvcEncoder() {
+        return EncoderSupport.isSupported(mCapabilities, EncoderConfig.MIME_AVC, mWidth, mHeight,
+                frameRate);
+    }
+
+    @Benchmark
+    public EncoderCapabilities buildCapabilities() {
+        return EncoderCapabilities.build(mSource);
+    }
+}
@@ -0,0 +1,36 @@
+package com.andronblog.presentationonvirtualdisplay.benchmark;
+
+import com.andronblog.presentationonvirtualdisplay.AvcLevels;
+import com.andronblog.presentationonvirtualdisplay.EncoderDescription;
+import com.andronblog.presentationonvirtualdisplay.EncoderListSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A codec list looking like the one of a typical device: a hardware and a software AVC
+ * encoder and a few encoders of other types.
+ */
+public class StubEncoderListSource implements EncoderListSource {
+
+    private final int mAvcLevel;
+
+    /**
+     * @param avcLevel the highest level of the hardware AVC encoder
+     */
+    public StubEncoderListSource(int avcLevel) {
+        mAvcLevel = avcLevel;
+    }
+
+    @Override
+    public List<EncoderDescription> getEncoders() {
+        List<EncoderDescription> encoders = new ArrayList<EncoderDescription>();
+        encoders.add(new EncoderDescription("OMX.qcom.video.encoder.avc", "video/avc", mAvcLevel));
+        encoders.add(new EncoderDescription("OMX.qcom.video.encoder.hevc", "video/hevc", 0));
+        encoders.add(new EncoderDescription("OMX.google.h264.encoder", "video/avc", AvcLevels.LEVEL_2));
+        encoders.add(new EncoderDescription("OMX.google.vp8.encoder", "video/x-vnd.on2.vp8", 0));
+        encoders.add(new EncoderDescription("OMX.google.vp9.encoder", "video/x-vnd.on2.vp9", 0));
+        encoders.add(new EncoderDescription("OMX.google.aac.encoder", "audio/mp4a-latm", 0));
+        return encoders;
+    }
+}